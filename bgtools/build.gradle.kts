@@ -1,6 +1,7 @@
 plugins {
     java
     application
+    id("me.champeau.jmh") version "0.6.6"
 }
 
 java {
@@ -25,3 +26,10 @@ dependencies {
 
     implementation("org.lwjgl.osgi:org.lwjgl.stb:3.2.1.2")
 }
+
+jmh {
+    jmhVersion.set("1.33")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
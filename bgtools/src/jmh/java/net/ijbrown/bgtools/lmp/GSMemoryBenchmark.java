@@ -0,0 +1,52 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Swizzling a 256x256 texture in and out of GS memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GSMemoryBenchmark
+{
+    private static final int SIZE = 256;
+
+    private GSMemory gsMem;
+    private BinaryReader pixels;
+
+    @Setup
+    public void setup()
+    {
+        gsMem = new GSMemory();
+        pixels = BinaryReader.wrap(SyntheticAssets.randomBytes(SIZE * SIZE * 4));
+        gsMem.writeTexPSMCT32(0, SIZE / 64, 0, 0, SIZE, SIZE, pixels, 0);
+    }
+
+    @Benchmark
+    public GSMemory writeTexPSMCT32()
+    {
+        gsMem.writeTexPSMCT32(0, SIZE / 64, 0, 0, SIZE, SIZE, pixels, 0);
+        return gsMem;
+    }
+
+    @Benchmark
+    public byte[] readTexPSMT8()
+    {
+        return gsMem.readTexPSMT8(0, SIZE / 64, 0, 0, SIZE, SIZE);
+    }
+
+    @Benchmark
+    public byte[] readTexPSMT4()
+    {
+        return gsMem.readTexPSMT4(0, SIZE / 64, 0, 0, SIZE, SIZE);
+    }
+}
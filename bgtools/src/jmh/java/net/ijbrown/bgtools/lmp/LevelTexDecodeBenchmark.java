@@ -0,0 +1,40 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a level texture chunk, which runs decodeBlock once per 16x16 block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LevelTexDecodeBenchmark
+{
+    @Param({"8", "32"})
+    public int blocks;
+
+    private LevelTexDecode decoder;
+
+    @Setup
+    public void setup()
+    {
+        decoder = new LevelTexDecode();
+        decoder.read(BinaryReader.wrap(SyntheticAssets.levelTex(blocks, blocks)));
+    }
+
+    @Benchmark
+    public BufferedImage decodeImage()
+    {
+        return decoder.decodeImage(SyntheticAssets.LEVEL_TEX_CHUNK_OFFSET);
+    }
+}
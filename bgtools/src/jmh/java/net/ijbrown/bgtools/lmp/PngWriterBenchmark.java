@@ -0,0 +1,60 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a decoded texture as a png, palettised for the 4 and 8 bit formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PngWriterBenchmark
+{
+    @Param({"PSMCT32", "PSMT8", "PSMT4"})
+    public SyntheticAssets.TexFormat format;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"0", "1", "-1"})
+    public int level;
+
+    private TexDecode texDecode;
+    private TexDecode.DecodedTex tex;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        texDecode = new TexDecode();
+        texDecode.setPngWriter(new PngWriter(level));
+        byte[] data = SyntheticAssets.tex(format, size, size);
+        tex = texDecode.decodeTex(data, 0, data.length);
+        file = File.createTempFile("bench", ".png");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Benchmark
+    public File writePng() throws IOException
+    {
+        texDecode.writePng(tex, file);
+        return file;
+    }
+}
@@ -0,0 +1,38 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScriptDecodeBenchmark
+{
+    @Param({"100", "2000"})
+    public int numRoutines;
+
+    private byte[] data;
+
+    @Setup
+    public void setup()
+    {
+        data = SyntheticAssets.script(numRoutines);
+    }
+
+    @Benchmark
+    public String disassemble()
+    {
+        // The decoder collects labels and strings as it goes, so each run needs a fresh one.
+        ScriptDecode decoder = new ScriptDecode("");
+        decoder.read(data);
+        return decoder.disassemble(null);
+    }
+}
@@ -0,0 +1,38 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TexDecodeBenchmark
+{
+    @Param({"PSMCT32", "PSMT8", "PSMT4", "PSMT4_LINEAR"})
+    public SyntheticAssets.TexFormat format;
+
+    @Param({"128", "1024"})
+    public int size;
+
+    private BinaryReader data;
+
+    @Setup
+    public void setup()
+    {
+        data = BinaryReader.wrap(SyntheticAssets.tex(format, size, size));
+    }
+
+    @Benchmark
+    public TexDecode.DecodedTex decodeTex()
+    {
+        return new TexDecode().decodeTex(data, 0, data.length());
+    }
+}
@@ -0,0 +1,61 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VifDecodeBenchmark
+{
+    @Param({"4", "64"})
+    public int numChunks;
+
+    /** Strip positions per chunk. The first 48 are distinct vertices, the rest reuse them with a new UV. */
+    @Param({"48", "96"})
+    public int stripLength;
+
+    private BinaryReader data;
+    private int startOffset;
+    private int endOffset;
+    private List<VifDecode.Chunk> chunks;
+    private final VifDecode decoder = new VifDecode();
+
+    @Setup
+    public void setup()
+    {
+        byte[] vif = SyntheticAssets.vif(1, numChunks, 48, stripLength);
+        data = BinaryReader.wrap(vif);
+        startOffset = data.getInt(0x28);
+        endOffset = data.getInt(0x2C);
+        chunks = new VifDecode().readVerts(data, startOffset, endOffset);
+    }
+
+    @Benchmark
+    public List<VifDecode.Chunk> readVerts()
+    {
+        return new VifDecode().readVerts(data, startOffset, endOffset);
+    }
+
+    @Benchmark
+    public VifDecode.Mesh chunksToMesh()
+    {
+        return VifDecode.ChunksToMesh(chunks);
+    }
+
+    /** Streams the chunks into a mesh with a decoder whose buffers are reused between calls. */
+    @Benchmark
+    public VifDecode.Mesh decodeMesh()
+    {
+        return decoder.decodeMesh(data, startOffset, endOffset);
+    }
+}
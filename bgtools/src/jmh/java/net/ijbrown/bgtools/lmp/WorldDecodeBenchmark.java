@@ -0,0 +1,44 @@
+package net.ijbrown.bgtools.lmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorldDecodeBenchmark
+{
+    @Param({"16", "64"})
+    public int gridSize;
+
+    private byte[] data;
+    private File outDir;
+
+    // There is no level texture file, so the texture grid is listed but nothing is extracted.
+    private final File levelTexFile = new File("does-not-exist.tex");
+
+    @Setup
+    public void setup()
+    {
+        int numCells = gridSize * gridSize;
+        data = SyntheticAssets.world(gridSize, gridSize, numCells, Math.max(1, numCells / 8));
+        outDir = new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    @Benchmark
+    public String disassemble()
+    {
+        WorldDecode decoder = new WorldDecode(GameType.DARK_ALLIANCE);
+        decoder.read(data);
+        return decoder.disassemble(decoder.decode(), outDir, levelTexFile);
+    }
+}
@@ -0,0 +1,46 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Builds TYPE_INT_ARGB images directly over arrays of packed ARGB pixels, so pixels never go through setRGB.
+ */
+public class ArgbImage
+{
+    private static final int[] MASKS = {0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000};
+
+    /**
+     * Wraps pixels in an image without copying them. Later writes to the array show up in the image.
+     *
+     * @param scanlineStride The number of pixels from the start of one row to the start of the next.
+     */
+    public static BufferedImage wrap(int[] pixels, int width, int height, int scanlineStride)
+    {
+        DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, scanlineStride, MASKS, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+
+    /**
+     * Makes a width x height image from the top left of a pixelsWidth wide array of pixels.
+     * The array is wrapped if it covers the whole image, otherwise the part that it does cover is copied
+     * and the rest of the image is transparent.
+     */
+    public static BufferedImage create(int[] pixels, int pixelsWidth, int pixelsHeight, int width, int height)
+    {
+        int rows = Math.min(pixelsHeight, pixels.length / pixelsWidth);
+        if (width <= pixelsWidth && height <= rows) {
+            return wrap(pixels, width, height, pixelsWidth);
+        }
+        int[] copy = new int[width * height];
+        int copyWidth = Math.min(width, pixelsWidth);
+        for (int y = 0; y < height && y < rows; ++y) {
+            System.arraycopy(pixels, y * pixelsWidth, copy, y * width, copyWidth);
+        }
+        return wrap(copy, width, height, width);
+    }
+}
@@ -0,0 +1,155 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads little endian values from a ByteBuffer.
+ * The buffer can wrap a byte array, a memory mapped file or a slice of either.
+ * Values can be read at absolute offsets or sequentially from a cursor.
+ */
+public class BinaryReader
+{
+    private final ByteBuffer buffer;
+    private int position = 0;
+
+    public BinaryReader(ByteBuffer buffer)
+    {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static BinaryReader wrap(byte[] data)
+    {
+        return new BinaryReader(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates a reader over part of this one. Offset 0 of the new reader is at offset in this one.
+     */
+    public BinaryReader slice(int offset, int length)
+    {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset).limit(offset + length);
+        return new BinaryReader(dup.slice());
+    }
+
+    public int length()
+    {
+        return buffer.limit();
+    }
+
+    public ByteBuffer getBuffer()
+    {
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Absolute accessors
+
+    public byte getByte(int offset)
+    {
+        return buffer.get(offset);
+    }
+
+    public int getUByte(int offset)
+    {
+        return buffer.get(offset) & 0xFF;
+    }
+
+    public short getShort(int offset)
+    {
+        return buffer.getShort(offset);
+    }
+
+    public int getUShort(int offset)
+    {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    public int getInt(int offset)
+    {
+        return buffer.getInt(offset);
+    }
+
+    public float getFloat(int offset)
+    {
+        return buffer.getFloat(offset);
+    }
+
+    public String getString(int offset)
+    {
+        return DataUtil.collectString(buffer, offset);
+    }
+
+    public void getBytes(int offset, byte[] dest, int destOffset, int length)
+    {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        dup.get(dest, destOffset, length);
+    }
+
+    // Cursor
+
+    public int position()
+    {
+        return position;
+    }
+
+    public void seek(int offset)
+    {
+        position = offset;
+    }
+
+    public void skip(int numBytes)
+    {
+        position += numBytes;
+    }
+
+    /**
+     * Moves the cursor forward to the next multiple of alignment, which must be a power of 2.
+     */
+    public void align(int alignment)
+    {
+        position = (position + alignment - 1) & ~(alignment - 1);
+    }
+
+    public boolean hasRemaining()
+    {
+        return position < buffer.limit();
+    }
+
+    public byte getByte()
+    {
+        return buffer.get(position++);
+    }
+
+    public int getUByte()
+    {
+        return buffer.get(position++) & 0xFF;
+    }
+
+    public short getShort()
+    {
+        short val = buffer.getShort(position);
+        position += 2;
+        return val;
+    }
+
+    public int getUShort()
+    {
+        return getShort() & 0xFFFF;
+    }
+
+    public int getInt()
+    {
+        int val = buffer.getInt(position);
+        position += 4;
+        return val;
+    }
+
+    public float getFloat()
+    {
+        float val = buffer.getFloat(position);
+        position += 4;
+        return val;
+    }
+}
@@ -97,10 +97,13 @@ public class CutDecode
 
         sb.append("\r\nCharacters:\r\n\r\n");
 
+        // The names are looked up again for every key frame, so decode them once here.
+        String[] charNames = new String[numCharacters];
         for (int i=0; i<numCharacters; ++i)
         {
             int charOffset = characterBlockOffset + i * 0x2C;
-            String charName = DataUtil.collectString(fileData, charOffset + 8);
+            String charName = DataUtil.internString(fileData, charOffset + 8);
+            charNames[i] = charName;
             sb.append("Name: '").append(charName).append("'\r\n");
             float x = DataUtil.getLEFloat(fileData, charOffset + 0x1C);
             float y = DataUtil.getLEFloat(fileData, charOffset + 0x20);
@@ -151,8 +154,12 @@ public class CutDecode
                     done = true;
                 }
             } else if (actor >= 0){
-                int charOffset = characterBlockOffset + actor * 0x2C;
-                String charName = DataUtil.collectString(fileData, charOffset + 8);
+                String charName;
+                if (actor < numCharacters) {
+                    charName = charNames[actor];
+                } else {
+                    charName = DataUtil.collectString(fileData, characterBlockOffset + actor * 0x2C + 8);
+                }
                 sb.append("  actor '").append(charName).append("'");
                 if (action == 0) {
                     sb.append(", pos: ").append(i8).append(", ").append(ic).append(", ").append(i10);
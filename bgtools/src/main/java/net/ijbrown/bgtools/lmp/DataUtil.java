@@ -15,36 +15,92 @@
 */
 package net.ijbrown.bgtools.lmp;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Utilities for reading binary data.
  */
 public class DataUtil
 {
+    private static final StringCache stringCache = new StringCache();
+
+    /**
+     * Reads a zero terminated string. Each byte is one character.
+     */
     public static String collectString(byte[] fileData, int headerOffset)
     {
-        String s = "";
-        int i=headerOffset;
-        while (fileData[i] != 0){
-            s += (char)fileData[i];
+        int len = stringLength(fileData, headerOffset);
+        return new String(fileData, headerOffset, len, StandardCharsets.ISO_8859_1);
+    }
+
+    public static String collectString(ByteBuffer buffer, int headerOffset)
+    {
+        int len = stringLength(buffer, headerOffset);
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + headerOffset, len, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[len];
+        buffer.duplicate().position(headerOffset).get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Like collectString, but names that have been seen before return the same String instance.
+     * Use this for names that repeat across files.
+     */
+    public static String internString(byte[] fileData, int headerOffset)
+    {
+        return stringCache.intern(fileData, headerOffset);
+    }
+
+    public static String internString(ByteBuffer buffer, int headerOffset)
+    {
+        return stringCache.intern(buffer, headerOffset);
+    }
+
+    /**
+     * Gets the length of a zero terminated string, not including the terminator.
+     */
+    public static int stringLength(byte[] fileData, int offset)
+    {
+        int i = offset;
+        while (fileData[i] != 0) {
+            ++i;
+        }
+        return i - offset;
+    }
+
+    public static int stringLength(ByteBuffer buffer, int offset)
+    {
+        int i = offset;
+        while (buffer.get(i) != 0) {
             ++i;
         }
-        return s;
+        return i - offset;
     }
 
+    // These view the array as little endian ints and shorts so the JIT can use a single load.
+    private static final VarHandle LE_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LE_SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
     public static float getLEFloat(byte[] data, int offset) {
         int i = getLEInt(data, offset);
         return Float.intBitsToFloat(i);
     }
 
     public static int getLEInt(byte[] data, int offset) {
-        return data[offset+3] << 24 | (data[offset + 2] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff);
+        return (int) LE_INT.get(data, offset);
     }
 
     public static short getLEShort(byte[] data, int offset) {
-        return (short)((data[offset+1] & 0xff) << 8 | (data[offset] & 0xff));
+        return (short) LE_SHORT.get(data, offset);
     }
 
     public static int getLEUShort(byte[] data, int offset) {
-        return ((data[offset+1] & 0xff) << 8 | (data[offset] & 0xff));
+        return getLEShort(data, offset) & 0xFFFF;
     }
 }
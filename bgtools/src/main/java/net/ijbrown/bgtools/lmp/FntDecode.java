@@ -15,8 +15,6 @@
 */
 package net.ijbrown.bgtools.lmp;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -1,11 +1,33 @@
 package net.ijbrown.bgtools.lmp;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * GS local memory. Pages are only allocated when a transfer writes to them, and pages that were never written read
+ * as zero. Decoders should use {@link #pooled()} so the pages are reused from one texture to the next.
+ */
 public class GSMemory {
 
-    // GS has 4 meg of DRAM
-    public byte[] mem = new byte[1024*1024*4];
+    private static final VarHandle MEM_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
 
-    private final int[] block32 =
+    private static final ThreadLocal<GSMemory> POOL = ThreadLocal.withInitial(GSMemory::new);
+
+    // GS has 4 meg of DRAM, in pages of 2048 words
+    private static final int PAGE_SHIFT = 13;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int NUM_PAGES = 1024 * 1024 * 4 >> PAGE_SHIFT;
+
+    // stands in for pages that have not been written
+    private static final byte[] ZERO_PAGE = new byte[1 << PAGE_SHIFT];
+
+    private final byte[][] pages = new byte[NUM_PAGES][];
+    private final ArrayDeque<byte[]> freePages = new ArrayDeque<>();
+
+    private static final int[] block32 =
     {
         0,  1,  4,  5, 16, 17, 20, 21,
         2,  3,  6,  7, 18, 19, 22, 23,
@@ -14,59 +36,12 @@ public class GSMemory {
     };
 
 
-    private final int[] columnWord32 =
+    private static final int[] columnWord32 =
     {
         0,  1,  4,  5,  8,  9, 12, 13, 2,  3,  6,  7, 10, 11, 14, 15
     };
 
-    // writes to the memory when destination format is set to PSMCT32
-    void writeTexPSMCT32(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh, byte[] data, int dataIndex)
-    {
-        int startBlockPos = dbp * 64;
-        for(int y = dsay; y < dsay + rrh; y++)
-        {
-            for(int x = dsax; x < dsax + rrw; x++)
-            {
-                int pageX = x / 64;
-                int pageY = y / 32;
-                int page  = pageX + pageY * dbw;
-
-                int px = x - (pageX * 64);
-                int py = y - (pageY * 32);
-
-                int blockX = px / 8;
-                int blockY = py / 8;
-                int block  = block32[blockX + blockY * 8];
-
-                int bx = px - blockX * 8;
-                int by = py - blockY * 8;
-
-                int column = by / 2;
-
-                int cx = bx;
-                int cy = by - column * 2;
-                int cw = columnWord32[cx + cy * 8];
-
-                int gsIndex = startBlockPos + page * 2048 + block * 64 + column * 16 + cw;
-                gsIndex *= 4;
-/*
-                mem[gsIndex++] = data[dataIndex + 3];
-                mem[gsIndex++] = data[dataIndex + 2];
-                mem[gsIndex++] = data[dataIndex + 1];
-                mem[gsIndex] = data[dataIndex];
-*/
-                if (dataIndex < data.length) {
-                    mem[gsIndex++] = data[dataIndex];
-                    mem[gsIndex++] = data[dataIndex + 1];
-                    mem[gsIndex++] = data[dataIndex + 2];
-                    mem[gsIndex] = data[dataIndex + 3];
-                    dataIndex += 4;
-                }
-            }
-        }
-    }
-
-    int[] block8 =
+    private static final int[] block8 =
     {
         0,  1,  4,  5, 16, 17, 20, 21,
         2,  3,  6,  7, 18, 19, 22, 23,
@@ -74,7 +49,7 @@ public class GSMemory {
         10, 11, 14, 15, 26, 27, 30, 31
     };
 
-    int[][] columnWord8 =
+    private static final int[][] columnWord8 =
     {
         {
             0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,
@@ -92,7 +67,7 @@ public class GSMemory {
         }
     };
 
-    int[] columnByte8 =
+    private static final int[] columnByte8 =
     {
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,
@@ -101,50 +76,7 @@ public class GSMemory {
         1, 1, 1, 1, 1, 1, 1, 1,  3, 3, 3, 3, 3, 3, 3, 3
     };
 
-    byte[] readTexPSMT8(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh)
-    {
-        byte [] data = new byte[rrw*rrh];
-        int dataIndex=0;
-
-        dbw >>= 1;
-
-        int startBlockPos = dbp * 64;
-
-        for(int y = dsay; y < dsay + rrh; y++)
-        {
-            for(int x = dsax; x < dsax + rrw; x++)
-            {
-                int pageX = x / 128;
-                int pageY = y / 64;
-                int page  = pageX + pageY * dbw;
-
-                int px = x - (pageX * 128);
-                int py = y - (pageY * 64);
-
-                int blockX = px / 16;
-                int blockY = py / 16;
-                int block  = block8[blockX + blockY * 8];
-
-                int bx = px - blockX * 16;
-                int by = py - blockY * 16;
-
-                int column = by / 4;
-
-                int cx = bx;
-                int cy = by - column * 4;
-                int cw = columnWord8[column & 1][cx + cy * 16];
-                int cb = columnByte8[cx + cy * 16];
-
-                int gsIndex = startBlockPos + page * 2048 + block * 64 + column * 16 + cw;
-                gsIndex *= 4;
-
-                data[dataIndex++] = mem[gsIndex + cb];
-            }
-        }
-        return data;
-    }
-
-    private final int[] block4 =
+    private static final int[] block4 =
     {
         0,  2,  8, 10,
         1,  3,  9, 11,
@@ -156,7 +88,7 @@ public class GSMemory {
         21, 23, 29, 31
     };
 
-    private final int[][] columnWord4 =
+    private static final int[][] columnWord4 =
     {
         {
             0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,
@@ -174,7 +106,7 @@ public class GSMemory {
         }
     };
 
-    private final int[] columnByte4 =
+    private static final int[] columnByte4 =
     {
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,  4, 4, 4, 4, 4, 4, 4, 4,  6, 6, 6, 6, 6, 6, 6, 6,
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,  4, 4, 4, 4, 4, 4, 4, 4,  6, 6, 6, 6, 6, 6, 6, 6,
@@ -183,63 +115,197 @@ public class GSMemory {
         1, 1, 1, 1, 1, 1, 1, 1,  3, 3, 3, 3, 3, 3, 3, 3,  5, 5, 5, 5, 5, 5, 5, 5,  7, 7, 7, 7, 7, 7, 7, 7
     };
 
-    public byte[] readTexPSMT4(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh) {
+    // Each page is 2048 words. The tables below give the byte offset of a pixel within its page,
+    // indexed by x + y * page width, so a transfer only has to find the page.
+    private static final int PAGE_BYTES = 1 << PAGE_SHIFT;
 
-        int wBytes = rrw/2;
-        byte []data = new byte[wBytes*rrh];
+    // 64 x 32 pixels
+    private static final int[] pagePSMCT32 = new int[64 * 32];
 
-        dbw >>= 1;
-        int dataIndex = 0;
-        int startBlockPos = dbp * 64;
+    // 128 x 64 pixels
+    private static final int[] pagePSMT8 = new int[128 * 64];
 
-        boolean odd = false;
+    // 128 x 128 pixels. This one is in nibbles, so it is the byte offset * 2, plus 1 for the high nibble.
+    private static final int[] pagePSMT4 = new int[128 * 128];
 
-        for (int y = dsay; y < dsay + rrh; y++) {
-            for (int x = dsax; x < dsax + rrw; x++) {
-                int pageX = x / 128;
-                int pageY = y / 128;
-                int page = pageX + pageY * dbw;
+    static
+    {
+        for (int py = 0; py < 32; py++) {
+            for (int px = 0; px < 64; px++) {
+                int block = block32[px / 8 + (py / 8) * 8];
+                int bx = px % 8;
+                int by = py % 8;
+                int column = by / 2;
+                int cw = columnWord32[bx + (by % 2) * 8];
+                pagePSMCT32[px + py * 64] = (block * 64 + column * 16 + cw) * 4;
+            }
+        }
+        for (int py = 0; py < 64; py++) {
+            for (int px = 0; px < 128; px++) {
+                int block = block8[px / 16 + (py / 16) * 8];
+                int bx = px % 16;
+                int by = py % 16;
+                int column = by / 4;
+                int cw = columnWord8[column & 1][bx + (by % 4) * 16];
+                int cb = columnByte8[bx + (by % 4) * 16];
+                pagePSMT8[px + py * 128] = (block * 64 + column * 16 + cw) * 4 + cb;
+            }
+        }
+        for (int py = 0; py < 128; py++) {
+            for (int px = 0; px < 128; px++) {
+                int block = block4[px / 32 + (py / 16) * 4];
+                int bx = px % 32;
+                int by = py % 16;
+                int column = by / 4;
+                int cw = columnWord4[column & 1][bx + (by % 4) * 32];
+                int cb = columnByte4[bx + (by % 4) * 32];
+                pagePSMT4[px + py * 128] = ((block * 64 + column * 16 + cw) * 4) * 2 + cb;
+            }
+        }
+    }
 
-                int px = x - (pageX * 128);
-                int py = y - (pageY * 128);
+    /**
+     * @return This thread's memory, cleared. It is only valid until the next call to this on the same thread.
+     */
+    public static GSMemory pooled()
+    {
+        GSMemory gsMem = POOL.get();
+        gsMem.clear();
+        return gsMem;
+    }
 
-                int blockX = px / 32;
-                int blockY = py / 16;
-                int block = block4[blockX + blockY * 4];
+    /**
+     * Releases every page, so the whole memory reads as zero again. The pages are kept for the next writes.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < NUM_PAGES; i++) {
+            if (pages[i] != null) {
+                freePages.push(pages[i]);
+                pages[i] = null;
+            }
+        }
+    }
 
-                int bx = px - blockX * 32;
-                int by = py - blockY * 16;
+    private byte[] pageForWrite(int address)
+    {
+        int pageNum = address >> PAGE_SHIFT;
+        byte[] page = pages[pageNum];
+        if (page == null) {
+            page = freePages.poll();
+            if (page == null) {
+                page = new byte[PAGE_BYTES];
+            } else {
+                Arrays.fill(page, (byte) 0);
+            }
+            pages[pageNum] = page;
+        }
+        return page;
+    }
 
-                int column = by / 4;
+    private byte[] pageForRead(int address)
+    {
+        byte[] page = pages[address >> PAGE_SHIFT];
+        return page == null ? ZERO_PAGE : page;
+    }
 
-                int cx = bx;
-                int cy = by - column * 4;
-                int cw = columnWord4[column & 1][cx + cy * 32];
-                int cb = columnByte4[cx + cy * 32];
+    private byte read(int address)
+    {
+        byte[] page = pages[address >> PAGE_SHIFT];
+        return page == null ? 0 : page[address & PAGE_MASK];
+    }
 
-                int gsIndex = 4 * (startBlockPos + page * 2048 + block * 64 + column * 16 + cw);
-                gsIndex += (cb >> 1);
+    // writes to the memory when destination format is set to PSMCT32
+    void writeTexPSMCT32(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh, byte[] data, int dataIndex)
+    {
+        writeTexPSMCT32(dbp, dbw, dsax, dsay, rrw, rrh, BinaryReader.wrap(data), dataIndex);
+    }
 
-                int gsVal = mem[gsIndex];
-                int dataVal = data[dataIndex];
-                if ((cb & 1) == 1) {
-                    if (odd) {
-                        dataVal = (dataVal & 0x0f) | (gsVal & 0xf0);
+    void writeTexPSMCT32(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh, BinaryReader data, int dataIndex)
+    {
+        int startPos = dbp * 64 * 4;
+        int dataLength = data.length();
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int rowPos = startPos + (y / 32) * dbw * PAGE_BYTES;
+            int rowOffsets = (y % 32) * 64;
+            int x = dsax;
+            while (x < dsax + rrw) {
+                // the pixels up to the edge of the current page
+                int pagePos = rowPos + (x / 64) * PAGE_BYTES;
+                int runEnd = Math.min(dsax + rrw, (x / 64 + 1) * 64);
+                byte[] page = (pagePos & PAGE_MASK) == 0 ? pageForWrite(pagePos) : null;
+                for (; x < runEnd; x++) {
+                    if (dataIndex >= dataLength) {
+                        return;
+                    }
+                    int offset = pagePSMCT32[rowOffsets + x % 64];
+                    if (page != null) {
+                        MEM_INT.set(page, offset, data.getInt(dataIndex));
                     } else {
-                        dataVal = (dataVal & 0xf0) | ((gsVal >> 4) & 0x0f);
+                        int gsIndex = pagePos + offset;
+                        MEM_INT.set(pageForWrite(gsIndex), gsIndex & PAGE_MASK, data.getInt(dataIndex));
+                    }
+                    dataIndex += 4;
+                }
+            }
+        }
+    }
+
+    byte[] readTexPSMT8(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh)
+    {
+        byte[] data = new byte[rrw * rrh];
+        int dataIndex = 0;
+
+        dbw >>= 1;
+        int startPos = dbp * 64 * 4;
+
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int rowPos = startPos + (y / 64) * dbw * PAGE_BYTES;
+            int rowOffsets = (y % 64) * 128;
+            int x = dsax;
+            while (x < dsax + rrw) {
+                int pagePos = rowPos + (x / 128) * PAGE_BYTES;
+                int runEnd = Math.min(dsax + rrw, (x / 128 + 1) * 128);
+                if ((pagePos & PAGE_MASK) == 0) {
+                    byte[] page = pageForRead(pagePos);
+                    for (; x < runEnd; x++) {
+                        data[dataIndex++] = page[pagePSMT8[rowOffsets + x % 128]];
                     }
                 } else {
-                    if (odd) {
-                        dataVal = (dataVal & 0x0f) | ((gsVal << 4) & 0xf0);
-                    } else {
-                        dataVal = (dataVal & 0xf0) | (gsVal & 0x0f);
+                    for (; x < runEnd; x++) {
+                        data[dataIndex++] = read(pagePos + pagePSMT8[rowOffsets + x % 128]);
                     }
                 }
-                data[dataIndex] = (byte) dataVal;
-                if (odd) {
-                    ++dataIndex;
+            }
+        }
+        return data;
+    }
+
+    // Returns two pixels per byte, the first in the low nibble.
+    public byte[] readTexPSMT4(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh)
+    {
+        int wBytes = rrw / 2;
+        byte[] data = new byte[wBytes * rrh];
+
+        dbw >>= 1;
+        int pixel = 0;
+        int startPos = dbp * 64 * 4;
+
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int rowPos = startPos + (y / 128) * dbw * PAGE_BYTES;
+            int rowOffsets = (y % 128) * 128;
+            int x = dsax;
+            while (x < dsax + rrw) {
+                int pagePos = rowPos + (x / 128) * PAGE_BYTES;
+                int runEnd = Math.min(dsax + rrw, (x / 128 + 1) * 128);
+                byte[] page = (pagePos & PAGE_MASK) == 0 ? pageForRead(pagePos) : null;
+                for (; x < runEnd; x++) {
+                    int nibble = pagePSMT4[rowOffsets + x % 128];
+                    int gsVal = page != null ? page[nibble >> 1] : read(pagePos + (nibble >> 1));
+                    gsVal >>= (nibble & 1) * 4;
+                    data[pixel >> 1] |= (gsVal & 0x0f) << ((pixel & 1) * 4);
+                    ++pixel;
                 }
-                odd = !odd;
             }
         }
         return data;
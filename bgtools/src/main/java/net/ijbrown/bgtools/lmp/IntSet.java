@@ -0,0 +1,116 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints that remembers the order they were added in, without boxing them.
+ * Values are kept in an array in insertion order and found through an open addressed hash table.
+ */
+public class IntSet
+{
+    private int[] values;
+    private int count = 0;
+
+    /** Each slot holds an index into values + 1, or 0 if empty. */
+    private int[] table;
+
+    public IntSet()
+    {
+        this(16);
+    }
+
+    public IntSet(int expectedSize)
+    {
+        values = new int[Math.max(expectedSize, 4)];
+        table = new int[tableSizeFor(values.length)];
+    }
+
+    /**
+     * @return true if the value was not already in the set.
+     */
+    public boolean add(int value)
+    {
+        int slot = find(value);
+        if (table[slot] != 0) {
+            return false;
+        }
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+        table[slot] = count;
+        // Keep the table at most half full.
+        if (count * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean contains(int value)
+    {
+        return table[find(value)] != 0;
+    }
+
+    /**
+     * @return The position the value was added at, or -1 if it is not in the set.
+     */
+    public int indexOf(int value)
+    {
+        return table[find(value)] - 1;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return The i'th value that was added.
+     */
+    public int get(int i)
+    {
+        return values[i];
+    }
+
+    public int[] toArray()
+    {
+        return Arrays.copyOf(values, count);
+    }
+
+    // Returns the slot holding value, or the empty slot where it would go.
+    private int find(int value)
+    {
+        int mask = table.length - 1;
+        int slot = mix(value) & mask;
+        int index;
+        while ((index = table[slot]) != 0 && values[index - 1] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash()
+    {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < count; ++i) {
+            int slot = mix(values[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    // Offsets are usually multiples of 16, so spread the bits before masking.
+    private static int mix(int value)
+    {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int size)
+    {
+        return Integer.highestOneBit(size * 2) << 1;
+    }
+}
@@ -15,7 +15,6 @@
 */
 package net.ijbrown.bgtools.lmp;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 
@@ -61,8 +60,9 @@ public class LevelTexDecode
         writer.close();
     }
 
-    private int fileLength;
-    private byte[] fileData;
+    private BinaryReader fileData;
+
+    private PngWriter pngWriter = new PngWriter();
 
     public void read(String filename, File dir) throws IOException
     {
@@ -74,8 +74,8 @@ public class LevelTexDecode
     {
         BufferedInputStream is = new BufferedInputStream(new FileInputStream(file));
 
-        fileLength = (int) file.length();
-        fileData = new byte[fileLength];
+        int fileLength = (int) file.length();
+        byte[] fileData = new byte[fileLength];
 
         int offset = 0;
         int remaining = fileLength;
@@ -87,6 +87,12 @@ public class LevelTexDecode
             remaining -= read;
             offset += read;
         }
+        read(BinaryReader.wrap(fileData));
+    }
+
+    public void read(BinaryReader data)
+    {
+        fileData = data;
     }
 
     /**
@@ -97,69 +103,143 @@ public class LevelTexDecode
      */
     public int getNumEntries(int offset)
     {
-        return DataUtil.getLEInt(fileData, offset);
+        return fileData.getInt(offset);
+    }
+
+    /**
+     * @return The width of the image in the chunk at offset, rounded up to a whole number of 16 pixel blocks
+     * like the decoded image is.
+     */
+    public int getImageWidth(int offset)
+    {
+        return (fileData.getUShort(offset) + 0x0f) & ~0x0f;
+    }
+
+    public int getImageHeight(int offset)
+    {
+        return (fileData.getUShort(offset + 2) + 0x0f) & ~0x0f;
+    }
+
+    public void setPngWriter(PngWriter pngWriter)
+    {
+        this.pngWriter = pngWriter;
     }
 
     public void extract(File outputfile, int offset) throws IOException
     {
-        int pixelWidth = DataUtil.getLEUShort(fileData, offset);
-        int pixelHeight = DataUtil.getLEUShort(fileData, offset + 2);
-        int header10 = DataUtil.getLEInt(fileData, offset + 0x10);
-        int compressedDataLen = DataUtil.getLEInt(fileData, offset + 0x14);
+        TexDecode.DecodedTex tex = decodeTex(offset);
+        if (tex != null) {
+            writePng(tex, outputfile);
+        }
+    }
+
+    /**
+     * Writes a texture from decodeTex as a png, palettised if it has palette indices.
+     */
+    public void writePng(TexDecode.DecodedTex tex, File outputfile) throws IOException
+    {
+        if (tex.indices != null) {
+            pngWriter.writeIndexed(tex.indices, tex.pixelsWidth, tex.pixelsHeight, tex.pixelsWidth, tex.palette, outputfile);
+        } else {
+            pngWriter.writeArgb(tex.pixels, 0, tex.pixelsWidth, tex.pixelsHeight, tex.pixelsWidth, outputfile);
+        }
+    }
+
+    /**
+     * Decodes the image in the chunk at offset.
+     *
+     * @return The image, or null if the chunk has no compressed data.
+     */
+    BufferedImage decodeImage(int offset)
+    {
+        TexDecode.DecodedTex tex = decodeTex(offset);
+        return tex == null ? null : ArgbImage.wrap(tex.pixels, tex.pixelsWidth, tex.pixelsHeight, tex.pixelsWidth);
+    }
+
+    /**
+     * Decodes the image in the chunk at offset. The size is rounded up to whole blocks.
+     * Blocks that aren't in the chunk are transparent, and then there are no palette indices
+     * because the palette has no transparent colour to give them.
+     *
+     * @return The texture, or null if the chunk has no compressed data.
+     */
+    public TexDecode.DecodedTex decodeTex(int offset)
+    {
+        int pixelWidth = fileData.getUShort(offset);
+        int pixelHeight = fileData.getUShort(offset + 2);
+        int header10 = fileData.getInt(offset + 0x10);
+        int compressedDataLen = fileData.getInt(offset + 0x14);
         int compressedDataOffset = header10 + offset;
-        int palOffset = DataUtil.getLEInt(fileData, compressedDataOffset) + offset;
-        if (compressedDataOffset <= 0 || compressedDataOffset >= fileData.length)
+        int palOffset = fileData.getInt(compressedDataOffset) + offset;
+        if (compressedDataOffset <= 0 || compressedDataOffset >= fileData.length())
         {
-            return;
+            return null;
         }
-        PalEntry[] palette = PalEntry.readPalette(fileData, palOffset, 16, 16);
-        palette = PalEntry.unswizzlePalette(palette);
+        PalEntry[] palEntries = PalEntry.readPalette(fileData, palOffset, 16, 16);
+        int[] palette = PalEntry.toArgb(PalEntry.unswizzlePalette(palEntries));
         HuffVal[] huffVals = decode(palOffset + 0xc00);
 
         int width = (pixelWidth + 0x0f) & ~0x0f;
         int height = (pixelHeight + 0x0f) & ~0x0f;
 
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[width * height];
+        byte[] indices = new byte[width * height];
+        boolean[] decodedBlocks = new boolean[(width / 16) * (height / 16)];
 
         int p = compressedDataOffset + 4;
 
-        while (fileData[p] >= 0) {
-            int x0 = fileData[p];
-            int y0 = fileData[p + 1];
-            int x1 = fileData[p + 2];
-            int y1 = fileData[p + 3];
+        while (fileData.getByte(p) >= 0) {
+            int x0 = fileData.getByte(p);
+            int y0 = fileData.getByte(p + 1);
+            int x1 = fileData.getByte(p + 2);
+            int y1 = fileData.getByte(p + 3);
             p += 4;
 
             for (int yblock = y0; yblock <=y1; ++yblock) {
                 for (int xblock = x0; xblock <=x1; ++xblock) {
-                    int blockDataStart = DataUtil.getLEInt(fileData, p) + offset;
-                    decodeBlock(xblock, yblock, blockDataStart, palOffset + 0x400, image, palette, huffVals);
+                    int blockDataStart = fileData.getInt(p) + offset;
+                    decodeBlock(xblock, yblock, blockDataStart, palOffset + 0x400, pixels, indices, width, palette, huffVals);
+                    decodedBlocks[yblock * (width / 16) + xblock] = true;
                     p += 4;
                 }
             }
         }
-        ImageIO.write(image, "png", outputfile);
+        boolean complete = true;
+        for (boolean decoded : decodedBlocks) {
+            complete &= decoded;
+        }
+
+        TexDecode.DecodedTex tex = new TexDecode.DecodedTex();
+        tex.pixels = pixels;
+        tex.indices = complete ? indices : null;
+        tex.palette = palette;
+        tex.pixelsWidth = width;
+        tex.pixelsHeight = height;
+        tex.targetWidth = width;
+        tex.targetHeight = height;
+        return tex;
     }
 
     private int[] backJumpTable = new int[]{-1, -16, -17, -15, -2};
 
-    private void decodeBlock(int xblock, int yblock, int blockDataStart, int table0Start, BufferedImage image, PalEntry[] palette, HuffVal[] huffVals)
+    private void decodeBlock(int xblock, int yblock, int blockDataStart, int table0Start, int[] pixels, byte[] indices, int width, int[] palette, HuffVal[] huffVals)
     {
         int tableOffset = table0Start + 0x800;
-        int table1Len = DataUtil.getLEInt(fileData, tableOffset) * 2;
+        int table1Len = fileData.getInt(tableOffset) * 2;
         int table1Start = tableOffset + 4;
         int table2Start = table1Start + table1Len;
         int table3Start = table2Start + 0x48;
 
         int[] pix8s = new int[16 * 16];
+        int blockStart = yblock * 16 * width + xblock * 16;
         int curpix8 = 0;
         int startBit = 0;
         int prevPixel = 0;
         for (int y = 0; y < 16; ++y) {
             for (int x = 0; x < 16; ++x) {
                 int startWordIdx = startBit / 16;
-                int word1 = DataUtil.getLEUShort(fileData, blockDataStart + startWordIdx * 2);
-                int word2 = DataUtil.getLEUShort(fileData, blockDataStart + startWordIdx * 2 + 2);
+                int word1 = fileData.getUShort(blockDataStart + startWordIdx * 2);
+                int word2 = fileData.getUShort(blockDataStart + startWordIdx * 2 + 2);
                 // if startBit is 0, word == word1
                 // if startBit is 1, word is 15 bits of word1 and 1 bit of word2
                 int word = ((word1 << 16 | word2) >> (16 - (startBit & 0x0f))) & 0xFFFF;
@@ -174,20 +254,20 @@ public class LevelTexDecode
                     // Must be more than an 8 bit code
                     int bit = 9;
                     int a = word >> (16 - bit);
-                    int v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
+                    int v = fileData.getInt(table3Start + bit * 4);
                     while (v < a) {
                         ++bit;
                         if (bit > 16) {
                             throw new RuntimeException("A decoding error occured");
                         }
                         a = word >> (16 - bit);
-                        v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
+                        v = fileData.getInt(table3Start + bit * 4);
                     }
                     startBit += bit;
-                    int val = DataUtil.getLEInt(fileData, table2Start + bit * 4);
+                    int val = fileData.getInt(table2Start + bit * 4);
                     int table1Index = a + val;
 
-                    pixCmd = DataUtil.getLEShort(fileData, table1Start + table1Index * 2);
+                    pixCmd = fileData.getShort(table1Start + table1Index * 2);
                 }
                 int pix8 = 0;
                 if (pixCmd < 0x100) {
@@ -201,14 +281,14 @@ public class LevelTexDecode
                     }
                 } else {
                     int table0Index = (pixCmd - 0x105) + prevPixel * 8;
-                    pix8 = fileData[table0Start + table0Index] & 0xFF;
+                    pix8 = fileData.getUByte(table0Start + table0Index);
                 }
 
                 pix8s[curpix8++] = pix8;
 
                 prevPixel = pix8 & 0xFF;
-                PalEntry pixel = palette[pix8 & 0xFF];
-                image.setRGB(xblock * 16 + x, yblock * 16 + y, pixel.argb());
+                pixels[blockStart + y * width + x] = palette[pix8 & 0xFF];
+                indices[blockStart + y * width + x] = (byte) pix8;
             }
         }
     }
@@ -222,19 +302,19 @@ public class LevelTexDecode
     {
         StringBuilder sb = new StringBuilder();
 
-        int header10 = DataUtil.getLEInt(fileData, offset + 0x10);
+        int header10 = fileData.getInt(offset + 0x10);
         int headerOffset10 = header10 + offset;
 
         sb.append("Header 10: ").append(HexUtil.formatHex(header10)).append(" (").append(HexUtil.formatHex(headerOffset10)).append(")\r\n");
 
-        int palOffset = DataUtil.getLEInt(fileData, headerOffset10) + offset;
+        int palOffset = fileData.getInt(headerOffset10) + offset;
 
         sb.append("Pal Offset:  ").append(HexUtil.formatHex(palOffset)).append("\r\n");
         sb.append("Palette:");
 
         for (int i = 0; i < 0x400; i += 4) {
             int off = i + palOffset;
-            int val = DataUtil.getLEInt(fileData, off);
+            int val = fileData.getInt(off);
             if ((i & 0x1f) == 0) {
                 sb.append("\r\n").append(HexUtil.formatHex(off)).append(": ");
             } else {
@@ -246,7 +326,7 @@ public class LevelTexDecode
         sb.append("\r\nUnknown:");
         for (int i = 0; i < 0x800; i += 4) {
             int off = i + palOffset + 0x400;
-            int val = DataUtil.getLEInt(fileData, off);
+            int val = fileData.getInt(off);
             if ((i & 0x1f) == 0) {
                 sb.append("\r\n").append(HexUtil.formatHex(off)).append(": ");
             } else {
@@ -256,7 +336,7 @@ public class LevelTexDecode
         }
         sb.append("\r\n\r\n");
 
-        int c00 = DataUtil.getLEInt(fileData, palOffset + 0xc00);
+        int c00 = fileData.getInt(palOffset + 0xc00);
         sb.append(HexUtil.formatHex(palOffset + 0xc00)).append(": ").append("pal + 0xc00:  ").append(HexUtil.formatHex(c00)).append("\r\n");
         sb.append("\r\n");
 
@@ -265,7 +345,7 @@ public class LevelTexDecode
 
         for (int i = 0; i < c00 * 2; i += 2) {
             int off = i + c04_offset;
-            int val = DataUtil.getLEUShort(fileData, off);
+            int val = fileData.getUShort(off);
             if ((i & 0x0f) == 0) {
                 sb.append("\r\n").append(HexUtil.formatHex(off)).append(": ");
             } else {
@@ -280,7 +360,7 @@ public class LevelTexDecode
 
         for (int i = 0; i < 0x48; i += 4) {
             int off = i + c04_offset + c00 * 2;
-            int val = DataUtil.getLEInt(fileData, off);
+            int val = fileData.getInt(off);
             if ((i & 0x0f) == 0) {
                 sb.append("\r\n").append(HexUtil.formatHex(off)).append(": ");
             } else {
@@ -292,7 +372,7 @@ public class LevelTexDecode
 
         for (int i = 0; i < 0x44; i += 4) {
             int off = i + c04_offset + c00 * 2 + 0x48;
-            int val = DataUtil.getLEInt(fileData, off);
+            int val = fileData.getInt(off);
             if ((i & 0x0f) == 0) {
                 sb.append("\r\n").append(HexUtil.formatHex(off)).append(": ");
             } else {
@@ -304,7 +384,7 @@ public class LevelTexDecode
 
         for (int i = 0; i < 0x400; i += 2) {
             int off = i + c04_offset + c00 * 2 + 0x48 + 0x44;
-            int val = DataUtil.getLEUShort(fileData, off);
+            int val = fileData.getUShort(off);
             if ((i & 0x0f) == 0) {
                 sb.append("\r\n").append(HexUtil.formatHex(off)).append(": ");
             } else {
@@ -316,11 +396,11 @@ public class LevelTexDecode
         sb.append("\r\n").append("\r\n");
 
         int p = headerOffset10 + 4;
-        while (fileData[p] != -1) {
-            int x0 = fileData[p];
-            int y0 = fileData[p + 1];
-            int x1 = fileData[p + 2];
-            int y1 = fileData[p + 3];
+        while (fileData.getByte(p) != -1) {
+            int x0 = fileData.getByte(p);
+            int y0 = fileData.getByte(p + 1);
+            int x1 = fileData.getByte(p + 2);
+            int y1 = fileData.getByte(p + 3);
 
 
             sb.append(HexUtil.formatHex(p)).append(": x0, y0, x1, y1 ").append(x0).append(", ");
@@ -333,7 +413,7 @@ public class LevelTexDecode
             int hBlocks = y1 - y0 + 1;
 
             for (int i = 0; i < wBlocks * hBlocks; ++i) {
-                int poff = DataUtil.getLEInt(fileData, p) + offset;
+                int poff = fileData.getInt(p) + offset;
                 sb.append(HexUtil.formatHex(poff)).append("\r\n");
                 p += 4;
             }
@@ -359,7 +439,7 @@ public class LevelTexDecode
     {
         HuffVal[] out = new HuffVal[256];
 
-        int table1Len = DataUtil.getLEInt(fileData, tableOffset) * 2;
+        int table1Len = fileData.getInt(tableOffset) * 2;
         int table1Start = tableOffset + 4;
         int table2Start = table1Start + table1Len;
         int table3Start = table2Start + 0x48;
@@ -367,20 +447,20 @@ public class LevelTexDecode
         for (int i = 0; i < 256; ++i) {
             int bit = 1;
             int a = i >> (8 - bit);
-            int v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
+            int v = fileData.getInt(table3Start + bit * 4);
             while (v < a) {
                 ++bit;
                 if (bit > 8) {
                     break;
                 }
                 a = i >> (8 - bit);
-                v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
+                v = fileData.getInt(table3Start + bit * 4);
             }
             out[i] = new HuffVal();
             if (bit <= 8) {
-                int val = DataUtil.getLEInt(fileData, table2Start + bit * 4);
+                int val = fileData.getInt(table2Start + bit * 4);
                 int table1Index = a + val;
-                out[i].val = DataUtil.getLEShort(fileData, table1Start + table1Index * 2);
+                out[i].val = fileData.getShort(table1Start + table1Index * 2);
                 out[i].numBits = (short) bit;
             }
         }
@@ -1,14 +1,19 @@
 package net.ijbrown.bgtools.lmp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Lmp {
 
     private byte[] fileData = null;
+    private ByteBuffer buffer = null;
     private int fileStartOffset = 0;
     private final GameType gameType;
 
@@ -19,58 +24,132 @@ public class Lmp {
 
     public void readLmpFile(Path path) throws IOException {
         fileData = Files.readAllBytes(path);
+        buffer = ByteBuffer.wrap(fileData).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
         fileStartOffset = 0;
         readDirectory();
     }
 
+    /**
+     * Maps the file into memory rather than reading it onto the heap.
+     * Entries found this way have no data array, only a buffer.
+     */
+    public void mapLmpFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        fileData = null;
+        fileStartOffset = 0;
+        readDirectory();
+    }
+
+    /**
+     * Reads an lmp that is embedded in a larger buffer, such as a gob file.
+     */
+    public void readLmp(ByteBuffer data, int startOffset)
+    {
+        buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        fileData = null;
+        fileStartOffset = startOffset;
+        readDirectory();
+    }
+
     private void readDirectory()
     {
-        int numFiles = DataUtil.getLEInt(fileData, fileStartOffset);
-        int headerOffset = fileStartOffset+4;
-        for (int fileNo=0; fileNo < numFiles; ++fileNo) {
-            int stringOffset = 0;
-            int subOffset = 0;
-            int subLen = 0;
-            String subfileName;
-            if (gameType == GameType.DARK_ALLIANCE) {
-                // Name inline with header
-                subfileName = DataUtil.collectString(fileData, headerOffset);
-                subOffset = DataUtil.getLEInt(fileData, headerOffset + 0x38);
-                subLen = DataUtil.getLEInt(fileData, headerOffset + 0x3C);
-                headerOffset += 0x40;
-            } else {
-                // name referenced from header
-                stringOffset = DataUtil.getLEInt(fileData, headerOffset);
-                subOffset = DataUtil.getLEInt(fileData, headerOffset + 4);
-                subLen = DataUtil.getLEInt(fileData, headerOffset + 8);
-                subfileName = DataUtil.collectString(fileData, fileStartOffset + stringOffset);
-                headerOffset += 0x0C;
-            }
-            Entry entry = new Entry(subOffset + fileStartOffset, subLen, subfileName, fileData);
-            directory.put(subfileName, entry);
-        }
+        directory = new LmpDirectory(buffer, fileStartOffset, gameType);
+    }
+
+    private ByteBuffer slice(int offset, int length)
+    {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset).limit(offset + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public LmpDirectory getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Creates the entry for the given directory index.
+     */
+    public Entry getEntry(int index)
+    {
+        int offset = directory.getOffset(index);
+        int length = directory.getLength(index);
+        return new Entry(offset, length, directory.getName(index), fileData, slice(offset, length));
     }
 
     public Entry findEntry(String name)
     {
-        return directory.get(name);
+        int index = directory.find(name);
+        return index < 0 ? null : getEntry(index);
     }
 
+    public List<Entry> getEntries()
+    {
+        return getEntries(null);
+    }
+
+    /**
+     * Finds all the entries with the given extension, for example ".vif".
+     */
+    public List<Entry> findEntriesByExtension(String extension)
+    {
+        return getEntries(directory.findByExtension(extension));
+    }
+
+    public List<Entry> findEntriesByPrefix(String prefix)
+    {
+        return getEntries(directory.findByPrefix(prefix));
+    }
+
+    private List<Entry> getEntries(int[] indices)
+    {
+        int num = indices == null ? directory.size() : indices.length;
+        List<Entry> entries = new ArrayList<>(num);
+        for (int i = 0; i < num; ++i) {
+            entries.add(getEntry(indices == null ? i : indices[i]));
+        }
+        return entries;
+    }
 
-    private final Map<String, Entry> directory = new HashMap<>();
+    private LmpDirectory directory;
 
     public static class Entry
     {
         public String name;
         public int offset;
         public int length;
+
+        /** The whole lmp file, or null if it was not read onto the heap. */
         public byte[] data;
 
+        /** A read-only, little endian view of just this entry. */
+        public ByteBuffer buffer;
+
         public Entry(int offset, int length, String name, byte[] data) {
+            this(offset, length, name, data,
+                    ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        public Entry(int offset, int length, String name, byte[] data, ByteBuffer buffer) {
             this.offset = offset;
             this.length = length;
             this.name = name;
             this.data = data;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Copies the entry out into its own array. The entry starts at index 0 of the result.
+         */
+        public byte[] getBytes()
+        {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().position(0).get(bytes);
+            return bytes;
         }
     }
 }
@@ -0,0 +1,204 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The directory of an lmp file.
+ * Entries are held in parallel arrays and looked up by a hash of their name,
+ * so the names themselves are only turned into strings when asked for.
+ */
+public class LmpDirectory
+{
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /** Absolute offsets of the entry data. */
+    private final int[] offsets;
+    private final int[] lengths;
+
+    /** Absolute offsets and lengths of the entry names. */
+    private final int[] nameOffsets;
+    private final int[] nameLengths;
+    private final int[] nameHashes;
+
+    /** Open addressed hash table. Each slot holds an entry index + 1, or 0 if empty. */
+    private final int[] table;
+    private final int tableMask;
+
+    private final String[] names;
+
+    public LmpDirectory(ByteBuffer buffer, int fileStartOffset, GameType gameType)
+    {
+        this.buffer = buffer;
+        size = buffer.getInt(fileStartOffset);
+        offsets = new int[size];
+        lengths = new int[size];
+        nameOffsets = new int[size];
+        nameLengths = new int[size];
+        nameHashes = new int[size];
+        names = new String[size];
+
+        int tableSize = Integer.highestOneBit(Math.max(size, 1) * 2) << 1;
+        table = new int[tableSize];
+        tableMask = tableSize - 1;
+
+        int headerOffset = fileStartOffset+4;
+        for (int fileNo=0; fileNo < size; ++fileNo) {
+            if (gameType == GameType.DARK_ALLIANCE) {
+                // Name inline with header
+                nameOffsets[fileNo] = headerOffset;
+                offsets[fileNo] = buffer.getInt(headerOffset + 0x38) + fileStartOffset;
+                lengths[fileNo] = buffer.getInt(headerOffset + 0x3C);
+                headerOffset += 0x40;
+            } else {
+                // name referenced from header
+                nameOffsets[fileNo] = buffer.getInt(headerOffset) + fileStartOffset;
+                offsets[fileNo] = buffer.getInt(headerOffset + 4) + fileStartOffset;
+                lengths[fileNo] = buffer.getInt(headerOffset + 8);
+                headerOffset += 0x0C;
+            }
+            hashName(fileNo);
+            insert(fileNo);
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getOffset(int index)
+    {
+        return offsets[index];
+    }
+
+    public int getLength(int index)
+    {
+        return lengths[index];
+    }
+
+    public String getName(int index)
+    {
+        String name = names[index];
+        if (name == null) {
+            name = DataUtil.internString(buffer, nameOffsets[index]);
+            names[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Finds an entry by name.
+     *
+     * @return The index of the entry, or -1 if there isn't one.
+     */
+    public int find(String name)
+    {
+        int hash = name.hashCode();
+        int slot = hash & tableMask;
+        int index;
+        while ((index = table[slot]) != 0) {
+            --index;
+            if (nameHashes[index] == hash && nameEquals(index, name)) {
+                return index;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the indices of all the entries whose name starts with prefix.
+     */
+    public int[] findByPrefix(String prefix)
+    {
+        int[] found = new int[size];
+        int numFound = 0;
+        for (int i = 0; i < size; ++i) {
+            if (regionMatches(i, 0, prefix)) {
+                found[numFound++] = i;
+            }
+        }
+        return Arrays.copyOf(found, numFound);
+    }
+
+    /**
+     * Finds the indices of all the entries with the given extension, for example ".vif".
+     */
+    public int[] findByExtension(String extension)
+    {
+        int[] found = new int[size];
+        int numFound = 0;
+        for (int i = 0; i < size; ++i) {
+            int start = nameLengths[i] - extension.length();
+            if (start >= 0 && regionMatches(i, start, extension)) {
+                found[numFound++] = i;
+            }
+        }
+        return Arrays.copyOf(found, numFound);
+    }
+
+    // Computes the same value as String.hashCode() would for the decoded name.
+    private void hashName(int index)
+    {
+        int hash = 0;
+        int i = nameOffsets[index];
+        int b;
+        while ((b = buffer.get(i)) != 0) {
+            hash = 31 * hash + (b & 0xFF);
+            ++i;
+        }
+        nameHashes[index] = hash;
+        nameLengths[index] = i - nameOffsets[index];
+    }
+
+    private void insert(int index)
+    {
+        int slot = nameHashes[index] & tableMask;
+        int existing;
+        while ((existing = table[slot]) != 0) {
+            --existing;
+            if (nameHashes[existing] == nameHashes[index] && namesEqual(existing, index)) {
+                // Later entries with the same name replace earlier ones.
+                break;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private boolean nameEquals(int index, String name)
+    {
+        return nameLengths[index] == name.length() && regionMatches(index, 0, name);
+    }
+
+    private boolean regionMatches(int index, int start, String s)
+    {
+        int len = s.length();
+        if (start + len > nameLengths[index]) {
+            return false;
+        }
+        int offset = nameOffsets[index] + start;
+        for (int i = 0; i < len; ++i) {
+            if ((buffer.get(offset + i) & 0xFF) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean namesEqual(int a, int b)
+    {
+        int len = nameLengths[a];
+        if (len != nameLengths[b]) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (buffer.get(nameOffsets[a] + i) != buffer.get(nameOffsets[b] + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Arrays;
+
+/**
+ * Turns VIF chunks into a mesh one chunk at a time.
+ * Each chunk's triangle strip is converted to triangles as soon as it is added, so nothing has to hold on to
+ * the chunk afterwards.
+ */
+public class MeshBuilder
+{
+    private final VifDecode.Mesh mesh;
+    private int[] vstrip = new int[128];
+
+    public MeshBuilder()
+    {
+        this(0, 0);
+    }
+
+    public MeshBuilder(int vertexCapacity, int indexCapacity)
+    {
+        mesh = new VifDecode.Mesh(vertexCapacity, indexCapacity);
+    }
+
+    public void add(VifChunkBuffer chunk)
+    {
+        if (null == chunk.gifTag0)
+        {
+            // Hack to deal with JLH models. TODO: Fix this properly
+            return;
+        }
+        if ((chunk.gifTag0.prim & 0x07) != 4) {
+            throw new RuntimeException("Can only deal with tri strips");
+        }
+
+        int vstart = mesh.numVertices;
+        int numVertsInChunk = chunk.numVertices;
+        for (int i = 0; i < numVertsInChunk; ++i) {
+            int v = mesh.addVertex(chunk.vertices[i * 3] / 16.0f, chunk.vertices[i * 3 + 1] / 16.0f, chunk.vertices[i * 3 + 2] / 16.0f);
+            if (i < chunk.numNormals) {
+                mesh.setNormal(v, chunk.normals[i * 3] / 127.0f, chunk.normals[i * 3 + 1] / 127.0f, chunk.normals[i * 3 + 2] / 127.0f);
+            }
+        }
+
+        for (int w = 0; w < chunk.numVertexWeights; ++w) {
+            var vw = chunk.vertexWeights[w];
+            if (vw.startVertex <= (numVertsInChunk - 1)) {
+                VifDecode.VertexWeight vwAdjusted = new VifDecode.VertexWeight(vw);
+                vwAdjusted.startVertex += vstart;
+                if (vwAdjusted.endVertex >= numVertsInChunk) {
+                    vwAdjusted.endVertex = numVertsInChunk - 1;
+                }
+                vwAdjusted.endVertex += vstart;
+                mesh.vertexWeights.add(vwAdjusted);
+                for (int v = vwAdjusted.startVertex; v <= vwAdjusted.endVertex; ++v) {
+                    mesh.setWeights(v, vw);
+                }
+            }
+        }
+
+        int stripLength = chunk.gifTag0.nloop;
+        if (vstrip.length < stripLength) {
+            vstrip = new int[stripLength];
+        } else {
+            Arrays.fill(vstrip, 0, stripLength, 0);
+        }
+        int regsPerVertex = chunk.gifTag0.nreg;
+        int[] vlocs = chunk.vlocs;
+        for (int vlocIndx = 2; vlocIndx < chunk.numVlocs; ++vlocIndx) {
+            int v = vlocIndx - 2;
+            int v1 = vlocs[vlocIndx * 3];
+            int v2 = vlocs[vlocIndx * 3 + 1];
+            int v3 = vlocs[vlocIndx * 3 + 2];
+            int stripIdx2 = (v2 & 0x1FF) / regsPerVertex;
+            int stripIdx3 = (v3 & 0x1FF) / regsPerVertex;
+            if (stripIdx3 < stripLength && stripIdx2 < stripLength) {
+                vstrip[stripIdx3] = vstrip[stripIdx2] & 0x1FF;
+
+                boolean skip2 = (v3 & 0x8000) == 0x8000;
+                if (skip2) {
+                    vstrip[stripIdx3] |= 0x8000;
+                }
+            }
+            int stripIdx = (v1 & 0x1FF) / regsPerVertex;
+            boolean skip = (v1 & 0x8000) == 0x8000;
+
+            if (v < numVertsInChunk && stripIdx < stripLength) {
+                vstrip[stripIdx] = skip ? (v | 0x8000) : v;
+            }
+        }
+
+        int[] extraVlocs = chunk.extraVlocs;
+        int numExtraVlocs = chunk.hasExtraVlocs() ? extraVlocs[0] : 0;
+        for (int extraVloc = 0; extraVloc < numExtraVlocs; ++extraVloc) {
+            int idx = extraVloc * 4 + 4;
+            int stripIndxSrc = (extraVlocs[idx] & 0x1FF) / regsPerVertex;
+            int stripIndxDest = (extraVlocs[idx + 1] & 0x1FF) / regsPerVertex;
+            vstrip[stripIndxDest] = (extraVlocs[idx + 1] & 0x8000) | (vstrip[stripIndxSrc] & 0x1FF);
+
+            stripIndxSrc = (extraVlocs[idx + 2] & 0x1FF) / regsPerVertex;
+            stripIndxDest = (extraVlocs[idx + 3] & 0x1FF) / regsPerVertex;
+            vstrip[stripIndxDest] = (extraVlocs[idx + 3] & 0x8000) | (vstrip[stripIndxSrc] & 0x1FF);
+        }
+
+        int triIdx = 0;
+        for (int i = 2; i < stripLength; ++i) {
+            int vidx1 = vstart + (vstrip[i - 2] & 0xFF);
+            int vidx2 = vstart + (vstrip[i - 1] & 0xFF);
+            int vidx3 = vstart + (vstrip[i] & 0xFF);
+
+            int uv1 = i - 2;
+            int uv2 = i - 1;
+            int uv3 = i;
+
+            // Flip the faces (indices 1 and 2) to keep the winding rule consistent.
+            if ((triIdx & 1) == 1) {
+                int temp = uv1;
+                uv1 = uv2;
+                uv2 = temp;
+
+                temp = vidx1;
+                vidx1 = vidx2;
+                vidx2 = temp;
+            }
+
+            if ((vstrip[i] & 0x8000) == 0) {
+                if (uv3 >= chunk.numUVs) {
+                    throw new IndexOutOfBoundsException("Chunk has " + chunk.numUVs + " uvs but needs " + (uv3 + 1));
+                }
+                vidx1 = assignUV(chunk, vstart, vidx1, uv1);
+                vidx2 = assignUV(chunk, vstart, vidx2, uv2);
+                vidx3 = assignUV(chunk, vstart, vidx3, uv3);
+
+                mesh.addTriangle(vidx1, vidx2, vidx3);
+            }
+            ++triIdx;
+        }
+    }
+
+    /**
+     * Returns the finished mesh. The builder should not be used after this.
+     */
+    public VifDecode.Mesh build()
+    {
+        mesh.trim();
+        return mesh;
+    }
+
+    // Gives vertex vidx uv number uvIdx from the chunk. If it already has a different one then the vertex is
+    // duplicated and the index of the copy is returned.
+    private int assignUV(VifChunkBuffer chunk, int vstart, int vidx, int uvIdx)
+    {
+        short u = chunk.uvs[uvIdx * 2];
+        short v = chunk.uvs[uvIdx * 2 + 1];
+        if (!mesh.uvMatches(vidx, u, v)) {
+            // There is more than 1 uv assignment to this vertex, so we need to duplicate it.
+            int originalVIdx = vidx;
+            vidx = mesh.duplicateVertex(originalVIdx);
+
+            var weight = chunk.findVertexWeight(originalVIdx - vstart);
+            if (weight != null && weight.boneWeight1 > 0)
+            {
+                var vw = new VifDecode.VertexWeight(weight);
+                vw.startVertex = vidx;
+                vw.endVertex = vidx;
+                mesh.vertexWeights.add(vw);
+            }
+        }
+        mesh.setUV(vidx, u, v);
+        return vidx;
+    }
+}
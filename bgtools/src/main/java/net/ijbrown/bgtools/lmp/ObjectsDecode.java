@@ -93,7 +93,7 @@ public class ObjectsDecode
             int strIdx = DataUtil.getLEInt(fileData, objOffset);
             String name = Integer.toString(strIdx);
             if (strIdx >= 0) {
-                name = DataUtil.collectString(fileData, stringOffset + strIdx);
+                name = DataUtil.internString(fileData, stringOffset + strIdx);
             }
             sb.append("    name: ").append(name).append("\r\n");
 
@@ -117,7 +117,7 @@ public class ObjectsDecode
             while (lenSoFar < objLen) {
                 int i = DataUtil.getLEInt(fileData, objOffset + lenSoFar);
                 if (i > 0) {
-                    sb.append("    prop: ").append(DataUtil.collectString(fileData, stringOffset + i)).append("\r\n");
+                    sb.append("    prop: ").append(DataUtil.internString(fileData, stringOffset + i)).append("\r\n");
                 }
                 lenSoFar += 4;
             }
@@ -129,13 +129,9 @@ public class ObjectsDecode
         int off = stringOffset;
         while (off < fileLength) {
             sb.append(off - stringOffset).append(": '");
-            String s = "";
-            while (fileData[off] != 0) {
-                s += (char) fileData[off];
-                ++off;
-            }
+            String s = DataUtil.collectString(fileData, off);
             sb.append(s).append("'\r\n");
-            ++off;
+            off += s.length() + 1;
         }
 
         return sb.toString();
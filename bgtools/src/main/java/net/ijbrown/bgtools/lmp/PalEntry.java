@@ -8,6 +8,11 @@ public class PalEntry
     public byte a;
 
     public int argb()
+    {
+        return argb(r, g, b, a);
+    }
+
+    public static int argb(byte r, byte g, byte b, byte a)
     {
         // in ps2 0x80 is fully transparent and 0 is opaque.
         // in java 0 is transparent and 0xFF is opaque.
@@ -24,16 +29,33 @@ public class PalEntry
                 (b & 0xFF);
     }
 
+    /**
+     * Converts a palette to packed ARGB values, so it can be applied to pixels with a plain array lookup.
+     */
+    public static int[] toArgb(PalEntry[] palette)
+    {
+        int[] argb = new int[palette.length];
+        for (int i = 0; i < palette.length; ++i) {
+            argb[i] = palette[i].argb();
+        }
+        return argb;
+    }
+
     public static PalEntry[] readPalette(byte[] fileData, int startOffset, int palw, int palh)
+    {
+        return readPalette(BinaryReader.wrap(fileData), startOffset, palw, palh);
+    }
+
+    public static PalEntry[] readPalette(BinaryReader fileData, int startOffset, int palw, int palh)
     {
         int numEntries = palw * palh;
         PalEntry[] palette = new PalEntry[numEntries];
         for (int i = 0; i < numEntries; ++i) {
             PalEntry pe = new PalEntry();
-            pe.r = fileData[startOffset + i * 4];
-            pe.g = fileData[startOffset + i * 4 + 1];
-            pe.b = fileData[startOffset + i * 4 + 2];
-            pe.a = fileData[startOffset + i * 4 + 3];
+            pe.r = fileData.getByte(startOffset + i * 4);
+            pe.g = fileData.getByte(startOffset + i * 4 + 1);
+            pe.b = fileData.getByte(startOffset + i * 4 + 2);
+            pe.a = fileData.getByte(startOffset + i * 4 + 3);
 
             palette[i] = pe;
         }
@@ -0,0 +1,195 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts every .gob and .lmp file in a data directory, writing the sub-files on a pool of worker threads.
+ */
+public class ParallelExtractor implements AutoCloseable
+{
+    public static void main(String[] args) throws IOException
+    {
+        GameType gameType = GameType.DARK_ALLIANCE;
+
+        Config config = new Config(gameType);
+        String inDir = config.getDataDir();
+        String outDir = inDir+"../DATA_extracted/";
+
+        try (ParallelExtractor obj = new ParallelExtractor(gameType)) {
+            obj.extractDataDir(new File(inDir), new File(outDir));
+        }
+    }
+
+    private final GameType gameType;
+    private final ThreadPoolExecutor pool;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    public ParallelExtractor(GameType gameType)
+    {
+        this(gameType, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelExtractor(GameType gameType, int numThreads)
+    {
+        this.gameType = gameType;
+        // The queue is bounded so that a huge archive can't queue up every sub-file at once.
+        // When it is full the submitting thread does the write itself.
+        pool = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(numThreads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Extracts all the gob and lmp files found in inDir and waits for the writes to finish.
+     */
+    public void extractDataDir(File inDir, File outRoot) throws IOException
+    {
+        File[] files = inDir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + inDir);
+        }
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".gob")) {
+                extractGob(file, outRoot);
+            } else if (name.endsWith(".lmp")) {
+                extractLmp(file, outRoot);
+            }
+        }
+        awaitCompletion();
+    }
+
+    /**
+     * Queues the sub-files of an lmp for extraction into outRoot/NAME_LMP.
+     */
+    public void extractLmp(File lmpFile, File outRoot) throws IOException
+    {
+        ByteBuffer fileData = map(lmpFile);
+        File outDir = new File(outRoot, lmpFile.getName().replace('.', '_'));
+        outDir.mkdirs();
+        System.out.println("Extracting " + lmpFile.getName());
+        extractLmp(fileData, 0, outDir);
+    }
+
+    /**
+     * Queues the sub-files of every lmp in a gob for extraction into outRoot/name/lmpname_lmp.
+     */
+    public void extractGob(File gobFile, File outRoot) throws IOException
+    {
+        ByteBuffer fileData = map(gobFile);
+        String name = gobFile.getName();
+        File outDir = new File(outRoot, name.substring(0, name.length() - 4));
+        outDir.mkdirs();
+
+        int offset=0;
+        String lmpName = DataUtil.collectString(fileData, offset);
+        while (!lmpName.isEmpty()){
+            System.out.println("Extracting " + lmpName + " from " + name);
+            File lmpOutputDir = new File(outDir, lmpName.replace('.', '_'));
+            lmpOutputDir.mkdir();
+            int lmpDataOffset = fileData.getInt(offset + 0x20);
+            extractLmp(fileData, lmpDataOffset, lmpOutputDir);
+
+            offset += 0x28;
+            lmpName = DataUtil.collectString(fileData, offset);
+        }
+    }
+
+    private void extractLmp(ByteBuffer fileData, int fileStartOffset, File outDir)
+    {
+        Lmp lmp = new Lmp(gameType);
+        lmp.readLmp(fileData, fileStartOffset);
+        for (Lmp.Entry entry : lmp.getEntries()) {
+            File outFile = new File(outDir, entry.name);
+            pending.add(pool.submit(() -> {
+                write(outFile, entry.buffer);
+                return null;
+            }));
+        }
+    }
+
+    /**
+     * Waits for all the queued writes to finish.
+     *
+     * @throws IOException if any of the writes failed. Further failures are attached as suppressed exceptions.
+     */
+    public void awaitCompletion() throws IOException
+    {
+        IOException failure = null;
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                IOException ioe = e.getCause() instanceof IOException ?
+                        (IOException) e.getCause() : new IOException(e.getCause());
+                if (failure == null) {
+                    failure = ioe;
+                } else {
+                    failure.addSuppressed(ioe);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for extraction", e);
+            }
+        }
+        pending.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            awaitCompletion();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static void write(File outFile, ByteBuffer data) throws IOException
+    {
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        try (FileChannel channel = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes PNG files, either palettised or 32 bit RGBA.
+ * Large images are split into strips of rows that are filtered and deflated in parallel. Each strip is compressed
+ * with the end of the previous one as its dictionary, so the result is a single zlib stream that compresses almost
+ * as well as a serial one.
+ */
+public class PngWriter
+{
+    /** Stored blocks only, for intermediate files that are read back straight away. */
+    public static final int UNCOMPRESSED = Deflater.NO_COMPRESSION;
+
+    /** The fastest deflate level. */
+    public static final int FAST = Deflater.BEST_SPEED;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOUR_INDEXED = 3;
+    private static final int COLOUR_RGBA = 6;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    // The amount of filtered data in each strip that is compressed on its own.
+    private static final int STRIP_BYTES = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final int level;
+    private final boolean parallel;
+
+    public PngWriter()
+    {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public PngWriter(int level)
+    {
+        this(level, true);
+    }
+
+    /**
+     * @param level    The deflate level, from UNCOMPRESSED to Deflater.BEST_COMPRESSION or Deflater.DEFAULT_COMPRESSION.
+     * @param parallel Whether to compress the strips of large images in the fork join pool.
+     */
+    public PngWriter(int level, boolean parallel)
+    {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < UNCOMPRESSED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Bad deflate level " + level);
+        }
+        this.level = level;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Writes an image as RGBA. TYPE_INT_ARGB images are read straight from their raster.
+     */
+    public void write(BufferedImage image, File file) throws IOException
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getDataBuffer().getNumBanks() == 1) {
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int start = raster.getDataBuffer().getOffset()
+                    + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            writeArgb(pixels, start, width, height, sampleModel.getScanlineStride(), file);
+        } else {
+            int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            writeArgb(pixels, 0, width, height, width, file);
+        }
+    }
+
+    /**
+     * Writes packed ARGB pixels as an RGBA image.
+     *
+     * @param start  The index of the top left pixel.
+     * @param stride The number of pixels from the start of one row to the start of the next.
+     */
+    public void writeArgb(int[] pixels, int start, int width, int height, int stride, File file) throws IOException
+    {
+        int rowBytes = width * 4;
+        byte[] raw = new byte[height * rowBytes];
+        for (int y = 0; y < height; ++y) {
+            int idx = y * rowBytes;
+            int src = start + y * stride;
+            for (int x = 0; x < width; ++x) {
+                int argb = pixels[src++];
+                raw[idx++] = (byte) (argb >> 16);
+                raw[idx++] = (byte) (argb >> 8);
+                raw[idx++] = (byte) argb;
+                raw[idx++] = (byte) (argb >>> 24);
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            writeHeader(out, width, height, 8, COLOUR_RGBA);
+            writeImageData(out, raw, rowBytes, 4, level != UNCOMPRESSED);
+            writeChunk(out, "IEND", new byte[0]);
+        }
+    }
+
+    /**
+     * Writes a palettised image. Palettes of up to 16 colours are written with 4 bits per pixel.
+     *
+     * @param indices One palette index per pixel, starting with the top left pixel.
+     * @param stride  The number of pixels from the start of one row to the start of the next.
+     * @param palette The palette as ARGB values. Alpha is written to a tRNS chunk if any colour isn't opaque.
+     */
+    public void writeIndexed(byte[] indices, int width, int height, int stride, int[] palette, File file)
+            throws IOException
+    {
+        if (palette.length > 256) {
+            throw new IllegalArgumentException("Palette has " + palette.length + " colours");
+        }
+        boolean fourBit = palette.length <= 16;
+        int rowBytes = fourBit ? (width + 1) / 2 : width;
+        byte[] raw = new byte[height * rowBytes];
+        for (int y = 0; y < height; ++y) {
+            if (fourBit) {
+                // The first pixel goes in the high nibble.
+                int idx = y * rowBytes;
+                for (int x = 0; x < width; x += 2) {
+                    int hi = indices[y * stride + x] & 0x0F;
+                    int lo = x + 1 < width ? indices[y * stride + x + 1] & 0x0F : 0;
+                    raw[idx++] = (byte) (hi << 4 | lo);
+                }
+            } else {
+                System.arraycopy(indices, y * stride, raw, y * rowBytes, width);
+            }
+        }
+
+        byte[] plte = new byte[palette.length * 3];
+        int numAlphas = 0;
+        for (int i = 0; i < palette.length; ++i) {
+            plte[i * 3] = (byte) (palette[i] >> 16);
+            plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+            plte[i * 3 + 2] = (byte) palette[i];
+            if ((palette[i] >>> 24) != 0xFF) {
+                numAlphas = i + 1;
+            }
+        }
+        byte[] trns = new byte[numAlphas];
+        for (int i = 0; i < numAlphas; ++i) {
+            trns[i] = (byte) (palette[i] >>> 24);
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            writeHeader(out, width, height, fourBit ? 4 : 8, COLOUR_INDEXED);
+            writeChunk(out, "PLTE", plte);
+            if (numAlphas > 0) {
+                writeChunk(out, "tRNS", trns);
+            }
+            // Palette indices don't predict each other, so they are left unfiltered.
+            writeImageData(out, raw, rowBytes, 1, false);
+            writeChunk(out, "IEND", new byte[0]);
+        }
+    }
+
+    private void writeHeader(OutputStream out, int width, int height, int bitDepth, int colourType) throws IOException
+    {
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = (byte) bitDepth;
+        ihdr[9] = (byte) colourType;
+        writeChunk(out, "IHDR", ihdr);
+    }
+
+    /**
+     * Filters and compresses the rows, and writes them as one IDAT chunk per strip.
+     */
+    private void writeImageData(OutputStream out, byte[] raw, int rowBytes, int bytesPerPixel, boolean filter)
+            throws IOException
+    {
+        int height = rowBytes == 0 ? 0 : raw.length / rowBytes;
+        int stride = rowBytes + 1;
+        int stripRows = Math.max(1, STRIP_BYTES / stride);
+        int numStrips = Math.max(1, (height + stripRows - 1) / stripRows);
+
+        byte[] filtered = new byte[height * stride];
+        byte[][] compressed = new byte[numStrips][];
+        if (parallel && numStrips > 1) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int strip = 0; strip < numStrips; ++strip) {
+                int y0 = strip * stripRows;
+                int y1 = Math.min(height, y0 + stripRows);
+                tasks.add(ForkJoinTask.adapt(() -> filterRows(raw, filtered, rowBytes, bytesPerPixel, filter, y0, y1)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            tasks.clear();
+            for (int strip = 0; strip < numStrips; ++strip) {
+                int s = strip;
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    compressed[s] = compressStrip(filtered, s * stripRows * stride,
+                            Math.min(filtered.length, (s + 1) * stripRows * stride), s == numStrips - 1);
+                }));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            filterRows(raw, filtered, rowBytes, bytesPerPixel, filter, 0, height);
+            for (int strip = 0; strip < numStrips; ++strip) {
+                compressed[strip] = compressStrip(filtered, strip * stripRows * stride,
+                        Math.min(filtered.length, (strip + 1) * stripRows * stride), strip == numStrips - 1);
+            }
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, filtered.length);
+        int checksum = (int) adler.getValue();
+
+        // The zlib header goes in front of the first strip and the adler32 of all the data after the last one.
+        for (int strip = 0; strip < numStrips; ++strip) {
+            byte[] data = compressed[strip];
+            if (strip == 0) {
+                data = concat(zlibHeader(), data);
+            }
+            if (strip == numStrips - 1) {
+                byte[] trailer = new byte[4];
+                putInt(trailer, 0, checksum);
+                data = concat(data, trailer);
+            }
+            writeChunk(out, "IDAT", data);
+        }
+    }
+
+    private byte[] zlibHeader()
+    {
+        int flevel;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            flevel = 2;
+        } else if (level < 2) {
+            flevel = 0;
+        } else if (level < 6) {
+            flevel = 1;
+        } else {
+            flevel = 3;
+        }
+        // 32K window deflate, with the check bits making the header a multiple of 31.
+        int header = 0x7800 | flevel << 6;
+        header += 31 - header % 31;
+        return new byte[]{(byte) (header >> 8), (byte) header};
+    }
+
+    private static void filterRows(byte[] raw, byte[] filtered, int rowBytes, int bpp, boolean filter, int y0, int y1)
+    {
+        int stride = rowBytes + 1;
+        for (int y = y0; y < y1; ++y) {
+            int src = y * rowBytes;
+            int dest = y * stride;
+            if (!filter) {
+                filtered[dest] = FILTER_NONE;
+                System.arraycopy(raw, src, filtered, dest + 1, rowBytes);
+                continue;
+            }
+            int prev = y > 0 ? src - rowBytes : -1;
+            // Pick the filter with the smallest sum of absolute differences, as the png spec suggests.
+            long[] sums = new long[FILTER_PAETH + 1];
+            for (int i = 0; i < rowBytes; ++i) {
+                int x = raw[src + i] & 0xFF;
+                int a = i >= bpp ? raw[src + i - bpp] & 0xFF : 0;
+                int b = prev >= 0 ? raw[prev + i] & 0xFF : 0;
+                int c = i >= bpp && prev >= 0 ? raw[prev + i - bpp] & 0xFF : 0;
+                sums[FILTER_NONE] += Math.abs((byte) x);
+                sums[FILTER_SUB] += Math.abs((byte) (x - a));
+                sums[FILTER_UP] += Math.abs((byte) (x - b));
+                sums[FILTER_AVERAGE] += Math.abs((byte) (x - ((a + b) >> 1)));
+                sums[FILTER_PAETH] += Math.abs((byte) (x - paeth(a, b, c)));
+            }
+            int best = FILTER_NONE;
+            for (int type = FILTER_SUB; type <= FILTER_PAETH; ++type) {
+                if (sums[type] < sums[best]) {
+                    best = type;
+                }
+            }
+            filtered[dest] = (byte) best;
+            for (int i = 0; i < rowBytes; ++i) {
+                filtered[dest + 1 + i] = filterByte(raw, src, prev, i, bpp, best);
+            }
+        }
+    }
+
+    private static byte filterByte(byte[] raw, int src, int prev, int i, int bpp, int type)
+    {
+        int x = raw[src + i] & 0xFF;
+        int a = i >= bpp ? raw[src + i - bpp] & 0xFF : 0;
+        int b = prev >= 0 ? raw[prev + i] & 0xFF : 0;
+        int c = i >= bpp && prev >= 0 ? raw[prev + i - bpp] & 0xFF : 0;
+        switch (type) {
+            case FILTER_SUB:
+                return (byte) (x - a);
+            case FILTER_UP:
+                return (byte) (x - b);
+            case FILTER_AVERAGE:
+                return (byte) (x - ((a + b) >> 1));
+            case FILTER_PAETH:
+                return (byte) (x - paeth(a, b, c));
+            default:
+                return (byte) x;
+        }
+    }
+
+    private static int paeth(int a, int b, int c)
+    {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Deflates data[start, end) as raw deflate blocks. All but the last strip end with a sync flush so the strips
+     * can simply be joined together.
+     */
+    private byte[] compressStrip(byte[] data, int start, int end, boolean last)
+    {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            int dictStart = Math.max(0, start - DICTIONARY_SIZE);
+            if (dictStart < start) {
+                deflater.setDictionary(data, dictStart, start - dictStart);
+            }
+            deflater.setInput(data, start, end - start);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] out = new byte[Math.max(64, (end - start) / 2)];
+            int length = 0;
+            while (true) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished() : length < out.length) {
+                    break;
+                }
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data) throws IOException
+    {
+        byte[] header = new byte[8];
+        putInt(header, 0, data.length);
+        for (int i = 0; i < 4; ++i) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, data.length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+
+        out.write(header);
+        out.write(data);
+        out.write(trailer);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    private static void putInt(byte[] data, int offset, int val)
+    {
+        data[offset] = (byte) (val >> 24);
+        data[offset + 1] = (byte) (val >> 16);
+        data[offset + 2] = (byte) (val >> 8);
+        data[offset + 3] = (byte) val;
+    }
+}
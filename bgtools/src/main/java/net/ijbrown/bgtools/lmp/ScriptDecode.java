@@ -84,27 +84,37 @@ public class ScriptDecode
             remaining -= read;
             offset += read;
         }
+        read(fileData);
+    }
+
+    void read(byte[] data)
+    {
+        fileData = data;
+        body = BinaryReader.wrap(fileData).slice(bodyOffset, fileData.length - bodyOffset);
     }
 
     // There is a 0x60 byte header followed by the body.
     private final int bodyOffset = 0x60;
 
-    private String disassemble(File outDirFile)
+    // All the offsets in the file are relative to the start of the body.
+    private BinaryReader body;
+
+    String disassemble(File outDirFile)
     {
         StringBuilder sb = new StringBuilder();
 
 
-        int offset0 = DataUtil.getLEInt(fileData, bodyOffset);
-        int hw1 = DataUtil.getLEUShort(fileData, bodyOffset + 0x04);
-        int hw2 = DataUtil.getLEUShort(fileData, bodyOffset + 0x06);
-        int hw3 = DataUtil.getLEUShort(fileData, bodyOffset + 0x08);
-        int hw4 = DataUtil.getLEUShort(fileData, bodyOffset + 0x0A);
+        int offset0 = body.getInt(0);
+        int hw1 = body.getUShort(0x04);
+        int hw2 = body.getUShort(0x06);
+        int hw3 = body.getUShort(0x08);
+        int hw4 = body.getUShort(0x0A);
 
-        int instructionsOffset = DataUtil.getLEInt(fileData, bodyOffset + 0x0C);
-        int stringsOffset = DataUtil.getLEInt(fileData, bodyOffset + 0x10);
-        int offset3 = DataUtil.getLEInt(fileData, bodyOffset + 0x14);
-        int offset4 = DataUtil.getLEInt(fileData, bodyOffset + 0x18);
-        int offset5 = DataUtil.getLEInt(fileData, bodyOffset + 0x1C);
+        int instructionsOffset = body.getInt(0x0C);
+        int stringsOffset = body.getInt(0x10);
+        int offset3 = body.getInt(0x14);
+        int offset4 = body.getInt(0x18);
+        int offset5 = body.getInt(0x1C);
 
         sb.append("Header:\r\n");
         sb.append("~~~~~~\r\n");
@@ -119,11 +129,11 @@ public class ScriptDecode
         sb.append("address 18: ").append(HexUtil.formatHex(offset4)).append("\r\n");
         sb.append("address 1C: ").append(HexUtil.formatHex(offset5)).append("\r\n");
 
-        int numInternals = DataUtil.getLEUShort(fileData, bodyOffset + 0x20);
-        int offsetInternals = DataUtil.getLEInt(fileData, bodyOffset + 0x24);
+        int numInternals = body.getUShort(0x20);
+        int offsetInternals = body.getInt(0x24);
 
-        int numExternals = DataUtil.getLEUShort(fileData, bodyOffset + 0x28);
-        int offsetExternals = DataUtil.getLEInt(fileData, bodyOffset + 0x2C);
+        int numExternals = body.getUShort(0x28);
+        int offsetExternals = body.getInt(0x2C);
 
         sb.append(numInternals).append(" Internals:\r\n");
         sb.append("~~~~~~~~~~~~\r\n");
@@ -165,7 +175,7 @@ public class ScriptDecode
                 needsOffset = false;
                 startOffset = i;
             }
-            int ival = DataUtil.getLEInt(fileData, stringsOffset + i + bodyOffset);
+            int ival = body.getInt(stringsOffset + i);
             for (int b = 3; b >= 0; --b) {
                 int c = (ival >> (b * 8)) & 0xff;
                 if (0 == c) {
@@ -187,7 +197,7 @@ public class ScriptDecode
     private void dumpInstructions(StringBuilder sb, int instructionsOffset, int len)
     {
         for (int i = 0; i < len; i += 4) {
-            int opcode = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+            int opcode = body.getInt(instructionsOffset + i);
             String label = internalsMap.get(i);
             if (label != null) {
                 sb.append("\r\n").append(label).append(":\r\n");
@@ -207,49 +217,49 @@ public class ScriptDecode
                             break;
                         case ONE_ARG: {
                             i += 4;
-                            int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int arg1 = body.getInt(instructionsOffset + i);
                             sb.append(" ").append(HexUtil.formatHex(arg1));
                         }
                         break;
                         case ONE_ARG_INSTR: {
                             i += 4;
-                            int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int arg1 = body.getInt(instructionsOffset + i);
                             sb.append(" inst ").append(HexUtil.formatHex(arg1));
                         }
                         break;
                         case TWO_ARGS: {
                             i += 4;
-                            int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int arg1 = body.getInt(instructionsOffset + i);
                             sb.append(" ").append(HexUtil.formatHex(arg1));
                             i += 4;
-                            int arg2 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int arg2 = body.getInt(instructionsOffset + i);
                             sb.append(" ").append(HexUtil.formatHex(arg2));
                         }
                         break;
                         case VAR_ARGS: {
                             i += 4;
-                            int num = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int num = body.getInt(instructionsOffset + i);
                             sb.append(" numArgs=").append(HexUtil.formatHex(num));
                             for (int j = 0; j < num - 1; ++j) {
                                 i += 4;
-                                int arg = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                                int arg = body.getInt(instructionsOffset + i);
                                 sb.append(" ").append(HexUtil.formatHex(arg));
                             }
                         }
                         break;
                         case ARGS_130: {
                             i += 4;
-                            int num = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int num = body.getInt(instructionsOffset + i);
                             sb.append(" num=").append(HexUtil.formatHex(num));
                             for (int j = 0; j < num; ++j) {
                                 i += 4;
-                                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                                int arg1 = body.getInt(instructionsOffset + i);
                                 i += 4;
-                                int arg2 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                                int arg2 = body.getInt(instructionsOffset + i);
                                 sb.append("\r\n            ").append(HexUtil.formatHex(arg1)).append(", ").append(arg2);
                             }
                             i += 4;
-                            int arg3 = DataUtil.getLEInt(fileData, instructionsOffset + i + bodyOffset);
+                            int arg3 = body.getInt(instructionsOffset + i);
                             sb.append("\r\n            ").append(HexUtil.formatHex(arg3));
                         }
                         break;
@@ -270,32 +280,32 @@ public class ScriptDecode
         switch (opcode) {
             case 0x1: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("acc = var ").append(arg1);
             }
             break;
             case 0xb: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("acc = ").append(arg1);
             }
             break;
             case 0xf: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("var ").append(arg1).append(" = acc");
             }
             break;
             case 0x11: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("t4 var ").append(arg1).append(" = acc");
             }
             break;
             case 0x27: {
                 // pushes a number onto the stack
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 stack.add(arg1);
                 sb.append("push ").append(HexUtil.formatHex(arg1));
             }
@@ -303,7 +313,7 @@ public class ScriptDecode
             case 0x2C: {
                 // pops a number of bytes off the stack
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 int numInts = arg1 / 4;
                 for (int idx = 0; idx < numInts && stack.size() > 0; ++idx) {
                     stack.remove(stack.size() - 1);
@@ -325,19 +335,19 @@ public class ScriptDecode
             break;
             case 0x33: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("Jump to ").append(HexUtil.formatHexUShort(arg1));
             }
             break;
             case 0x35: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("Jump if acc == 0 to ").append(HexUtil.formatHexUShort(arg1));
             }
             break;
             case 0x36: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("Jump if acc != 0 to ").append(HexUtil.formatHexUShort(arg1));
             }
             break;
@@ -353,28 +363,28 @@ public class ScriptDecode
             break;
             case 0x5B: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("clear local var ").append(HexUtil.formatHex(arg1));
             }
             break;
             case 0x7B: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 String externalName = externalsMap.get(arg1);
                 decodeExternalCall(sb, externalName);
             }
             break;
             case 0x7D: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 bytesConsumed += 4;
-                int arg2 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg2 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("Debug line no: ").append(arg1).append("  [").append(arg2).append("]");
             }
             break;
             case 0x81: {
                 bytesConsumed = 4;
-                int arg1 = DataUtil.getLEInt(fileData, instructionsOffset + i + bytesConsumed + bodyOffset);
+                int arg1 = body.getInt(instructionsOffset + i + bytesConsumed);
                 sb.append("switch(acc) ... case statement defs as ").append(HexUtil.formatHex(arg1));
             }
             break;
@@ -443,9 +453,9 @@ public class ScriptDecode
     private void printInternal(StringBuilder sb, int offset)
     {
         sb.append(HexUtil.formatHexUShort(offset)).append(": ");
-        int address = DataUtil.getLEInt(fileData, offset + bodyOffset);
+        int address = body.getInt(offset);
         sb.append(HexUtil.formatHex(address)).append(" - ");
-        String label = DataUtil.collectString(fileData, offset + bodyOffset + 4);
+        String label = body.getString(offset + 4);
         sb.append(label).append("\r\n");
         internalsMap.put(address, label);
     }
@@ -458,7 +468,7 @@ public class ScriptDecode
     private void printExternal(StringBuilder sb, int id, int offset)
     {
         sb.append(HexUtil.formatHexUShort(id)).append(": ");
-        String label = DataUtil.collectString(fileData, offset + bodyOffset + 4);
+        String label = body.getString(offset + 4);
         sb.append(label).append("\r\n");
         externalsMap.put(id, label);
     }
@@ -0,0 +1,126 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Interns zero terminated strings read from binary data.
+ * A lookup hashes and compares the bytes in place, so a name that is already cached costs no allocation.
+ */
+public class StringCache
+{
+    private String[] strings = new String[256];
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    public synchronized String intern(byte[] data, int offset)
+    {
+        int hash = 0;
+        int i = offset;
+        int b;
+        while ((b = data[i]) != 0) {
+            hash = 31 * hash + (b & 0xFF);
+            ++i;
+        }
+        int len = i - offset;
+
+        int mask = strings.length - 1;
+        int slot = hash & mask;
+        String s;
+        while ((s = strings[slot]) != null) {
+            if (hashes[slot] == hash && matches(s, data, offset, len)) {
+                return s;
+            }
+            slot = (slot + 1) & mask;
+        }
+        s = new String(data, offset, len, StandardCharsets.ISO_8859_1);
+        add(slot, s, hash);
+        return s;
+    }
+
+    public synchronized String intern(ByteBuffer buffer, int offset)
+    {
+        int hash = 0;
+        int i = offset;
+        int b;
+        while ((b = buffer.get(i)) != 0) {
+            hash = 31 * hash + (b & 0xFF);
+            ++i;
+        }
+        int len = i - offset;
+
+        int mask = strings.length - 1;
+        int slot = hash & mask;
+        String s;
+        while ((s = strings[slot]) != null) {
+            if (hashes[slot] == hash && matches(s, buffer, offset, len)) {
+                return s;
+            }
+            slot = (slot + 1) & mask;
+        }
+        s = DataUtil.collectString(buffer, offset);
+        add(slot, s, hash);
+        return s;
+    }
+
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    private static boolean matches(String s, byte[] data, int offset, int len)
+    {
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (s.charAt(i) != (data[offset + i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String s, ByteBuffer buffer, int offset, int len)
+    {
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (s.charAt(i) != (buffer.get(offset + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(int slot, String s, int hash)
+    {
+        strings[slot] = s;
+        hashes[slot] = hash;
+        ++count;
+        // Keep the table at most half full.
+        if (count * 2 > strings.length) {
+            rehash();
+        }
+    }
+
+    private void rehash()
+    {
+        String[] oldStrings = strings;
+        int[] oldHashes = hashes;
+        strings = new String[oldStrings.length * 2];
+        hashes = new int[oldHashes.length * 2];
+        int mask = strings.length - 1;
+        for (int i = 0; i < oldStrings.length; ++i) {
+            if (oldStrings[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (strings[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                strings[slot] = oldStrings[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+}
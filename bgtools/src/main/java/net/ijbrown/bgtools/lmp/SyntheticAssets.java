@@ -0,0 +1,779 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates structurally valid game files that contain no game data, for testing and load testing the decoders.
+ * Everything is generated from a fixed seed, so the same arguments always give the same bytes.
+ */
+public final class SyntheticAssets
+{
+    /**
+     * Writes a data directory under outDir laid out like the game's, so that the decoders can be run against it.
+     * Usage: SyntheticAssets outDir [scale]
+     * A scale of 1 gives files roughly the size of the real ones.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1) {
+            System.out.println("Usage: SyntheticAssets outDir [scale]");
+            return;
+        }
+        int scale = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        writeDataDir(new File(args[0]), scale);
+    }
+
+    /** The ways that a .tex file can hold its pixels. */
+    public enum TexFormat
+    {
+        /** 32 bit pixels stored directly. */
+        PSMCT32,
+        /** 8 bit palettised, uploaded as PSMCT32 and so swizzled. */
+        PSMT8,
+        /** 4 bit palettised, uploaded as PSMCT32 and so swizzled. */
+        PSMT4,
+        /** 4 bit palettised, uploaded as PSMT4 and so stored linearly. */
+        PSMT4_LINEAR
+    }
+
+    /** The offset of the first chunk in a file made by {@link #levelTex}. */
+    public static final int LEVEL_TEX_CHUNK_OFFSET = 0x40;
+
+    private static final int PSMCT32 = 0x00;
+    private static final int PSMT4 = 0x14;
+
+    private static final int BITBLTBUF = 0x50;
+    private static final int TRXPOS = 0x51;
+    private static final int TRXREG = 0x52;
+    private static final int TRXDIR = 0x53;
+
+    /** The largest nloop a GIF tag can hold. */
+    private static final int MAX_NLOOP = 0x7FFF;
+
+    /** Registers per vertex in the generated tri strips. */
+    private static final int NREG = 3;
+
+    private SyntheticAssets()
+    {
+    }
+
+    /**
+     * Writes outDir/BG/DATA/synth.lmp, synth.gob and synth.tex, and the files in the lmp to
+     * outDir/BG/DATA_extracted/synth/synth_lmp/ as the extractors would.
+     */
+    public static void writeDataDir(File outDir, int scale) throws IOException
+    {
+        int side = (int) Math.ceil(Math.sqrt(scale));
+        int texSize = Math.min(1024, Integer.highestOneBit(256 * side));
+        int gridSize = Math.min(100, 16 * side);
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("mesh.vif", vif(1, 16 * scale, 48, 64));
+        for (TexFormat format : TexFormat.values()) {
+            entries.put(format.name().toLowerCase() + ".tex", tex(format, texSize, texSize));
+        }
+        entries.put("synth.world", world(gridSize, gridSize, 200 * scale, 20 * scale));
+        entries.put("script.scr", script(200 * scale));
+
+        byte[] lmp = lmp(entries);
+        Map<String, byte[]> lmps = new LinkedHashMap<>();
+        lmps.put("synth.lmp", lmp);
+
+        File dataDir = new File(outDir, "BG/DATA");
+        File extractedDir = new File(outDir, "BG/DATA_extracted/synth/synth_lmp");
+        dataDir.mkdirs();
+        extractedDir.mkdirs();
+
+        write(new File(dataDir, "synth.lmp"), lmp);
+        write(new File(dataDir, "synth.gob"), gob(lmps));
+        write(new File(dataDir, "synth.tex"), levelTex(Math.min(127, 8 * side), Math.min(127, 8 * side)));
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            write(new File(extractedDir, entry.getKey()), entry.getValue());
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException
+    {
+        System.out.println("Writing " + file + " (" + data.length + " bytes)");
+        Files.write(file.toPath(), data);
+    }
+
+    /**
+     * A Dark Alliance .lmp file holding the given entries, in order.
+     */
+    public static byte[] lmp(Map<String, byte[]> entries)
+    {
+        Buf b = new Buf();
+        b.putInt(entries.size());
+        int header = b.position();
+        b.skip(entries.size() * 0x40);
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            b.align(16);
+            int entryHeader = header + i * 0x40;
+            putName(b, entryHeader, entry.getKey(), 0x38);
+            b.putInt(entryHeader + 0x38, b.position());
+            b.putInt(entryHeader + 0x3C, entry.getValue().length);
+            b.putBytes(entry.getValue());
+            ++i;
+        }
+        return b.toArray();
+    }
+
+    /**
+     * A .gob file holding the given lmp files, in order.
+     */
+    public static byte[] gob(Map<String, byte[]> lmps)
+    {
+        Buf b = new Buf();
+        // The directory ends with an empty name.
+        b.skip((lmps.size() + 1) * 0x28);
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry : lmps.entrySet()) {
+            b.align(16);
+            putName(b, i * 0x28, entry.getKey(), 0x20);
+            b.putInt(i * 0x28 + 0x20, b.position());
+            b.putBytes(entry.getValue());
+            ++i;
+        }
+        return b.toArray();
+    }
+
+    /**
+     * A .vif file.
+     *
+     * @param numMeshes    The number of meshes in the file.
+     * @param numChunks    The number of chunks (MSCAL calls) in each mesh.
+     * @param numVerts     The number of vertices unpacked per chunk, at most 170.
+     * @param stripLength  The length of each tri strip, at most 170. Positions past numVerts reuse earlier
+     *                     vertices with a different UV, so the decoder has to split them.
+     */
+    public static byte[] vif(int numMeshes, int numChunks, int numVerts, int stripLength)
+    {
+        if (numMeshes < 1 || numMeshes > 255) {
+            throw new IllegalArgumentException("numMeshes must be between 1 and 255");
+        }
+        if (numVerts < 1 || numVerts > stripLength || stripLength * NREG > 0x1FF) {
+            throw new IllegalArgumentException("Need 0 < numVerts <= stripLength <= 170");
+        }
+        Random rand = new Random(1);
+        Buf b = new Buf();
+        int meshTable = 0x28;
+        b.skip(meshTable + (numMeshes + 1) * 4);
+        b.align(16);
+        b.putByte(0x12, numMeshes);
+        for (int mesh = 0; mesh < numMeshes; ++mesh) {
+            b.putInt(meshTable + mesh * 4, b.position());
+            writeVifChunks(b, rand, numChunks, numVerts, stripLength);
+            b.align(16);
+        }
+        b.putInt(meshTable + numMeshes * 4, b.position());
+        return b.toArray();
+    }
+
+    private static void writeVifChunks(Buf b, Random rand, int numChunks, int numVerts, int stripLength)
+    {
+        b.putInt(vifCode(0x01, 0, 0x0101));     // STCYCL
+        for (int chunk = 0; chunk < numChunks; ++chunk) {
+            b.putInt(vifCode(0x04, 0, 0x100));  // ITOP
+
+            b.putInt(unpack(3, 0, 1, 0, false));
+            putGifTag(b, stripLength, true, 4, 0, NREG, 0x412);
+
+            b.putInt(unpack(2, 1, numVerts, 1, false));
+            for (int v = 0; v < numVerts; ++v) {
+                b.putShort(rand.nextInt(0x4000) - 0x2000);
+                b.putShort(rand.nextInt(0x4000) - 0x2000);
+                b.putShort(rand.nextInt(0x4000) - 0x2000);
+            }
+            b.align(4);
+
+            b.putInt(unpack(2, 2, numVerts, 0x40, false));
+            for (int v = 0; v < numVerts; ++v) {
+                b.putByte(rand.nextInt(255) - 127);
+                b.putByte(rand.nextInt(255) - 127);
+                b.putByte(rand.nextInt(255) - 127);
+            }
+            b.align(4);
+
+            // Strip position k takes vertex k. Past the end of the vertices, position k is copied from
+            // position k % numVerts.
+            b.putInt(unpack(2, 1, stripLength + 2, 0x80, true));
+            b.putShort(0).putShort(0).putShort(0);
+            b.putShort(0).putShort(0).putShort(0);
+            for (int k = 0; k < stripLength; ++k) {
+                if (k < numVerts) {
+                    b.putShort(k * NREG).putShort(k * NREG).putShort(k * NREG);
+                } else {
+                    b.putShort(0).putShort((k % numVerts) * NREG).putShort(k * NREG);
+                }
+            }
+            b.align(4);
+
+            b.putInt(unpack(3, 1, 1, 0xC0, true));
+            b.putShort(0).putShort(0).putShort(0).putShort(0);
+
+            // Single bone weights, 4 vertices per entry.
+            int numWeights = (numVerts + 3) / 4;
+            b.putInt(unpack(3, 2, numWeights, 0xC1, false));
+            for (int i = 0; i < numWeights; ++i) {
+                b.putByte(rand.nextInt(32) * 4).putByte(255).putByte(0xFF).putByte(Math.min(4, numVerts - i * 4));
+            }
+
+            b.putInt(vifCode(0x14, 0, 68));     // MSCAL
+
+            // The UVs for a chunk follow its MSCAL.
+            b.putInt(unpack(1, 1, stripLength, 0x100, false));
+            for (int k = 0; k < stripLength; ++k) {
+                b.putShort(rand.nextInt(0x1000)).putShort(rand.nextInt(0x1000));
+            }
+        }
+    }
+
+    /**
+     * A .tex file. Palettised textures must be a multiple of 128 pixels wide and fit in GS memory.
+     */
+    public static byte[] tex(TexFormat format, int width, int height)
+    {
+        if (format != TexFormat.PSMCT32 && (width % 128 != 0 || height % 16 != 0 || width * height > 0x400000)) {
+            throw new IllegalArgumentException("Bad palettised texture size " + width + " x " + height);
+        }
+        Random rand = new Random(2);
+        Buf b = new Buf();
+        b.skip(0x20);
+        b.putShort(0, width);
+        b.putShort(2, height);
+        b.putInt(0x10, 0x20);
+
+        if (format == TexFormat.PSMCT32) {
+            putGifTag(b, 3, false, 0, 0, 1, 0x0E);
+            b.skip(0xC0 - b.position());
+            // The decoder reads width * height pixels whatever the tag says.
+            putGifTag(b, Math.min(MAX_NLOOP, width * height / 4), true, 0, 2, 0, 0);
+            putRandom(b, rand, width * height * 4);
+            return b.toArray();
+        }
+
+        int palw = format == TexFormat.PSMT8 ? 16 : 8;
+        int palh = format == TexFormat.PSMT8 ? 16 : 2;
+        putTrxRegs(b, 0x3000, 1, PSMCT32, 0, palw, palh);
+        putGifTag(b, palw * palh / 4, false, 0, 2, 0, 0);
+        for (int i = 0; i < palw * palh; ++i) {
+            b.putByte(rand.nextInt(256)).putByte(rand.nextInt(256)).putByte(rand.nextInt(256)).putByte(0);
+        }
+
+        int dbw = width / 128;
+        switch (format) {
+            case PSMT8:
+                // Sent as 32 bit pixels, so half as wide and half as tall.
+                putTransfers(b, rand, dbw, PSMCT32, width / 2, height / 2);
+                break;
+            case PSMT4_LINEAR:
+                putTransfers(b, rand, dbw, PSMT4, width, height);
+                break;
+            case PSMT4: {
+                // Sent as 32 bit pixels, so half as wide and a quarter as tall. The decoder joins at most two
+                // IMAGE tags for this, rather than taking several transfers.
+                int numQwords = width * height / 32;
+                if (numQwords > 2 * MAX_NLOOP) {
+                    throw new IllegalArgumentException("PSMT4 texture too large");
+                }
+                putTrxRegs(b, 0, dbw, PSMCT32, 0, width / 2, height / 4);
+                int first = Math.min(numQwords, MAX_NLOOP);
+                putGifTag(b, first, first == numQwords, 0, 2, 0, 0);
+                putRandom(b, rand, first * 16);
+                if (first < numQwords) {
+                    putGifTag(b, numQwords - first, true, 0, 2, 0, 0);
+                    putRandom(b, rand, (numQwords - first) * 16);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return b.toArray();
+    }
+
+    // Sends random pixels a band of rows at a time, as each IMAGE tag can only hold MAX_NLOOP quadwords.
+    private static void putTransfers(Buf b, Random rand, int dbw, int dpsm, int rrw, int rrh)
+    {
+        int bytesPerRow = dpsm == PSMT4 ? rrw / 2 : rrw * 4;
+        int rowsPerTransfer = Math.min(rrh, MAX_NLOOP * 16 / bytesPerRow);
+        for (int y = 0; y < rrh; y += rowsPerTransfer) {
+            int rows = Math.min(rowsPerTransfer, rrh - y);
+            int numBytes = (rows * bytesPerRow + 15) & ~15;
+            putTrxRegs(b, 0, dbw, dpsm, y, rrw, rows);
+            putGifTag(b, numBytes / 16, y + rows == rrh, 0, 2, 0, 0);
+            putRandom(b, rand, numBytes);
+        }
+    }
+
+    /**
+     * A level .tex file with a single chunk at {@link #LEVEL_TEX_CHUNK_OFFSET}.
+     * Each 16x16 block is Huffman coded with a mix of 7 and 9 bit codes, literals, back references
+     * and predictions from the previous pixel.
+     *
+     * @param widthBlocks  Width in 16 pixel blocks, at most 127.
+     * @param heightBlocks Height in 16 pixel blocks, at most 127.
+     */
+    public static byte[] levelTex(int widthBlocks, int heightBlocks)
+    {
+        if (widthBlocks < 1 || widthBlocks > 127 || heightBlocks < 1 || heightBlocks > 127) {
+            throw new IllegalArgumentException("Blocks must be between 1 and 127");
+        }
+        Random rand = new Random(3);
+        Buf b = new Buf();
+        int base = LEVEL_TEX_CHUNK_OFFSET;
+        b.skip(base + 0x40);
+        b.putInt(0, 1);
+        b.putShort(base, widthBlocks * 16);
+        b.putShort(base + 2, heightBlocks * 16);
+        b.putInt(base + 0x10, 0x40);
+
+        // All the offsets in a chunk are relative to its start.
+        int numBlocks = widthBlocks * heightBlocks;
+        int palOffsetPos = b.position();
+        b.putInt(0);
+        b.putByte(0).putByte(0).putByte(widthBlocks - 1).putByte(heightBlocks - 1);
+        int blockTablePos = b.position();
+        b.skip(numBlocks * 4);
+        b.putByte(0xFF);
+        b.align(16);
+
+        b.putInt(palOffsetPos, b.position() - base);
+        putRandom(b, rand, 0x400);
+        putRandom(b, rand, 0x800);
+
+        // 120 seven bit codes followed by 32 nine bit ones.
+        short[] symbols = new short[152];
+        for (int i = 0; i < 120; ++i) {
+            symbols[i] = (short) (i * 2);
+        }
+        for (int i = 0; i < 32; ++i) {
+            symbols[120 + i] = (short) (i < 13 ? 0x100 + i : 200 + i);
+        }
+        b.putInt(symbols.length);
+        for (short symbol : symbols) {
+            b.putShort(symbol);
+        }
+        int[] table2 = new int[18];
+        table2[7] = 0;
+        table2[9] = 120 - (120 << 2);
+        for (int val : table2) {
+            b.putInt(val);
+        }
+        int[] table3 = new int[17];
+        Arrays.fill(table3, -1);
+        table3[7] = 119;
+        table3[8] = 239;
+        for (int bit = 9; bit <= 16; ++bit) {
+            table3[bit] = Integer.MAX_VALUE;
+        }
+        for (int val : table3) {
+            b.putInt(val);
+        }
+
+        for (int block = 0; block < numBlocks; ++block) {
+            b.align(4);
+            b.putInt(blockTablePos + block * 4, b.position() - base);
+            BitWriter bits = new BitWriter(b);
+            for (int pixel = 0; pixel < 256; ++pixel) {
+                // Back references reach up to 17 pixels, so start with literals.
+                boolean longCode = pixel >= 17 && rand.nextInt(4) == 0;
+                if (longCode) {
+                    bits.write((120 << 2) + rand.nextInt(32), 9);
+                } else {
+                    bits.write(rand.nextInt(120), 7);
+                }
+            }
+            bits.flush();
+            b.putInt(0);
+        }
+        return b.toArray();
+    }
+
+    /**
+     * A Dark Alliance .world file. The texture grid points every cell at the chunk of a {@link #levelTex} file.
+     *
+     * @param cols        Width of the cell grid, at most 100.
+     * @param rows        Height of the cell grid.
+     * @param numElements The number of placed elements.
+     * @param numMeshes   The number of distinct meshes the elements share.
+     */
+    public static byte[] world(int cols, int rows, int numElements, int numMeshes)
+    {
+        if (cols < 1 || cols > 100 || rows < 1 || cols * rows > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad world grid " + cols + " x " + rows);
+        }
+        Random rand = new Random(4);
+        Buf b = new Buf();
+        b.skip(0x70);
+        int numCells = cols * rows;
+
+        b.putInt(0x00, numElements);
+        b.putInt(0x10, cols);
+        b.putInt(0x14, rows);
+        b.putInt(0x1C, numCells);
+        b.putInt(0x30, cols);
+        b.putInt(0x34, rows);
+        b.putInt(0x58, 0);
+        b.putInt(0x5C, (rows - 1) * 100 + cols - 1);
+
+        // Per cell topo element lists.
+        b.putInt(0x18, b.position());
+        int cellTable = b.position();
+        b.skip(numCells * 4);
+        for (int i = 0; i < numCells; ++i) {
+            b.putInt(cellTable + i * 4, b.position());
+            b.putShort(i).putShort((i + 1) % numCells).putShort(-1);
+        }
+        b.align(4);
+
+        // Height patches, one per cell.
+        int[] patches = new int[numCells];
+        for (int i = 0; i < numCells; ++i) {
+            patches[i] = b.position();
+            b.putInt(0).putInt(0).putInt(8).putInt(8);
+            b.putShort(0).putShort(0x1000);
+            for (int h = 0; h < 64; ++h) {
+                b.putShort(rand.nextInt(0x1000));
+            }
+            b.align(4);
+        }
+
+        b.putInt(0x20, b.position());
+        for (int i = 0; i < numCells; ++i) {
+            b.putShort(0).putShort(0).putShort(0).putShort(0).putInt(0);
+            b.putInt(patches[i]);
+            b.putShort(0).putShort((i % cols) * 128).putShort((i / cols) * 128).putShort(rand.nextInt(256));
+            b.putShort(32767).putShort(0);
+        }
+        b.align(16);
+
+        int[] meshOffsets = new int[numMeshes];
+        int[] meshLengths = new int[numMeshes];
+        for (int m = 0; m < numMeshes; ++m) {
+            meshOffsets[m] = b.position();
+            // The byte at 0x10 gives the number of quadwords before the packets, less 2.
+            b.skip(0x10);
+            b.putByte(1);
+            b.skip(0x1F);
+            writeVifChunks(b, rand, 2, 24, 32);
+            b.align(16);
+            meshLengths[m] = (b.position() - meshOffsets[m]) / 16;
+        }
+
+        b.putInt(0x24, b.position());
+        for (int i = 0; i < numElements; ++i) {
+            int mesh = i % numMeshes;
+            b.putInt(meshOffsets[mesh]).putInt(0).putInt(meshLengths[mesh]);
+            float x = rand.nextInt(cols * 128);
+            float y = rand.nextInt(rows * 128);
+            b.putFloat(x).putFloat(y).putFloat(0).putFloat(x + 64).putFloat(y + 64).putFloat(64);
+            b.putInt(rand.nextInt(16) * 0x40).putShort(i % numCells);
+            b.putShort((int) x).putShort((int) y).putShort(0);
+            b.putInt(0).putInt(0);
+        }
+        b.skip(8);
+
+        b.putInt(0x38, b.position());
+        for (int i = 0; i < numCells; ++i) {
+            b.putShort(rand.nextInt(2));
+        }
+        b.align(4);
+
+        b.putInt(0x64, b.position());
+        for (int y = 0; y < rows; ++y) {
+            for (int x = 0; x < 100; ++x) {
+                b.putInt(0).putInt(x < cols ? LEVEL_TEX_CHUNK_OFFSET : 0);
+            }
+        }
+        return b.toArray();
+    }
+
+    /**
+     * A .scr file with the given number of routines, each of which reads and writes a variable.
+     */
+    public static byte[] script(int numRoutines)
+    {
+        Buf b = new Buf();
+        b.skip(0x60);
+        int body = b.position();
+
+        String[] externals = {"getv", "setv", "addQuest"};
+        int internalsOffset = 0x30;
+        int externalsOffset = internalsOffset + numRoutines * 0x18;
+        int instructionsOffset = externalsOffset + externals.length * 0x18;
+        b.skip(0x30);
+        b.putShort(body + 0x20, numRoutines);
+        b.putInt(body + 0x24, internalsOffset);
+        b.putShort(body + 0x28, externals.length);
+        b.putInt(body + 0x2C, externalsOffset);
+        b.putInt(body + 0x0C, instructionsOffset);
+
+        // Each routine is 0x64 bytes long.
+        int routineLen = 0x64;
+        for (int i = 0; i < numRoutines; ++i) {
+            putFixedString(b, i * routineLen, "routine" + i);
+        }
+        for (String external : externals) {
+            putFixedString(b, 0, external);
+        }
+
+        int code = b.position();
+        for (int i = 0; i < numRoutines; ++i) {
+            int start = b.position() - code;
+            int stringOffset = (i % 64) * 16;
+            b.putInt(0x2E);                                 // enter
+            b.putInt(0x7D).putInt(i).putInt(0);             // debug line
+            b.putInt(0x27).putInt(stringOffset);            // push
+            b.putInt(0x27).putInt(4);
+            b.putInt(0x7B).putInt(0);                       // getv
+            b.putInt(0x2C).putInt(8);                       // pop
+            b.putInt(0x35).putInt(start + 0x60);            // jump if acc == 0
+            b.putInt(0x27).putInt(i);
+            b.putInt(0x27).putInt(stringOffset);
+            b.putInt(0x27).putInt(8);
+            b.putInt(0x7B).putInt(1);                       // setv
+            b.putInt(0x2C).putInt(12);
+            b.putInt(0x30);                                 // return
+        }
+
+        int strings = b.position();
+        b.putInt(body + 0x10, strings - body);
+        for (int i = 0; i < 64; ++i) {
+            // Each string takes 16 bytes. The characters in each word are stored most significant first.
+            byte[] s = String.format("variable_%05d", i).getBytes(StandardCharsets.ISO_8859_1);
+            byte[] padded = Arrays.copyOf(s, 16);
+            for (int w = 0; w < 16; w += 4) {
+                b.putByte(padded[w + 3]).putByte(padded[w + 2]).putByte(padded[w + 1]).putByte(padded[w]);
+            }
+        }
+        b.putInt(body + 0x14, b.position() - body);
+        return b.toArray();
+    }
+
+    /** Random bytes, for feeding GSMemory directly. */
+    public static byte[] randomBytes(int length)
+    {
+        byte[] data = new byte[length];
+        new Random(5).nextBytes(data);
+        return data;
+    }
+
+    private static void putName(Buf b, int offset, String name, int maxLen)
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        if (bytes.length >= maxLen) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            b.putByte(offset + i, bytes[i]);
+        }
+    }
+
+    private static void putFixedString(Buf b, int address, String s)
+    {
+        int start = b.position();
+        b.putInt(address);
+        for (byte c : s.getBytes(StandardCharsets.ISO_8859_1)) {
+            b.putByte(c);
+        }
+        b.skip(0x18 - (b.position() - start));
+    }
+
+    // An A+D GIF packet that sets up a host to local transfer.
+    private static void putTrxRegs(Buf b, int dbp, int dbw, int dpsm, int dsay, int rrw, int rrh)
+    {
+        putGifTag(b, 4, false, 0, 0, 1, 0x0E);
+        b.putShort(0).putShort(0).putShort(dbp).putByte(dbw).putByte(dpsm).putLong(BITBLTBUF);
+        b.putInt(0).putShort(0).putShort(dsay).putLong(TRXPOS);
+        b.putInt(rrw).putInt(rrh).putLong(TRXREG);
+        b.putInt(0).putInt(0).putLong(TRXDIR);
+    }
+
+    private static void putGifTag(Buf b, int nloop, boolean eop, int prim, int flg, int nreg, int regs)
+    {
+        b.putInt(nloop | (eop ? 0x8000 : 0));
+        b.putInt((prim != 0 ? 1 << 14 : 0) | (prim << 15) | (flg << 26) | (nreg << 28));
+        b.putInt(regs);
+        b.putInt(0);
+    }
+
+    private static void putRandom(Buf b, Random rand, int length)
+    {
+        byte[] data = new byte[length];
+        rand.nextBytes(data);
+        b.putBytes(data);
+    }
+
+    private static int vifCode(int cmd, int num, int imm)
+    {
+        return (cmd << 24) | (num << 16) | (imm & 0xFFFF);
+    }
+
+    private static int unpack(int vn, int vl, int num, int addr, boolean usn)
+    {
+        return vifCode(0x60 | (vn << 2) | vl, num, (usn ? 0x4000 : 0) | addr);
+    }
+
+    /**
+     * A little endian byte buffer that grows as it is written.
+     */
+    private static final class Buf
+    {
+        private ByteBuffer bb = ByteBuffer.allocate(0x1000).order(ByteOrder.LITTLE_ENDIAN);
+
+        int position()
+        {
+            return bb.position();
+        }
+
+        Buf skip(int numBytes)
+        {
+            ensure(numBytes);
+            bb.position(bb.position() + numBytes);
+            return this;
+        }
+
+        Buf align(int alignment)
+        {
+            return skip(((bb.position() + alignment - 1) & ~(alignment - 1)) - bb.position());
+        }
+
+        Buf putByte(int val)
+        {
+            ensure(1);
+            bb.put((byte) val);
+            return this;
+        }
+
+        Buf putShort(int val)
+        {
+            ensure(2);
+            bb.putShort((short) val);
+            return this;
+        }
+
+        Buf putInt(int val)
+        {
+            ensure(4);
+            bb.putInt(val);
+            return this;
+        }
+
+        Buf putLong(long val)
+        {
+            ensure(8);
+            bb.putLong(val);
+            return this;
+        }
+
+        Buf putFloat(float val)
+        {
+            ensure(4);
+            bb.putFloat(val);
+            return this;
+        }
+
+        Buf putBytes(byte[] data)
+        {
+            ensure(data.length);
+            bb.put(data);
+            return this;
+        }
+
+        // The absolute puts must be within what has already been written or skipped.
+
+        void putByte(int offset, int val)
+        {
+            bb.put(offset, (byte) val);
+        }
+
+        void putShort(int offset, int val)
+        {
+            bb.putShort(offset, (short) val);
+        }
+
+        void putInt(int offset, int val)
+        {
+            bb.putInt(offset, val);
+        }
+
+        byte[] toArray()
+        {
+            return Arrays.copyOf(bb.array(), bb.position());
+        }
+
+        private void ensure(int numBytes)
+        {
+            if (bb.remaining() < numBytes) {
+                int capacity = Math.max(bb.capacity() * 2, bb.position() + numBytes);
+                ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                bb.flip();
+                grown.put(bb);
+                bb = grown;
+            }
+        }
+    }
+
+    /**
+     * Packs codes most significant bit first into 16 bit little endian words.
+     */
+    private static final class BitWriter
+    {
+        private final Buf b;
+        private int word = 0;
+        private int numBits = 0;
+
+        BitWriter(Buf b)
+        {
+            this.b = b;
+        }
+
+        void write(int code, int len)
+        {
+            for (int bit = len - 1; bit >= 0; --bit) {
+                word = (word << 1) | ((code >> bit) & 1);
+                if (++numBits == 16) {
+                    b.putShort(word);
+                    word = 0;
+                    numBits = 0;
+                }
+            }
+        }
+
+        void flush()
+        {
+            if (numBits > 0) {
+                b.putShort(word << (16 - numBits));
+                word = 0;
+                numBits = 0;
+            }
+        }
+    }
+}
@@ -15,7 +15,6 @@
 */
 package net.ijbrown.bgtools.lmp;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
@@ -89,10 +88,34 @@ public class TexDecode
     private static final int PSMCT32 = 0x00;
     private static final int PSMT4 = 0x14;
 
+    private PngWriter pngWriter = new PngWriter();
+
+    public void setPngWriter(PngWriter pngWriter) {
+        this.pngWriter = pngWriter;
+    }
+
     public void extract(File outDirFile, byte[] fileData, int startOffset, String filename, int length) throws IOException {
-        RenderedImage image = getImage(fileData, startOffset, length);
+        DecodedTex tex = decodeTex(fileData, startOffset, length);
         File outputfile = new File(outDirFile, filename+".png");
-        ImageIO.write(image, "png", outputfile);
+        writePng(tex, outputfile);
+    }
+
+    /**
+     * Writes the texture as a png. Palettised textures are written with their palette.
+     */
+    public void writePng(DecodedTex tex, File outputfile) throws IOException {
+        if (tex.targetWidth == 0 || tex.pixels == null) {
+            throw new IOException("No image data for " + outputfile.getName());
+        }
+        int rows = Math.min(tex.pixelsHeight, tex.pixels.length / tex.pixelsWidth);
+        if (tex.targetWidth > tex.pixelsWidth || tex.targetHeight > rows) {
+            // The pixels don't cover the whole image, so pad it out with transparent pixels.
+            pngWriter.write((BufferedImage) getImage(tex), outputfile);
+        } else if (tex.indices != null && tex.palette.length <= 256) {
+            pngWriter.writeIndexed(tex.indices, tex.targetWidth, tex.targetHeight, tex.pixelsWidth, tex.palette, outputfile);
+        } else {
+            pngWriter.writeArgb(tex.pixels, 0, tex.targetWidth, tex.targetHeight, tex.pixelsWidth, outputfile);
+        }
     }
 
     public RenderedImage getImage(byte[] fileData, int startOffset, int length) {
@@ -104,36 +127,35 @@ public class TexDecode
     public RenderedImage getImage(DecodedTex tex) {
         BufferedImage image = null;
         if (tex.targetWidth != 0 && tex.pixels != null) {
-            image = new BufferedImage(tex.targetWidth, tex.targetHeight, BufferedImage.TYPE_INT_ARGB);
-            for (int y = 0; y < tex.pixelsHeight && y < tex.targetHeight; ++y) {
-                for (int x = 0; x < tex.pixelsWidth && x < tex.targetWidth; ++x) {
-                    PalEntry pixel = tex.pixels[y * tex.pixelsWidth + x];
-                    if (pixel != null) {
-                        image.setRGB(x, y, pixel.argb());
-                    }
-                }
-            }
+            // This usually shares the pixels array rather than copying it.
+            image = ArgbImage.create(tex.pixels, tex.pixelsWidth, tex.pixelsHeight, tex.targetWidth, tex.targetHeight);
         }
         return image;
     }
 
     public DecodedTex decodeTex(byte[] fileData, int startOffset, int length) {
-        GSMemory gsMem = new GSMemory();
+        return decodeTex(BinaryReader.wrap(fileData), startOffset, length);
+    }
+
+    public DecodedTex decodeTex(BinaryReader fileData, int startOffset, int length) {
+        GSMemory gsMem = GSMemory.pooled();
 
         int endIndex = startOffset + length;
-        int finalw = DataUtil.getLEShort(fileData, startOffset);
-        int finalh = DataUtil.getLEShort(fileData, startOffset + 2);
+        int finalw = fileData.getShort(startOffset);
+        int finalh = fileData.getShort(startOffset + 2);
 
         int sourcew = finalw;
         int sourceh = finalh;
 
-        PalEntry[] pixels = null;
+        int[] pixels = null;
+        byte[] indices = null;
+        int[] texPalette = null;
         byte[] bytes = null;
 
-        int offsetToGIF = DataUtil.getLEInt(fileData, startOffset + 16);
+        int offsetToGIF = fileData.getInt(startOffset + 16);
 
         if (length == 0) {
-            int dataLen = DataUtil.getLEShort(fileData, startOffset + 0x06) * 16;
+            int dataLen = fileData.getShort(startOffset + 0x06) * 16;
             endIndex = startOffset + offsetToGIF + dataLen;
         }
 
@@ -144,8 +166,8 @@ public class TexDecode
         // This is basically heuristics
         if (gifTag.nloop == 4) {
             // should look for TRXREG really
-            int palw = DataUtil.getLEShort(fileData, curIdx + 0x30);
-            int palh = DataUtil.getLEShort(fileData, curIdx + 0x34);
+            int palw = fileData.getShort(curIdx + 0x30);
+            int palh = fileData.getShort(curIdx + 0x34);
 
             curIdx += gifTag.getLength();
             GIFTag gifTag2 = new GIFTag();
@@ -154,7 +176,7 @@ public class TexDecode
             // 8 bit palletised
             PalEntry[] palette = PalEntry.readPalette(fileData, curIdx + 0x10, palw, palh);
 
-            palette = PalEntry.unswizzlePalette(palette);
+            int[] argbPalette = PalEntry.toArgb(PalEntry.unswizzlePalette(palette));
 
             curIdx += gifTag2.getLength();
 
@@ -175,20 +197,20 @@ public class TexDecode
                 while (!gifTag3.isImage() && curIdx < endIndex - 0x10) {
                     int trxregOffset = findADEntry(fileData, curIdx + 0x10, gifTag3.nloop, TRXREG);
                     if (trxregOffset != 0) {
-                        rrw = DataUtil.getLEShort(fileData, trxregOffset);
-                        rrh = DataUtil.getLEShort(fileData, trxregOffset + 4);
+                        rrw = fileData.getShort(trxregOffset);
+                        rrh = fileData.getShort(trxregOffset + 4);
                     }
                     int trxposOffset = findADEntry(fileData, curIdx + 0x10, gifTag3.nloop, TRXPOS);
                     if (trxposOffset != 0) {
-                        startx = DataUtil.getLEShort(fileData, trxposOffset + 0x04) & 0x07FF;
-                        starty = DataUtil.getLEShort(fileData, trxposOffset + 0x06) & 0x07FF;
+                        startx = fileData.getShort(trxposOffset + 0x04) & 0x07FF;
+                        starty = fileData.getShort(trxposOffset + 0x06) & 0x07FF;
                     }
                     int bitbltOffset = findADEntry(fileData, curIdx + 0x10, gifTag3.nloop, BITBLTBUF);
                     if (bitbltOffset != 0) {
-                        //int sbw = fileData[bitbltOffset + 0x02] & 0x3F;
-                        dbp = fileData[bitbltOffset + 0x04] & 0x3FFF;
-                        dbw = fileData[bitbltOffset + 0x06] & 0x3F;
-                        dpsm = fileData[bitbltOffset + 0x07] & 0x3F;
+                        //int sbw = fileData.getByte(bitbltOffset + 0x02) & 0x3F;
+                        dbp = fileData.getByte(bitbltOffset + 0x04) & 0x3FFF;
+                        dbw = fileData.getByte(bitbltOffset + 0x06) & 0x3F;
+                        dpsm = fileData.getByte(bitbltOffset + 0x07) & 0x3F;
                     }
 
                     // TODO: look at the EOP in the giftag
@@ -202,7 +224,7 @@ public class TexDecode
                 if (palette.length == 16) {
                     // source is PSMT4. Dest can be PSMT4 or PSMCT32
                     if (dpsm == PSMCT32) {
-                        byte[] imageData = fileData;
+                        BinaryReader imageData = fileData;
                         int imageDataIdx = curIdx;
                         // check for multiple IMAGE entries.
                         int nextTagInd = bytesToTransfer + curIdx;
@@ -213,15 +235,10 @@ public class TexDecode
                                 // IMAGE
                                 int bytesToTransfer2 = imageTag2.nloop * 16;
                                 imageDataIdx = 0;
-                                imageData = new byte[bytesToTransfer + bytesToTransfer2];
-                                int j = curIdx;
-                                for (int i = 0; i < bytesToTransfer; ++i) {
-                                    imageData[i] = fileData[j];
-                                }
-                                j = nextTagInd + 0x10;
-                                for (int i = bytesToTransfer; i < bytesToTransfer + bytesToTransfer2; ++i) {
-                                    imageData[i] = fileData[j];
-                                }
+                                byte[] joined = new byte[bytesToTransfer + bytesToTransfer2];
+                                fileData.getBytes(curIdx, joined, 0, bytesToTransfer);
+                                fileData.getBytes(nextTagInd + 0x10, joined, bytesToTransfer, bytesToTransfer2);
+                                imageData = BinaryReader.wrap(joined);
                                 bytesToTransfer += imageTag2.getLength();
                             }
                         }
@@ -248,7 +265,9 @@ public class TexDecode
                 dbw = destWBytes / 0x40;
                 bytes = gsMem.readTexPSMT8(dbp, dbw, 0, 0, destWBytes, finalh);
             }
-            pixels = applyPalette(palette, bytes);
+            pixels = applyPalette(argbPalette, bytes);
+            indices = bytes;
+            texPalette = argbPalette;
             sourcew = destWBytes;
             sourceh = destHBytes;
 
@@ -264,6 +283,8 @@ public class TexDecode
         }
         DecodedTex decodedTex = new DecodedTex();
         decodedTex.pixels = pixels;
+        decodedTex.indices = indices;
+        decodedTex.palette = texPalette;
         decodedTex.pixelsWidth = sourcew;
         decodedTex.pixelsHeight = sourceh;
         decodedTex.targetWidth = finalw;
@@ -274,7 +295,14 @@ public class TexDecode
 
     public static class DecodedTex
     {
-        public PalEntry[] pixels;
+        /** The pixels as packed ARGB values, with the alpha already converted from the ps2 range. */
+        public int[] pixels;
+
+        /** For palettised textures, the palette index of each pixel, laid out like pixels. Otherwise null. */
+        public byte[] indices;
+
+        /** The palette as packed ARGB values, or null if the texture isn't palettised. */
+        public int[] palette;
 
         /** The width of the pixels array. */
         public int pixelsWidth;
@@ -300,20 +328,20 @@ public class TexDecode
         return out;
     }
 
-    private PalEntry[] applyPalette(PalEntry[] palette, byte[] bytes)
+    private int[] applyPalette(int[] palette, byte[] bytes)
     {
-        PalEntry[] pixels = new PalEntry[bytes.length];
+        int[] pixels = new int[bytes.length];
         for (int i=0; i<bytes.length; ++i){
             pixels[i] = palette[bytes[i] & 0xFF];
         }
         return pixels;
     }
 
-    private int findADEntry(byte[] fileData, int dataStartIdx, int nloop, int registerId)
+    private int findADEntry(BinaryReader fileData, int dataStartIdx, int nloop, int registerId)
     {
         int retval = 0;
         for (int i=0; i<nloop; ++i){
-            int reg = DataUtil.getLEInt(fileData, dataStartIdx + i * 0x10 + 0x08);
+            int reg = fileData.getInt(dataStartIdx + i * 0x10 + 0x08);
             if (reg == registerId){
                 retval = dataStartIdx + i*0x10;
                 break;
@@ -322,7 +350,7 @@ public class TexDecode
         return retval;
     }
 
-    private byte[] transferPSMT4(byte[] pixels, byte[] fileData, int startOffset, int startx, int starty,
+    private byte[] transferPSMT4(byte[] pixels, BinaryReader fileData, int startOffset, int startx, int starty,
                                  int rrw, int rrh, int destWBytes, int destHBytes)
     {
         if (pixels == null) {
@@ -335,7 +363,7 @@ public class TexDecode
         for (int y = 0; y < rrh && (y+starty) < destHBytes; ++y) {
             for (int x = 0; x < rrw; ++x) {
                 if (nybble > 1){
-                    byte twoPix = fileData[idx++];
+                    byte twoPix = fileData.getByte(idx++);
                     nybbles[0] = (byte)((twoPix) & 0x0f);
                     nybbles[1] = (byte)((twoPix >> 4) & 0x0f);
                     nybble = 0;
@@ -348,20 +376,15 @@ public class TexDecode
         return pixels;
     }
 
-    private PalEntry[] readPixels32(byte[] fileData, int startOffset, int w, int h)
+    private int[] readPixels32(BinaryReader fileData, int startOffset, int w, int h)
     {
         int numPixels = w * h;
-        PalEntry[] pixels = new PalEntry[numPixels];
+        int[] pixels = new int[numPixels];
         int destIdx = 0;
         int endOffset = startOffset + numPixels * 4;
-        for (int idx = startOffset; idx < endOffset; ) {
-            PalEntry pe = new PalEntry();
-            pe.r = fileData[idx++];
-            pe.g = fileData[idx++];
-            pe.b = fileData[idx++];
-            pe.a = fileData[idx++];
-
-            pixels[destIdx++] = pe;
+        for (int idx = startOffset; idx < endOffset; idx += 4) {
+            pixels[destIdx++] = PalEntry.argb(fileData.getByte(idx), fileData.getByte(idx + 1),
+                    fileData.getByte(idx + 2), fileData.getByte(idx + 3));
         }
 
         return pixels;
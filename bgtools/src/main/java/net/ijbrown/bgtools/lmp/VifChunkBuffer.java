@@ -0,0 +1,265 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Arrays;
+
+/**
+ * One VIF chunk held in flat arrays.
+ * The arrays are reused from one chunk to the next, so only the first numXxx entries of each are valid
+ * and the contents only last until the buffer is cleared.
+ */
+public class VifChunkBuffer
+{
+    public int mscalID = 0;
+    public GIFTag gifTag0 = null;
+    public GIFTag gifTag1 = null;
+
+    /** x, y, z for each vertex. */
+    public short[] vertices = new short[3 * 64];
+    public int numVertices = 0;
+
+    /** x, y, z for each normal. */
+    public byte[] normals = new byte[3 * 64];
+    public int numNormals = 0;
+
+    /** v1, v2, v3 for each vloc. */
+    public int[] vlocs = new int[3 * 64];
+    public int numVlocs = 0;
+
+    /** u, v for each strip entry. */
+    public short[] uvs = new short[2 * 64];
+    public int numUVs = 0;
+
+    public VifDecode.VertexWeight[] vertexWeights = new VifDecode.VertexWeight[16];
+    public int numVertexWeights = 0;
+
+    public int[] extraVlocs = new int[16];
+    public int numExtraVlocs = -1;
+
+    /**
+     * For each vertex, the index in vertexWeights of the weight that applies to it.
+     * -1 if there isn't one, -2 once that has been reported.
+     */
+    private int[] vertexWeightIndex = new int[64];
+    private int numIndexed = 0;
+
+    public void clear()
+    {
+        mscalID = 0;
+        gifTag0 = null;
+        gifTag1 = null;
+        numVertices = 0;
+        numNormals = 0;
+        numVlocs = 0;
+        numUVs = 0;
+        numVertexWeights = 0;
+        numExtraVlocs = -1;
+        numIndexed = 0;
+    }
+
+    public void addVertex(short x, short y, short z)
+    {
+        if (numVertices * 3 == vertices.length) {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+        int i = numVertices++ * 3;
+        vertices[i] = x;
+        vertices[i + 1] = y;
+        vertices[i + 2] = z;
+    }
+
+    public void addNormal(byte x, byte y, byte z)
+    {
+        if (numNormals * 3 == normals.length) {
+            normals = Arrays.copyOf(normals, normals.length * 2);
+        }
+        int i = numNormals++ * 3;
+        normals[i] = x;
+        normals[i + 1] = y;
+        normals[i + 2] = z;
+    }
+
+    public void addVLoc(int v1, int v2, int v3)
+    {
+        if (numVlocs * 3 == vlocs.length) {
+            vlocs = Arrays.copyOf(vlocs, vlocs.length * 2);
+        }
+        int i = numVlocs++ * 3;
+        vlocs[i] = v1;
+        vlocs[i + 1] = v2;
+        vlocs[i + 2] = v3;
+    }
+
+    public void addUV(short u, short v)
+    {
+        if (numUVs * 2 == uvs.length) {
+            uvs = Arrays.copyOf(uvs, uvs.length * 2);
+        }
+        int i = numUVs++ * 2;
+        uvs[i] = u;
+        uvs[i + 1] = v;
+    }
+
+    /**
+     * Adds a vertex weight and returns it for the caller to fill in.
+     * The object is recycled, so it is only valid until the buffer is cleared.
+     */
+    public VifDecode.VertexWeight addVertexWeight()
+    {
+        if (numVertexWeights == vertexWeights.length) {
+            vertexWeights = Arrays.copyOf(vertexWeights, vertexWeights.length * 2);
+        }
+        var vw = vertexWeights[numVertexWeights];
+        if (vw == null) {
+            vw = new VifDecode.VertexWeight();
+            vertexWeights[numVertexWeights] = vw;
+        } else {
+            vw.clear();
+        }
+        ++numVertexWeights;
+        return vw;
+    }
+
+    /**
+     * Makes room for n extra vlocs and returns the array to write them into.
+     */
+    public int[] setExtraVlocs(int n)
+    {
+        if (extraVlocs.length < n) {
+            extraVlocs = new int[n];
+        }
+        numExtraVlocs = n;
+        return extraVlocs;
+    }
+
+    public boolean hasExtraVlocs()
+    {
+        return numExtraVlocs >= 0;
+    }
+
+    /**
+     * Called once everything for the chunk has been read, apart from the uvs. Builds the vertex weight table.
+     */
+    public void close()
+    {
+        int n = numVertices;
+        for (int w = 0; w < numVertexWeights; ++w) {
+            n = Math.max(n, vertexWeights[w].endVertex + 1);
+        }
+        if (vertexWeightIndex.length < n) {
+            vertexWeightIndex = new int[n];
+        }
+        Arrays.fill(vertexWeightIndex, 0, n, -1);
+        // Go backwards so that where weights overlap the first one wins.
+        for (int w = numVertexWeights - 1; w >= 0; --w) {
+            var vw = vertexWeights[w];
+            for (int v = Math.max(0, vw.startVertex); v <= vw.endVertex; ++v) {
+                vertexWeightIndex[v] = w;
+            }
+        }
+        numIndexed = n;
+    }
+
+    /**
+     * Finds which vertex weight object to use for the given vertex.
+     * If there isn't one then null is returned and the first miss for each vertex is logged.
+     */
+    public VifDecode.VertexWeight findVertexWeight(int vertexNum)
+    {
+        int w = vertexNum >= 0 && vertexNum < numIndexed ? vertexWeightIndex[vertexNum] : -2;
+        if (w >= 0) {
+            return vertexWeights[w];
+        }
+        if (w == -1 && numVertexWeights != 0) {
+            System.out.println("Failed to find vertex weight for vertex " + vertexNum);
+            vertexWeightIndex[vertexNum] = -2;
+        }
+        return null;
+    }
+
+    /**
+     * Fills this buffer from a chunk returned by VifDecode.readVerts.
+     */
+    public void load(VifDecode.Chunk chunk)
+    {
+        clear();
+        mscalID = chunk.mscalID;
+        gifTag0 = chunk.gifTag0;
+        gifTag1 = chunk.gifTag1;
+        for (var vertex : chunk.vertices) {
+            addVertex(vertex.x, vertex.y, vertex.z);
+        }
+        for (var normal : chunk.normals) {
+            addNormal(normal.x, normal.y, normal.z);
+        }
+        for (var vloc : chunk.vlocs) {
+            addVLoc(vloc.v1, vloc.v2, vloc.v3);
+        }
+        for (var uv : chunk.uvs) {
+            addUV(uv.u, uv.v);
+        }
+        for (var vw : chunk.vertexWeights) {
+            addVertexWeight().set(vw);
+        }
+        if (chunk.extraVlocs != null) {
+            System.arraycopy(chunk.extraVlocs, 0, setExtraVlocs(chunk.extraVlocs.length), 0, chunk.extraVlocs.length);
+        }
+        close();
+    }
+
+    /**
+     * Copies this buffer into a chunk that stays valid after the buffer is reused.
+     */
+    public VifDecode.Chunk toChunk()
+    {
+        var chunk = new VifDecode.Chunk();
+        chunk.mscalID = mscalID;
+        chunk.gifTag0 = gifTag0;
+        chunk.gifTag1 = gifTag1;
+        for (int i = 0; i < numVertices; ++i) {
+            var vertex = new VifDecode.Vertex();
+            vertex.x = vertices[i * 3];
+            vertex.y = vertices[i * 3 + 1];
+            vertex.z = vertices[i * 3 + 2];
+            chunk.vertices.add(vertex);
+        }
+        for (int i = 0; i < numNormals; ++i) {
+            var normal = new VifDecode.ByteVector();
+            normal.x = normals[i * 3];
+            normal.y = normals[i * 3 + 1];
+            normal.z = normals[i * 3 + 2];
+            chunk.normals.add(normal);
+        }
+        for (int i = 0; i < numVlocs; ++i) {
+            var vloc = new VifDecode.VLoc();
+            vloc.v1 = vlocs[i * 3];
+            vloc.v2 = vlocs[i * 3 + 1];
+            vloc.v3 = vlocs[i * 3 + 2];
+            chunk.vlocs.add(vloc);
+        }
+        for (int i = 0; i < numUVs; ++i) {
+            chunk.uvs.add(new VifDecode.UV(uvs[i * 2], uvs[i * 2 + 1]));
+        }
+        for (int i = 0; i < numVertexWeights; ++i) {
+            chunk.vertexWeights.add(new VifDecode.VertexWeight(vertexWeights[i]));
+        }
+        if (hasExtraVlocs()) {
+            chunk.extraVlocs = Arrays.copyOf(extraVlocs, numExtraVlocs);
+        }
+        return chunk;
+    }
+}
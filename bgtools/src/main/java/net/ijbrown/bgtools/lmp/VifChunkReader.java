@@ -0,0 +1,324 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+/**
+ * Reads a VIF packet stream one chunk at a time.
+ * <pre>
+ *     reader.open(data, start, end);
+ *     while (reader.next()) {
+ *         builder.add(reader.chunk());
+ *     }
+ * </pre>
+ * The chunk returned by chunk() is only valid until the next call to next(). The uvs for a chunk come after
+ * its MSCAL, so a chunk is handed out once the following MSCAL is seen or the stream ends.
+ * The chunk buffers are kept between calls to open, so one reader can decode many meshes without allocating.
+ * UNPACK commands are carried out by a VifUnpacker, so the cycle, mask and mode state of the stream is honoured
+ * and formats that the mesh doesn't use are skipped over rather than ending the stream.
+ */
+public class VifChunkReader
+{
+    private static final int NOP_CMD = 0;
+    private static final int STCYCL_CMD = 1;
+    private static final int ITOP_CMD = 4;
+    private static final int STMOD_CMD = 5;
+    private static final int MSCAL_CMD = 0x14;
+    private static final int STMASK_CMD = 0x20;
+    private static final int STROW_CMD = 0x30;
+    private static final int STCOL_CMD = 0x31;
+
+    private VifTraceListener trace = VifTraceListener.NONE;
+    private final VifUnpacker unpacker = new VifUnpacker();
+    private final int[] rowCol = new int[4];
+
+    private BinaryReader reader;
+    private int offset;
+    private int endOffset;
+
+    // The chunk being read, the last one closed by an MSCAL which is waiting for its uvs,
+    // the one returned by chunk() and a free one.
+    private VifChunkBuffer current = new VifChunkBuffer();
+    private VifChunkBuffer pending = null;
+    private VifChunkBuffer ready = null;
+    private VifChunkBuffer spare = null;
+
+    public VifChunkReader()
+    {
+    }
+
+    public VifChunkReader(BinaryReader reader, int offset, int endOffset)
+    {
+        open(reader, offset, endOffset);
+    }
+
+    public void setTraceListener(VifTraceListener trace)
+    {
+        this.trace = trace == null ? VifTraceListener.NONE : trace;
+    }
+
+    /**
+     * Starts reading the packets between offset and endOffset.
+     */
+    public void open(BinaryReader reader, int offset, int endOffset)
+    {
+        this.reader = reader;
+        this.offset = offset;
+        this.endOffset = endOffset;
+        unpacker.reset();
+        if (pending != null) {
+            recycle(pending);
+            pending = null;
+        }
+        if (ready != null) {
+            recycle(ready);
+            ready = null;
+        }
+        current.clear();
+    }
+
+    /**
+     * Moves to the next chunk.
+     *
+     * @return false if there are no more chunks.
+     */
+    public boolean next()
+    {
+        if (ready != null) {
+            recycle(ready);
+            ready = null;
+        }
+        while (offset < endOffset) {
+            if (readCommand()) {
+                return true;
+            }
+        }
+        if (pending != null) {
+            ready = pending;
+            pending = null;
+            return true;
+        }
+        return false;
+    }
+
+    public VifChunkBuffer chunk()
+    {
+        return ready;
+    }
+
+    private void recycle(VifChunkBuffer chunk)
+    {
+        if (spare == null) {
+            spare = chunk;
+        }
+    }
+
+    // Reads one command. Returns true if that completed a chunk.
+    private boolean readCommand()
+    {
+        int vifCommand = reader.getByte(offset + 3) & 0x7f;
+        int numCommand = reader.getUByte(offset + 2);
+        int immCommand = reader.getShort(offset);
+        switch (vifCommand) {
+            case NOP_CMD:
+                trace.nop(offset);
+                offset += 4;
+                break;
+            case STCYCL_CMD:
+                trace.stcycl(offset, immCommand >> 8, immCommand & 0xFF);
+                unpacker.setCycle((immCommand >> 8) & 0xFF, immCommand & 0xFF);
+                offset += 4;
+                break;
+            case ITOP_CMD:
+                trace.itop(offset, immCommand);
+                offset += 4;
+                break;
+            case STMOD_CMD:
+                trace.stmod(offset, immCommand);
+                unpacker.setMode(immCommand & 3);
+                offset += 4;
+                break;
+            case MSCAL_CMD:
+                trace.mscal(offset, immCommand);
+                if (immCommand != 66 && immCommand != 68 && immCommand != 70){
+                    System.out.println("**** Microcode " + immCommand + " not supported");
+                }
+                offset += 4;
+                current.mscalID = immCommand;
+                current.close();
+                ready = pending;
+                pending = current;
+                current = spare != null ? spare : new VifChunkBuffer();
+                spare = null;
+                current.clear();
+                return ready != null;
+            case STMASK_CMD:
+                int stmask = reader.getInt(offset + 4);
+                trace.stmask(offset, stmask);
+                unpacker.setMask(stmask);
+                offset += 8;
+                break;
+            case STROW_CMD:
+            case STCOL_CMD:
+                for (int c = 0; c < 4; ++c) {
+                    rowCol[c] = reader.getInt(offset + 4 + c * 4);
+                    if (vifCommand == STROW_CMD) {
+                        unpacker.setRow(c, rowCol[c]);
+                    } else {
+                        unpacker.setCol(c, rowCol[c]);
+                    }
+                }
+                if (vifCommand == STROW_CMD) {
+                    trace.strow(offset, rowCol);
+                } else {
+                    trace.stcol(offset, rowCol);
+                }
+                offset += 20;
+                break;
+            default:
+                if ((vifCommand & 0x60) == 0x60) {
+                    readUnpack(vifCommand, numCommand, immCommand);
+                } else {
+                    System.out.println("Unknown command: " + vifCommand);
+                    offset = endOffset;
+                }
+                break;
+        }
+        return false;
+    }
+
+    private void readUnpack(int vifCommand, int numCommand, int immCommand)
+    {
+        boolean mask = ((vifCommand & 0x10) == 0x10);
+        int vn = (vifCommand >> 2) & 3;
+        int vl = vifCommand & 3;
+        int addr = immCommand & 0x1ff;
+        boolean flag = (immCommand & 0x8000) == 0x8000;
+        boolean usn = (immCommand & 0x4000) == 0x4000;
+
+        trace.unpack(offset, vn, vl, addr, numCommand, flag, usn, mask);
+        offset += 4;
+        int dataOffset = offset;
+        int numBytes = unpacker.unpack(reader, dataOffset, vn, vl, numCommand, addr, usn, mask);
+        if (numBytes < 0) {
+            System.out.println("Unknown vnvl combination: vn=" + vn + ", vl=" + vl);
+            offset = endOffset;
+            return;
+        }
+        offset += numBytes;
+
+        // Pick out the parts of the chunk that the microcode would use from what was written.
+        VifUnpacker u = unpacker;
+        int num = u.getNumWritten();
+        switch (vn << 2 | vl) {
+            case 0x5:
+                // v2-16
+                // I don't know why but the UVs come after the MSCAL instruction.
+                if (pending != null) {
+                    for (int i = 0; i < num; ++i) {
+                        pending.addUV((short) u.get(i, 0), (short) u.get(i, 1));
+                    }
+                }
+                break;
+            case 0x9:
+                // v3-16
+                for (int i = 0; i < num; ++i) {
+                    if (!usn) {
+                        current.addVertex((short) u.get(i, 0), (short) u.get(i, 1), (short) u.get(i, 2));
+                    } else {
+                        current.addVLoc(u.get(i, 0) & 0xFFFF, u.get(i, 1) & 0xFFFF, u.get(i, 2) & 0xFFFF);
+                    }
+                }
+                break;
+            case 0xA:
+                // v3-8
+                for (int i = 0; i < num; ++i) {
+                    current.addNormal((byte) u.get(i, 0), (byte) u.get(i, 1), (byte) u.get(i, 2));
+                }
+                break;
+            case 0xC:
+                // v4-32
+                if (1 == num) {
+                    current.gifTag0 = new GIFTag();
+                    current.gifTag0.parse(reader, dataOffset);
+                } else if (2 == num) {
+                    current.gifTag0 = new GIFTag();
+                    current.gifTag0.parse(reader, dataOffset);
+                    current.gifTag1 = new GIFTag();
+                    current.gifTag1.parse(reader, dataOffset + 16);
+                } else {
+                    System.out.println("unknown numCommand="+numCommand);
+                }
+                break;
+            case 0xD:
+                // v4-16
+                if (usn) {
+                    int[] extraVlocs = current.setExtraVlocs(num * 4);
+                    for (int i = 0; i < num; ++i) {
+                        for (int c = 0; c < 4; ++c) {
+                            extraVlocs[i * 4 + c] = u.get(i, c) & 0xFFFF;
+                        }
+                    }
+                }
+                break;
+            case 0xE:
+                // v4-8
+                readVertexWeights(num);
+                break;
+            default:
+                // Nothing that the mesh needs. The data is still in the unpacker's memory.
+                break;
+        }
+    }
+
+    private void readVertexWeights(int num)
+    {
+        VifUnpacker u = unpacker;
+        int curVertex=0;
+        for (int i = 0; i < num; ++i) {
+            VifDecode.VertexWeight vw = current.addVertexWeight();
+            vw.startVertex = curVertex;
+            vw.bone1 = (u.get(i, 0) & 0xFF) / 4;
+            vw.boneWeight1 = u.get(i, 1) & 0xFF;
+            vw.bone2 = u.get(i, 2) & 0xFF;
+            if (vw.bone2 == 0xFF) {
+                // Single bone
+                vw.boneWeight2 = 0;
+                int count = (byte) u.get(i, 3);
+                curVertex += count;
+            } else {
+                vw.bone2 /= 4;
+                vw.boneWeight2 = u.get(i, 3) & 0xFF;
+                ++curVertex;
+
+                if (vw.boneWeight1 + vw.boneWeight2 < 255)
+                {
+                    ++i;
+                    vw.bone3 = (u.get(i, 0) & 0xFF) / 4;
+                    vw.boneWeight3 = u.get(i, 1) & 0xFF;
+                    vw.bone4 = u.get(i, 2) & 0xFF;
+                    int bw4 = u.get(i, 3) & 0xFF;
+                    if (vw.bone4 != 255)
+                    {
+                        vw.bone4 /= 4;
+                        vw.boneWeight4 = bw4;
+                    }
+                }
+
+            }
+            vw.endVertex = curVertex - 1;
+        }
+    }
+}
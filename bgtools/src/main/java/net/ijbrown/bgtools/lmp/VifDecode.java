@@ -17,6 +17,7 @@ package net.ijbrown.bgtools.lmp;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -32,18 +33,37 @@ public class VifDecode
         String inDir = config.getDataDir();
         String outDir = inDir+"../DATA_extracted/";
 
+        VifTextTrace trace = new VifTextTrace(System.out);
         VifDecode obj = new VifDecode();
+        obj.setTraceListener(trace);
         obj.extract("loading_us", new File(outDir + "LOADING_LMP"), 264, 128);
         //obj.extract("superman", new File(outDir + "SUPERMAN_LMP"), 264, 128);
+        trace.flush();
+    }
+
+    private VifTraceListener trace = VifTraceListener.NONE;
+    private final VifChunkReader chunkReader = new VifChunkReader();
+
+    /**
+     * Sets the listener that readVerts and decodeMesh report each VIF command to. By default the commands are not traced.
+     */
+    public void setTraceListener(VifTraceListener trace)
+    {
+        this.trace = trace == null ? VifTraceListener.NONE : trace;
     }
 
     public List<Mesh> decode(byte[] data, int startOffset)
     {
-        int sig = DataUtil.getLEInt(data, startOffset);
-        int numMeshes = data[startOffset + 0x12] & 0xFF;
+        return decode(BinaryReader.wrap(data), startOffset);
+    }
+
+    public List<Mesh> decode(BinaryReader data, int startOffset)
+    {
+        int sig = data.getInt(startOffset);
+        int numMeshes = data.getUByte(startOffset + 0x12);
         int meshBlockOffset = 0x28;
         if (sig == 0x30332E31) {
-            numMeshes = data[startOffset + 0x4A] & 0xFF;
+            numMeshes = data.getUByte(startOffset + 0x4A);
             meshBlockOffset = 0x68;
         }
 
@@ -55,208 +75,50 @@ public class VifDecode
         List<Mesh> meshes = new ArrayList<>();
 
         for (int meshNum = 0; meshNum < numMeshes; ++meshNum) {
-            int offsetVerts = DataUtil.getLEInt(data, startOffset + meshBlockOffset + meshNum * 4);
-            int offsetEndVerts = DataUtil.getLEInt(data, startOffset + meshBlockOffset + 4 + meshNum * 4);
-            var chunks = readVerts(data, startOffset + offsetVerts, startOffset + offsetEndVerts);
-            var mesh = ChunksToMesh(chunks);
-            meshes.add(mesh);
+            int offsetVerts = data.getInt(startOffset + meshBlockOffset + meshNum * 4);
+            int offsetEndVerts = data.getInt(startOffset + meshBlockOffset + 4 + meshNum * 4);
+            meshes.add(decodeMesh(data, startOffset + offsetVerts, startOffset + offsetEndVerts));
         }
 
         return meshes;
     }
 
-    // Finds which vertex weight object to use for the given vertex.
-    private static VertexWeight FindVertexWeight(List<VertexWeight> weights, int vertexNum)
+    public Mesh decodeMesh(byte[] data, int offset, int endOffset)
     {
-        for (var weight : weights) {
-            if (vertexNum >= weight.startVertex && vertexNum <= weight.endVertex) {
-                return weight;
-            }
-        }
-        if (weights.size() != 0) {
-            System.out.println("Failed to find vertex weight");
+        return decodeMesh(BinaryReader.wrap(data), offset, endOffset);
+    }
+
+    /**
+     * Decodes the VIF packets between offset and endOffset straight into a mesh, one chunk at a time.
+     */
+    public Mesh decodeMesh(BinaryReader reader, int offset, int endOffset)
+    {
+        chunkReader.setTraceListener(trace);
+        chunkReader.open(reader, offset, endOffset);
+        MeshBuilder builder = new MeshBuilder();
+        while (chunkReader.next()) {
+            builder.add(chunkReader.chunk());
         }
-        return new VertexWeight();
+        return builder.build();
     }
 
     public static Mesh ChunksToMesh(List<Chunk> chunks)
     {
-        Mesh mesh = new Mesh();
         int numVertices = 0;
+        int numIndices = 0;
         for (Chunk chunk : chunks) {
-            numVertices += chunk.vertices.size();
-        }
-
-        for(var i=0; i<numVertices; ++i){
-            mesh.uvCoords.add(null);
+            if (null != chunk.gifTag0) {
+                numVertices += chunk.vertices.size();
+                numIndices += Math.max(0, chunk.gifTag0.nloop - 2) * 3;
+            }
         }
-
-        int vstart = 0;
+        MeshBuilder builder = new MeshBuilder(numVertices, numIndices);
+        VifChunkBuffer buffer = new VifChunkBuffer();
         for (var chunk : chunks) {
-            if (null == chunk.gifTag0)
-            {
-                // Hack to deal with JLH models. TODO: Fix this properly
-                continue;
-            }
-            if ((chunk.gifTag0.prim & 0x07) != 4) {
-                throw new RuntimeException("Can only deal with tri strips");
-            }
-
-            for (var vertex : chunk.vertices) {
-                var point = new Vec3F(vertex.x / 16.0f, vertex.y / 16.0f, vertex.z / 16.0f);
-                mesh.vertices.add(point);
-            }
-            for (var normal : chunk.normals) {
-                mesh.normals.add(new Vec3F(normal.x / 127.0f, normal.y / 127.0f, normal.z / 127.0f));
-            }
-
-            for (VertexWeight vw : chunk.vertexWeights) {
-                VertexWeight vwAdjusted = new VertexWeight(vw);
-                vwAdjusted.startVertex += vstart;
-                if (vwAdjusted.endVertex >= chunk.vertices.size()) {
-                    vwAdjusted.endVertex = chunk.vertices.size() - 1;
-                }
-                vwAdjusted.endVertex += vstart;
-                if (vw.startVertex <= (chunk.vertices.size() - 1)) {
-                    mesh.vertexWeights.add(vwAdjusted);
-                }
-            }
-
-            int[] vstrip = new int[chunk.gifTag0.nloop];
-            int regsPerVertex = chunk.gifTag0.nreg;
-            int numVlocs = chunk.vlocs.size();
-            int numVertsInChunk = chunk.vertices.size();
-            for (int vlocIndx = 2; vlocIndx < numVlocs; ++vlocIndx) {
-                int v = vlocIndx - 2;
-                int stripIdx2 = (chunk.vlocs.get(vlocIndx).v2 & 0x1FF) / regsPerVertex;
-                int stripIdx3 = (chunk.vlocs.get(vlocIndx).v3 & 0x1FF) / regsPerVertex;
-                if (stripIdx3 < vstrip.length && stripIdx2 < vstrip.length) {
-                    vstrip[stripIdx3] = vstrip[stripIdx2] & 0x1FF;
-
-                    boolean skip2 = (chunk.vlocs.get(vlocIndx).v3 & 0x8000) == 0x8000;
-                    if (skip2) {
-                        vstrip[stripIdx3] |= 0x8000;
-                    }
-                }
-                int stripIdx = (chunk.vlocs.get(vlocIndx).v1 & 0x1FF) / regsPerVertex;
-                boolean skip = (chunk.vlocs.get(vlocIndx).v1 & 0x8000) == 0x8000;
-
-                if (v < numVertsInChunk && stripIdx < vstrip.length) {
-                    vstrip[stripIdx] = skip ? (v | 0x8000) : v;
-                }
-            }
-
-            int numExtraVlocs = chunk.extraVlocs[0];
-            for (int extraVloc = 0; extraVloc < numExtraVlocs; ++extraVloc) {
-                int idx = extraVloc * 4 + 4;
-                int stripIndxSrc = (chunk.extraVlocs[idx] & 0x1FF) / regsPerVertex;
-                int stripIndxDest = (chunk.extraVlocs[idx + 1] & 0x1FF) / regsPerVertex;
-                vstrip[stripIndxDest] = (chunk.extraVlocs[idx + 1] & 0x8000) | (vstrip[stripIndxSrc] & 0x1FF);
-
-                stripIndxSrc = (chunk.extraVlocs[idx + 2] & 0x1FF) / regsPerVertex;
-                stripIndxDest = (chunk.extraVlocs[idx + 3] & 0x1FF) / regsPerVertex;
-                vstrip[stripIndxDest] = (chunk.extraVlocs[idx + 3] & 0x8000) | (vstrip[stripIndxSrc] & 0x1FF);
-            }
-
-            int triIdx = 0;
-            for (int i = 2; i < vstrip.length; ++i) {
-                int vidx1 = vstart + (vstrip[i - 2] & 0xFF);
-                int vidx2 = vstart + (vstrip[i - 1] & 0xFF);
-                int vidx3 = vstart + (vstrip[i] & 0xFF);
-
-                int uv1 = i - 2;
-                int uv2 = i - 1;
-                int uv3 = i;
-
-                // Flip the faces (indices 1 and 2) to keep the winding rule consistent.
-                if ((triIdx & 1) == 1) {
-                    int temp = uv1;
-                    uv1 = uv2;
-                    uv2 = temp;
-
-                    temp = vidx1;
-                    vidx1 = vidx2;
-                    vidx2 = temp;
-                }
-
-                if ((vstrip[i] & 0x8000) == 0) {
-
-                    var p1 = chunk.uvs.get(uv1);
-                    var p2 = chunk.uvs.get(uv2);
-                    var p3 = chunk.uvs.get(uv3);
-
-                    if (mesh.uvCoords.get(vidx1) != null && !mesh.uvCoords.get(vidx1).equals(p1))
-                    {
-                        // There is more than 1 uv assignment to this vertex, so we need to duplicate it.
-                        int originalVIdx = vidx1;
-                        vidx1 = vstart + numVertsInChunk;
-                        numVertsInChunk++;
-                        mesh.vertices.add(mesh.vertices.get(originalVIdx));
-                        mesh.normals.add(mesh.normals.get(originalVIdx));
-                        mesh.uvCoords.add(null);
-
-                        var weight = FindVertexWeight(chunk.vertexWeights, originalVIdx - vstart);
-                        if (weight.boneWeight1 > 0)
-                        {
-                            var vw = new VertexWeight(weight);
-                            vw.startVertex = vidx1;
-                            vw.endVertex = vidx1;
-                            mesh.vertexWeights.add(vw);
-                        }
-
-                    }
-                    if (mesh.uvCoords.get(vidx2) != null && !mesh.uvCoords.get(vidx2).equals(p2))
-                    {
-                        // There is more than 1 uv assignment to this vertex, so we need to duplicate it.
-                        int originalVIdx = vidx2;
-                        vidx2 = vstart + numVertsInChunk;
-                        numVertsInChunk++;
-                        mesh.vertices.add(mesh.vertices.get(originalVIdx));
-                        mesh.normals.add(mesh.normals.get(originalVIdx));
-                        mesh.uvCoords.add(null);
-
-                        var weight = FindVertexWeight(chunk.vertexWeights, originalVIdx - vstart);
-                        if (weight.boneWeight1 > 0)
-                        {
-                            var vw = new VertexWeight(weight);
-                            vw.startVertex = vidx2;
-                            vw.endVertex = vidx2;
-                            mesh.vertexWeights.add(vw);
-                        }
-                    }
-                    if (mesh.uvCoords.get(vidx3) != null && !mesh.uvCoords.get(vidx3).equals(p3))
-                    {
-                        // There is more than 1 uv assignment to this vertex, so we need to duplicate it.
-                        int originalVIdx = vidx3;
-                        vidx3 = vstart + numVertsInChunk;
-                        numVertsInChunk++;
-                        mesh.vertices.add(mesh.vertices.get(originalVIdx));
-                        mesh.normals.add(mesh.normals.get(originalVIdx));
-                        mesh.uvCoords.add(null);
-
-                        var weight = FindVertexWeight(chunk.vertexWeights, originalVIdx - vstart);
-                        if (weight.boneWeight1 > 0)
-                        {
-                            var vw = new VertexWeight(weight);
-                            vw.startVertex = vidx3;
-                            vw.endVertex = vidx3;
-                            mesh.vertexWeights.add(vw);
-                        }
-                    }
-
-                    mesh.uvCoords.set(vidx1, p1);
-                    mesh.uvCoords.set(vidx2, p2);
-                    mesh.uvCoords.set(vidx3, p3);
-
-                    mesh.triangleIndices.add(vidx1);
-                    mesh.triangleIndices.add(vidx2);
-                    mesh.triangleIndices.add(vidx3);
-                }
-                ++triIdx;
-            }
-            vstart += numVertsInChunk;
+            buffer.load(chunk);
+            builder.add(buffer);
         }
-        return mesh;
+        return builder.build();
     }
 
     public void extract(String name, File outDir, int texw, int texh) throws IOException
@@ -289,17 +151,6 @@ public class VifDecode
         public short z;
     }
 
-    public static class Vec3F
-    {
-        public Vec3F(float x, float y, float z){
-            this.x=x; this.y=y; this.z=z;
-        }
-
-        public float x;
-        public float y;
-        public float z;
-    }
-
     public static class ByteVector
     {
         public byte x;
@@ -346,6 +197,14 @@ public class VifDecode
         public int boneWeight4;
 
         public VertexWeight(VertexWeight weight) {
+            set(weight);
+        }
+
+        public VertexWeight() {
+
+        }
+
+        public void set(VertexWeight weight) {
             startVertex = weight.startVertex;
             endVertex = weight.endVertex;
             bone1 = weight.bone1;
@@ -358,8 +217,17 @@ public class VifDecode
             boneWeight4 = weight.boneWeight4;
         }
 
-        public VertexWeight() {
-
+        public void clear() {
+            startVertex = 0;
+            endVertex = 0;
+            bone1 = 0;
+            bone2 = 0;
+            bone3 = 0;
+            bone4 = 0;
+            boneWeight1 = 0;
+            boneWeight2 = 0;
+            boneWeight3 = 0;
+            boneWeight4 = 0;
         }
     }
 
@@ -377,225 +245,173 @@ public class VifDecode
         public int[] extraVlocs = null;
     }
 
+    /**
+     * A decoded mesh held as flat arrays, ready to be handed to OpenGL or written to a glTF buffer.
+     * Vertex i has its position at positions[i*3], its uv at uvs[i*2] and its bones at joints[i*4].
+     */
     public static class Mesh
     {
-        public List<Vec3F> vertices = new ArrayList<>();
-        public List<Vec3F> normals = new ArrayList<>();
-        public List<Integer> triangleIndices = new ArrayList<>();
-        public List<UV> uvCoords = new ArrayList<>();
+        public int numVertices;
+        public int numIndices;
+
+        /** x, y, z for each vertex. */
+        public float[] positions;
+        /** x, y, z for each vertex, roughly unit length. */
+        public float[] normals;
+        /** u, v for each vertex in 1/16ths of a texel, as stored in the file. */
+        public float[] uvs;
+        /** Three vertex indices per triangle. */
+        public int[] indices;
+        /** Up to 4 bone numbers for each vertex. */
+        public byte[] joints;
+        /** The weights of the bones in joints, out of 255. */
+        public byte[] weights;
+
+        /** The runs of vertices that share a set of bone weights. */
         public List<VertexWeight> vertexWeights = new ArrayList<>();
-    }
 
-    private static final int NOP_CMD = 0;
-    private static final int STCYCL_CMD = 1;
-    private static final int ITOP_CMD = 4;
-    private static final int STMOD_CMD = 5;
-    private static final int MSCAL_CMD = 0x14;
-    private static final int STMASK_CMD = 0x20;
+        public Mesh()
+        {
+            this(0, 0);
+        }
+
+        public Mesh(int vertexCapacity, int indexCapacity)
+        {
+            positions = new float[vertexCapacity * 3];
+            normals = new float[vertexCapacity * 3];
+            uvs = new float[vertexCapacity * 2];
+            joints = new byte[vertexCapacity * 4];
+            weights = new byte[vertexCapacity * 4];
+            indices = new int[indexCapacity];
+        }
+
+        /**
+         * Adds a vertex with no normal or weights and an unassigned uv.
+         *
+         * @return The index of the new vertex.
+         */
+        int addVertex(float x, float y, float z)
+        {
+            if (numVertices * 3 == positions.length) {
+                growVertices();
+            }
+            int v = numVertices++;
+            positions[v * 3] = x;
+            positions[v * 3 + 1] = y;
+            positions[v * 3 + 2] = z;
+            uvs[v * 2] = Float.NaN;
+            uvs[v * 2 + 1] = Float.NaN;
+            return v;
+        }
+
+        /**
+         * Adds a copy of vertex v, with the same position, normal and weights but an unassigned uv.
+         *
+         * @return The index of the new vertex.
+         */
+        int duplicateVertex(int v)
+        {
+            int copy = addVertex(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2]);
+            System.arraycopy(normals, v * 3, normals, copy * 3, 3);
+            System.arraycopy(joints, v * 4, joints, copy * 4, 4);
+            System.arraycopy(weights, v * 4, weights, copy * 4, 4);
+            return copy;
+        }
+
+        void setNormal(int v, float x, float y, float z)
+        {
+            normals[v * 3] = x;
+            normals[v * 3 + 1] = y;
+            normals[v * 3 + 2] = z;
+        }
+
+        void setUV(int v, float u, float uvV)
+        {
+            uvs[v * 2] = u;
+            uvs[v * 2 + 1] = uvV;
+        }
+
+        /**
+         * @return true if vertex v has no uv yet or already has this one.
+         */
+        boolean uvMatches(int v, float u, float uvV)
+        {
+            float cur = uvs[v * 2];
+            return Float.isNaN(cur) || (cur == u && uvs[v * 2 + 1] == uvV);
+        }
+
+        void setWeights(int v, VertexWeight vw)
+        {
+            int i = v * 4;
+            joints[i] = (byte) vw.bone1;
+            joints[i + 1] = (byte) vw.bone2;
+            joints[i + 2] = (byte) vw.bone3;
+            joints[i + 3] = (byte) vw.bone4;
+            weights[i] = (byte) vw.boneWeight1;
+            weights[i + 1] = (byte) vw.boneWeight2;
+            weights[i + 2] = (byte) vw.boneWeight3;
+            weights[i + 3] = (byte) vw.boneWeight4;
+        }
+
+        void addTriangle(int v1, int v2, int v3)
+        {
+            if (numIndices + 3 > indices.length) {
+                indices = Arrays.copyOf(indices, Math.max(16, indices.length * 2));
+            }
+            indices[numIndices++] = v1;
+            indices[numIndices++] = v2;
+            indices[numIndices++] = v3;
+        }
+
+        /**
+         * Shrinks the arrays to fit and gives any vertex that was never used by a triangle a uv of 0, 0.
+         */
+        void trim()
+        {
+            int numFloats = numVertices * 3;
+            if (positions.length != numFloats) {
+                positions = Arrays.copyOf(positions, numFloats);
+                normals = Arrays.copyOf(normals, numFloats);
+                uvs = Arrays.copyOf(uvs, numVertices * 2);
+                joints = Arrays.copyOf(joints, numVertices * 4);
+                weights = Arrays.copyOf(weights, numVertices * 4);
+            }
+            if (indices.length != numIndices) {
+                indices = Arrays.copyOf(indices, numIndices);
+            }
+            for (int i = 0; i < uvs.length; ++i) {
+                if (Float.isNaN(uvs[i])) {
+                    uvs[i] = 0;
+                }
+            }
+        }
+
+        private void growVertices()
+        {
+            int capacity = Math.max(16, numVertices * 2);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            normals = Arrays.copyOf(normals, capacity * 3);
+            uvs = Arrays.copyOf(uvs, capacity * 2);
+            joints = Arrays.copyOf(joints, capacity * 4);
+            weights = Arrays.copyOf(weights, capacity * 4);
+        }
+    }
 
     public List<Chunk> readVerts(byte[] fileData, int offset, int endOffset)
+    {
+        return readVerts(BinaryReader.wrap(fileData), offset, endOffset);
+    }
+
+    /**
+     * Reads all the chunks between offset and endOffset. decodeMesh is cheaper if all you want is the mesh.
+     */
+    public List<Chunk> readVerts(BinaryReader reader, int offset, int endOffset)
     {
         List<Chunk> chunks = new ArrayList<>();
-        Chunk currentChunk = new Chunk();
-        Chunk previousChunk = null;
-        while (offset < endOffset) {
-            int vifCommand = fileData[offset + 3] & 0x7f;
-            int numCommand = fileData[offset + 2] & 0xff;
-            int immCommand = DataUtil.getLEShort(fileData, offset);
-            switch (vifCommand) {
-                case NOP_CMD:
-                    System.out.print(HexUtil.formatHex(offset) + " ");
-                    System.out.println("NOP");
-                    offset += 4;
-                    break;
-                case STCYCL_CMD:
-                    System.out.print(HexUtil.formatHex(offset) + " ");
-                    System.out.println("STCYCL: WL: " + (immCommand >> 8) + " CL: " + (immCommand & 0xFF));
-                    offset += 4;
-                    break;
-                case ITOP_CMD:
-                    System.out.print(HexUtil.formatHex(offset) + " ");
-                    System.out.println("ITOP: " + immCommand);
-                    offset += 4;
-                    break;
-                case STMOD_CMD:
-                    System.out.print(HexUtil.formatHex(offset) + " ");
-                    System.out.println("STMOD: " + immCommand);
-                    offset += 4;
-                    break;
-                case MSCAL_CMD:
-                    System.out.print(HexUtil.formatHex(offset) + " ");
-                    System.out.println("MSCAL: " + immCommand);
-                    if (immCommand != 66 && immCommand != 68 && immCommand != 70){
-                        System.out.println("**** Microcode " + immCommand + " not supported");
-                    }
-                    currentChunk.mscalID = immCommand;
-                    chunks.add(currentChunk);
-                    previousChunk = currentChunk;
-                    currentChunk = new Chunk();
-
-                    offset += 4;
-                    break;
-                case STMASK_CMD:
-                    System.out.print(HexUtil.formatHex(offset) + " ");
-                    offset += 4;
-                    int stmask = DataUtil.getLEInt(fileData, offset);
-                    System.out.println("STMASK: " + stmask);
-                    offset += 4;
-                    break;
-                default:
-                    if ((vifCommand & 0x60) == 0x60) {
-                        // unpack command
-                        boolean mask = ((vifCommand & 0x10) == 0x10);
-                        int vn = (vifCommand >> 2) & 3;
-                        int vl = vifCommand & 3;
-                        int addr = immCommand & 0x1ff;
-                        boolean flag = (immCommand & 0x8000) == 0x8000;
-                        boolean usn = (immCommand & 0x4000) == 0x4000;
-
-                        System.out.print(HexUtil.formatHex(offset) + " ");
-                        System.out.print("UNPACK: vn: " + vn + ", vl: " + vl + ", Addr: " + addr);
-                        System.out.print(", num: " + numCommand);
-                        if (flag) {
-                            System.out.print(", Flag");
-                        }
-                        if (usn) {
-                            System.out.print(", Unsigned");
-                        }
-                        if (mask) {
-                            System.out.print(", Mask");
-                        }
-                        System.out.println();
-                        offset += 4;
-                        if (vn == 1 && vl == 1) {
-                            // v2-16
-                            // I don't know why but the UVs come after the MSCAL instruction.
-                            if (previousChunk != null) {
-                                for (int uvnum = 0; uvnum < numCommand; ++uvnum) {
-                                    short u = DataUtil.getLEShort(fileData, offset);
-                                    short v = DataUtil.getLEShort(fileData, offset + 2);
-                                    previousChunk.uvs.add(new UV(u, v));
-                                    offset += 4;
-                                }
-                            } else {
-                                int numBytes = numCommand * 4;
-                                offset += numBytes;
-                            }
-                        } else if (vn == 2 && vl == 1) {
-                            // v3-16
-                            // each vertex is 128 bits, so num is the number of vertices
-                            for (int vnum = 0; vnum < numCommand; ++vnum) {
-                                if (!usn) {
-                                    short x = DataUtil.getLEShort(fileData, offset);
-                                    short y = DataUtil.getLEShort(fileData, offset + 2);
-                                    short z = DataUtil.getLEShort(fileData, offset + 4);
-                                    offset += 6;
-
-                                    Vertex vertex = new Vertex();
-                                    vertex.x = x;
-                                    vertex.y = y;
-                                    vertex.z = z;
-                                    currentChunk.vertices.add(vertex);
-                                } else {
-                                    int x = DataUtil.getLEUShort(fileData, offset);
-                                    int y = DataUtil.getLEUShort(fileData, offset + 2);
-                                    int z = DataUtil.getLEUShort(fileData, offset + 4);
-                                    offset += 6;
-
-                                    VLoc vloc = new VLoc();
-                                    vloc.v1 = x;
-                                    vloc.v2 = y;
-                                    vloc.v3 = z;
-                                    currentChunk.vlocs.add(vloc);
-                                }
-                            }
-                            offset = (offset + 3) & ~3;
-                        } else if (vn == 2 && vl == 2) {
-                            // v3-8
-                            int idx = offset;
-                            for (int vnum = 0; vnum < numCommand; ++vnum) {
-                                ByteVector vec = new ByteVector();
-                                vec.x = fileData[idx++];
-                                vec.y = fileData[idx++];
-                                vec.z = fileData[idx++];
-                                currentChunk.normals.add(vec);
-                            }
-                            int numBytes = ((numCommand * 3) + 3) & ~3;
-                            offset += numBytes;
-                        } else if (vn == 3 && vl == 0) {
-                            // v4-32
-                            if (1 == numCommand) {
-                                currentChunk.gifTag0 = new GIFTag();
-                                currentChunk.gifTag0.parse(fileData, offset);
-                            } else if (2 == numCommand) {
-                                currentChunk.gifTag0 = new GIFTag();
-                                currentChunk.gifTag0.parse(fileData, offset);
-                                currentChunk.gifTag1 = new GIFTag();
-                                currentChunk.gifTag1.parse(fileData, offset + 16);
-                            } else {
-                                System.out.println("unknown numCommand="+numCommand);
-                            }
-                            int numBytes = numCommand * 16;
-                            offset += numBytes;
-                        } else if (vn == 3 && vl == 1) {
-                            // v4-16
-                            int numBytes = numCommand * 8;
-                            int numShorts = numCommand * 4;
-                            if (usn) {
-                                currentChunk.extraVlocs = new int[numShorts];
-                                for (int i = 0; i < numShorts; ++i) {
-                                    currentChunk.extraVlocs[i] = DataUtil.getLEUShort(fileData, offset + i * 2);
-                                }
-                            }
-                            offset += numBytes;
-                        } else if (vn == 3 && vl == 2) {
-                            // v4-8
-                            int curVertex=0;
-                            for (int i = 0; i < numCommand; ++i) {
-                                VertexWeight vw = new VertexWeight();
-                                vw.startVertex = curVertex;
-                                vw.bone1 = (fileData[offset++] &0xFF )/ 4;
-                                vw.boneWeight1 = fileData[offset++] & 0xFF;
-                                vw.bone2 = fileData[offset++] & 0xFF;
-                                if (vw.bone2 == 0xFF) {
-                                    // Single bone
-                                    vw.boneWeight2 = 0;
-                                    int count = fileData[offset++];
-                                    curVertex += count;
-                                } else {
-                                    vw.bone2 /= 4;
-                                    vw.boneWeight2 = fileData[offset++] & 0xFF;
-                                    ++curVertex;
-
-                                    if (vw.boneWeight1 + vw.boneWeight2 < 255)
-                                    {
-                                        ++i;
-                                        vw.bone3 = (fileData[offset++] &0xFF) / 4;
-                                        vw.boneWeight3 = fileData[offset++] & 0xFF;
-                                        vw.bone4 = fileData[offset++] & 0xFF;
-                                        int bw4 = fileData[offset++] & 0xFF;
-                                        if (vw.bone4 != 255)
-                                        {
-                                            vw.bone4 /= 4;
-                                            vw.boneWeight4 = bw4;
-                                        }
-                                    }
-
-                                }
-                                vw.endVertex = curVertex - 1;
-                                currentChunk.vertexWeights.add(vw);
-                            }
-
-                        } else {
-                            System.out.println("Unknown vnvl combination: vn=" + vn + ", vl=" + vl);
-                            offset = endOffset;
-                        }
-                    } else {
-                        System.out.println("Unknown command: " + vifCommand);
-                        offset = endOffset;
-                    }
-                    break;
-            }
+        chunkReader.setTraceListener(trace);
+        chunkReader.open(reader, offset, endOffset);
+        while (chunkReader.next()) {
+            chunks.add(chunkReader.chunk().toChunk());
         }
         return chunks;
     }
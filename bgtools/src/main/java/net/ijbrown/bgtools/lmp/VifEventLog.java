@@ -0,0 +1,121 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Records the VIF commands as fixed size binary events, for tools to analyse after decoding.
+ * Each event is three little endian ints: the offset of the command, the 32 bit VIF code and an extra value,
+ * which is the mask for STMASK and 0 otherwise.
+ */
+public class VifEventLog implements VifTraceListener
+{
+    public static final int EVENT_SIZE = 12;
+
+    private int[] events = new int[3 * 256];
+    private int numEvents = 0;
+
+    @Override
+    public void nop(int offset)
+    {
+        add(offset, 0x00, 0, 0, 0);
+    }
+
+    @Override
+    public void stcycl(int offset, int wl, int cl)
+    {
+        add(offset, 0x01, 0, (wl << 8) | (cl & 0xFF), 0);
+    }
+
+    @Override
+    public void itop(int offset, int imm)
+    {
+        add(offset, 0x04, 0, imm, 0);
+    }
+
+    @Override
+    public void stmod(int offset, int mode)
+    {
+        add(offset, 0x05, 0, mode, 0);
+    }
+
+    @Override
+    public void mscal(int offset, int address)
+    {
+        add(offset, 0x14, 0, address, 0);
+    }
+
+    @Override
+    public void stmask(int offset, int mask)
+    {
+        add(offset, 0x20, 0, 0, mask);
+    }
+
+    @Override
+    public void strow(int offset, int[] values)
+    {
+        add(offset, 0x30, 0, 0, 0);
+    }
+
+    @Override
+    public void stcol(int offset, int[] values)
+    {
+        add(offset, 0x31, 0, 0, 0);
+    }
+
+    @Override
+    public void unpack(int offset, int vn, int vl, int addr, int num, boolean flag, boolean usn, boolean mask)
+    {
+        int cmd = 0x60 | (mask ? 0x10 : 0) | (vn << 2) | vl;
+        int imm = addr | (usn ? 0x4000 : 0) | (flag ? 0x8000 : 0);
+        add(offset, cmd, num, imm, 0);
+    }
+
+    public int size()
+    {
+        return numEvents;
+    }
+
+    public int getOffset(int event)
+    {
+        return events[event * 3];
+    }
+
+    /** The VIF code, laid out as cmd << 24 | num << 16 | imm. */
+    public int getCode(int event)
+    {
+        return events[event * 3 + 1];
+    }
+
+    public int getExtra(int event)
+    {
+        return events[event * 3 + 2];
+    }
+
+    public void clear()
+    {
+        numEvents = 0;
+    }
+
+    public void writeTo(OutputStream os) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(numEvents * EVENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asIntBuffer().put(events, 0, numEvents * 3);
+        os.write(buf.array());
+    }
+
+    private void add(int offset, int cmd, int num, int imm, int extra)
+    {
+        int i = numEvents * 3;
+        if (i + 3 > events.length) {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+        events[i] = offset;
+        events[i + 1] = (cmd << 24) | ((num & 0xFF) << 16) | (imm & 0xFFFF);
+        events[i + 2] = extra;
+        ++numEvents;
+    }
+}
@@ -0,0 +1,124 @@
+package net.ijbrown.bgtools.lmp;
+
+import java.io.PrintStream;
+
+/**
+ * Writes a line of text per VIF command.
+ * The text is collected in a buffer and written out in blocks, so call flush() when decoding is finished.
+ */
+public class VifTextTrace implements VifTraceListener
+{
+    private static final int FLUSH_SIZE = 0x10000;
+
+    private final PrintStream out;
+    private final StringBuilder sb = new StringBuilder(FLUSH_SIZE + 256);
+
+    public VifTextTrace(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void nop(int offset)
+    {
+        start(offset).append("NOP");
+        end();
+    }
+
+    @Override
+    public void stcycl(int offset, int wl, int cl)
+    {
+        start(offset).append("STCYCL: WL: ").append(wl).append(" CL: ").append(cl);
+        end();
+    }
+
+    @Override
+    public void itop(int offset, int imm)
+    {
+        start(offset).append("ITOP: ").append(imm);
+        end();
+    }
+
+    @Override
+    public void stmod(int offset, int mode)
+    {
+        start(offset).append("STMOD: ").append(mode);
+        end();
+    }
+
+    @Override
+    public void mscal(int offset, int address)
+    {
+        start(offset).append("MSCAL: ").append(address);
+        end();
+    }
+
+    @Override
+    public void stmask(int offset, int mask)
+    {
+        start(offset).append("STMASK: ").append(mask);
+        end();
+    }
+
+    @Override
+    public void strow(int offset, int[] values)
+    {
+        appendValues(start(offset).append("STROW:"), values);
+        end();
+    }
+
+    @Override
+    public void stcol(int offset, int[] values)
+    {
+        appendValues(start(offset).append("STCOL:"), values);
+        end();
+    }
+
+    @Override
+    public void unpack(int offset, int vn, int vl, int addr, int num, boolean flag, boolean usn, boolean mask)
+    {
+        start(offset).append("UNPACK: vn: ").append(vn).append(", vl: ").append(vl).append(", Addr: ").append(addr);
+        sb.append(", num: ").append(num);
+        if (flag) {
+            sb.append(", Flag");
+        }
+        if (usn) {
+            sb.append(", Unsigned");
+        }
+        if (mask) {
+            sb.append(", Mask");
+        }
+        end();
+    }
+
+    /**
+     * Writes out anything still in the buffer.
+     */
+    public void flush()
+    {
+        out.print(sb);
+        out.flush();
+        sb.setLength(0);
+    }
+
+    private void appendValues(StringBuilder sb, int[] values)
+    {
+        for (int val : values) {
+            sb.append(' ').append(HexUtil.formatHex(val));
+        }
+    }
+
+    private StringBuilder start(int offset)
+    {
+        return sb.append(HexUtil.formatHex(offset)).append(' ');
+    }
+
+    private void end()
+    {
+        sb.append(System.lineSeparator());
+        if (sb.length() >= FLUSH_SIZE) {
+            out.print(sb);
+            sb.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.ijbrown.bgtools.lmp;
+
+/**
+ * Receives the VIF commands that VifChunkReader walks over.
+ * Every method does nothing by default, so an implementation only needs to override the commands it cares about.
+ * Offsets are those of the command itself.
+ */
+public interface VifTraceListener
+{
+    /** Ignores everything. This is what VifDecode uses unless told otherwise. */
+    VifTraceListener NONE = new VifTraceListener()
+    {
+    };
+
+    default void nop(int offset)
+    {
+    }
+
+    default void stcycl(int offset, int wl, int cl)
+    {
+    }
+
+    default void itop(int offset, int imm)
+    {
+    }
+
+    default void stmod(int offset, int mode)
+    {
+    }
+
+    default void mscal(int offset, int address)
+    {
+    }
+
+    default void stmask(int offset, int mask)
+    {
+    }
+
+    /** values holds the 4 words of the row register. The array is reused, so copy it to keep it. */
+    default void strow(int offset, int[] values)
+    {
+    }
+
+    /** values holds the 4 words of the column register. The array is reused, so copy it to keep it. */
+    default void stcol(int offset, int[] values)
+    {
+    }
+
+    default void unpack(int offset, int vn, int vl, int addr, int num, boolean flag, boolean usn, boolean mask)
+    {
+    }
+}
@@ -0,0 +1,281 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+/**
+ * Carries out VIF UNPACK commands into an image of VU1 data memory, the way the VIF hardware does.
+ * Every vn/vl format is handled by an entry in a table indexed by vn << 2 | vl.
+ * The STCYCL, STMASK, STMOD, STROW and STCOL state is kept here and applied to each write.
+ * Memory is 1024 quadwords of 4 ints and addresses wrap around like they do on the PS2.
+ */
+public class VifUnpacker
+{
+    public static final int MEMORY_QWORDS = 1024;
+
+    /** Decodes element i of an UNPACK's data into out[0..3]. Missing components are left alone. */
+    private interface ElementReader
+    {
+        void read(BinaryReader reader, int dataOffset, int i, boolean usn, int[] out);
+    }
+
+    /** Bits per element for each vn << 2 | vl, or 0 if the combination is not valid. */
+    private static final int[] ELEMENT_BITS = new int[16];
+    /** Number of components each format supplies. */
+    private static final int[] NUM_COMPONENTS = new int[16];
+    private static final ElementReader[] READERS = new ElementReader[16];
+
+    static {
+        for (int vn = 0; vn < 4; ++vn) {
+            for (int vl = 0; vl < 3; ++vl) {
+                int format = vn << 2 | vl;
+                int bits = 32 >> vl;
+                ELEMENT_BITS[format] = (vn + 1) * bits;
+                NUM_COMPONENTS[format] = vn == 0 ? 4 : vn + 1;
+            }
+        }
+        // S-xx: one value written to all four components.
+        READERS[0x0] = (r, off, i, usn, out) -> fill(out, r.getInt(off + i * 4));
+        READERS[0x1] = (r, off, i, usn, out) -> fill(out, usn ? r.getUShort(off + i * 2) : r.getShort(off + i * 2));
+        READERS[0x2] = (r, off, i, usn, out) -> fill(out, usn ? r.getUByte(off + i) : r.getByte(off + i));
+        // V2-xx
+        READERS[0x4] = (r, off, i, usn, out) -> read32(r, off + i * 8, 2, out);
+        READERS[0x5] = (r, off, i, usn, out) -> read16(r, off + i * 4, 2, usn, out);
+        READERS[0x6] = (r, off, i, usn, out) -> read8(r, off + i * 2, 2, usn, out);
+        // V3-xx
+        READERS[0x8] = (r, off, i, usn, out) -> read32(r, off + i * 12, 3, out);
+        READERS[0x9] = (r, off, i, usn, out) -> read16(r, off + i * 6, 3, usn, out);
+        READERS[0xA] = (r, off, i, usn, out) -> read8(r, off + i * 3, 3, usn, out);
+        // V4-xx
+        READERS[0xC] = (r, off, i, usn, out) -> read32(r, off + i * 16, 4, out);
+        READERS[0xD] = (r, off, i, usn, out) -> read16(r, off + i * 8, 4, usn, out);
+        READERS[0xE] = (r, off, i, usn, out) -> read8(r, off + i * 4, 4, usn, out);
+        // V4-5: RGBA 5551 packed into 16 bits, each expanded to 8 bits.
+        ELEMENT_BITS[0xF] = 16;
+        NUM_COMPONENTS[0xF] = 4;
+        READERS[0xF] = (r, off, i, usn, out) -> {
+            int c = r.getUShort(off + i * 2);
+            out[0] = (c & 0x1F) << 3;
+            out[1] = ((c >> 5) & 0x1F) << 3;
+            out[2] = ((c >> 10) & 0x1F) << 3;
+            out[3] = ((c >> 15) & 1) << 7;
+        };
+        // S-5, V2-5 and V3-5 (0x3, 0x7 and 0xB) don't exist.
+    }
+
+    private static void fill(int[] out, int val)
+    {
+        out[0] = val;
+        out[1] = val;
+        out[2] = val;
+        out[3] = val;
+    }
+
+    private static void read32(BinaryReader r, int off, int n, int[] out)
+    {
+        for (int c = 0; c < n; ++c) {
+            out[c] = r.getInt(off + c * 4);
+        }
+    }
+
+    private static void read16(BinaryReader r, int off, int n, boolean usn, int[] out)
+    {
+        for (int c = 0; c < n; ++c) {
+            out[c] = usn ? r.getUShort(off + c * 2) : r.getShort(off + c * 2);
+        }
+    }
+
+    private static void read8(BinaryReader r, int off, int n, boolean usn, int[] out)
+    {
+        for (int c = 0; c < n; ++c) {
+            out[c] = usn ? r.getUByte(off + c) : r.getByte(off + c);
+        }
+    }
+
+    private final int[] memory = new int[MEMORY_QWORDS * 4];
+
+    /** The quadword address of each write made by the last unpack. */
+    private final int[] writeAddresses = new int[256];
+    private int numWritten = 0;
+
+    private final int[] element = new int[4];
+    private final int[] row = new int[4];
+    private final int[] col = new int[4];
+    private int cycleLength = 1;
+    private int writeLength = 1;
+    private int mask = 0;
+    private int mode = 0;
+
+    public static boolean isValidFormat(int vn, int vl)
+    {
+        return READERS[vn << 2 | vl] != null;
+    }
+
+    /**
+     * The number of bytes of data that follow an UNPACK, including padding to a 4 byte boundary.
+     */
+    public int dataLength(int vn, int vl, int num)
+    {
+        int bits = ELEMENT_BITS[vn << 2 | vl] * numDataElements(num);
+        return ((bits + 31) >> 5) * 4;
+    }
+
+    public void reset()
+    {
+        cycleLength = 1;
+        writeLength = 1;
+        mask = 0;
+        mode = 0;
+        for (int c = 0; c < 4; ++c) {
+            row[c] = 0;
+            col[c] = 0;
+        }
+    }
+
+    public void setCycle(int writeLength, int cycleLength)
+    {
+        this.writeLength = writeLength;
+        this.cycleLength = cycleLength;
+    }
+
+    public void setMask(int mask)
+    {
+        this.mask = mask;
+    }
+
+    /** 0 is normal, 1 adds the row register to the data and 2 also stores the result back in the row register. */
+    public void setMode(int mode)
+    {
+        this.mode = mode;
+    }
+
+    public void setRow(int c, int val)
+    {
+        row[c] = val;
+    }
+
+    public void setCol(int c, int val)
+    {
+        col[c] = val;
+    }
+
+    /**
+     * Unpacks the data that starts at dataOffset.
+     *
+     * @param num The NUM field of the command. 0 means 256.
+     * @return The number of bytes of data used, or -1 if vn/vl is not a valid format.
+     */
+    public int unpack(BinaryReader reader, int dataOffset, int vn, int vl, int num, int addr, boolean usn, boolean masked)
+    {
+        int format = vn << 2 | vl;
+        ElementReader elementReader = READERS[format];
+        if (elementReader == null) {
+            numWritten = 0;
+            return -1;
+        }
+        int numWrites = num == 0 ? 256 : num;
+        int numComponents = NUM_COMPONENTS[format];
+        int wl = writeLength == 0 ? 1 : writeLength;
+        int cl = cycleLength == 0 ? 1 : cycleLength;
+        boolean filling = wl > cl;
+
+        int dataIndex = 0;
+        for (int i = 0; i < numWrites; ++i) {
+            int cycle = i % wl;
+            int qword;
+            if (filling) {
+                qword = addr + i;
+            } else {
+                qword = addr + (i / wl) * cl + cycle;
+            }
+            qword &= MEMORY_QWORDS - 1;
+            writeAddresses[i] = qword;
+
+            // In filling mode only the first cl writes of each block have data. The rest repeat the row register.
+            boolean hasData = !filling || cycle < cl;
+            if (hasData) {
+                elementReader.read(reader, dataOffset, dataIndex++, usn, element);
+            }
+            int maskRow = Math.min(cycle, 3);
+            int base = qword * 4;
+            for (int c = 0; c < 4; ++c) {
+                int m = masked ? (mask >> ((maskRow * 4 + c) * 2)) & 3 : 0;
+                if (m == 0 && !hasData) {
+                    m = 1;
+                }
+                switch (m) {
+                    case 0:
+                        if (c < numComponents) {
+                            memory[base + c] = applyMode(c, element[c]);
+                        }
+                        break;
+                    case 1:
+                        memory[base + c] = row[c];
+                        break;
+                    case 2:
+                        memory[base + c] = col[maskRow];
+                        break;
+                    default:
+                        // Write protected.
+                        break;
+                }
+            }
+        }
+        numWritten = numWrites;
+        return dataLength(vn, vl, num);
+    }
+
+    private int applyMode(int c, int val)
+    {
+        switch (mode) {
+            case 1:
+                return val + row[c];
+            case 2:
+                row[c] += val;
+                return row[c];
+            default:
+                return val;
+        }
+    }
+
+    // The number of elements of data for num writes with the current cycle settings.
+    private int numDataElements(int num)
+    {
+        int numWrites = num == 0 ? 256 : num;
+        int wl = writeLength == 0 ? 1 : writeLength;
+        int cl = cycleLength == 0 ? 1 : cycleLength;
+        if (wl <= cl) {
+            return numWrites;
+        }
+        return (numWrites / wl) * cl + Math.min(numWrites % wl, cl);
+    }
+
+    /** The number of quadwords written by the last unpack. */
+    public int getNumWritten()
+    {
+        return numWritten;
+    }
+
+    /** Component c of the i'th quadword written by the last unpack. */
+    public int get(int i, int c)
+    {
+        return memory[writeAddresses[i] * 4 + c];
+    }
+
+    public int[] getMemory()
+    {
+        return memory;
+    }
+}
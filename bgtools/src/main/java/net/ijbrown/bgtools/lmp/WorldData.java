@@ -0,0 +1,396 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The contents of a .world file, as read by WorldDecode.decode.
+ * Nothing in here changes once it has been built. Fields named after an offset are ones whose meaning
+ * is not known yet.
+ */
+public final class WorldData
+{
+    // Header
+
+    public final int numElements;
+    public final int offset4;
+    public final int world08;
+    public final int world0C;
+    /** Size of the per cell topo array. */
+    public final int cols;
+    public final int rows;
+    public final int perCellTopoOffset;
+    public final int numTopoElements;
+    public final int topoElementsOffset;
+    public final int elementBase;
+    public final int world28;
+    public final int world2C;
+    /** Size of the array at offset38. */
+    public final int cols38;
+    public final int rows38;
+    public final int offset38;
+    public final int world3C;
+    public final int world40;
+    public final int world44;
+    public final int world48;
+    public final int offset4c;
+    public final int len50;
+    public final int offset54;
+    /** The first and last texture grid cells, as y * 100 + x. */
+    public final int textureGridMin;
+    public final int textureGridMax;
+    public final int offset60;
+    public final int textureArrayOffset;
+    public final float float68;
+    public final int minimapOffset;
+
+    private final CellTopo[] cellTopos;
+    private final List<TopoElement> topoElements;
+    private final List<HeightPatch> heightPatches;
+    private final List<Element> elements;
+    private final byte[] grid38;
+    private final TextureGridEntry[] textureGrid;
+
+    WorldData(int[] header, float float68, CellTopo[] cellTopos, List<TopoElement> topoElements,
+              List<HeightPatch> heightPatches, List<Element> elements, byte[] grid38, TextureGridEntry[] textureGrid)
+    {
+        int h = 0;
+        numElements = header[h++];
+        offset4 = header[h++];
+        world08 = header[h++];
+        world0C = header[h++];
+        cols = header[h++];
+        rows = header[h++];
+        perCellTopoOffset = header[h++];
+        numTopoElements = header[h++];
+        topoElementsOffset = header[h++];
+        elementBase = header[h++];
+        world28 = header[h++];
+        world2C = header[h++];
+        cols38 = header[h++];
+        rows38 = header[h++];
+        offset38 = header[h++];
+        world3C = header[h++];
+        world40 = header[h++];
+        world44 = header[h++];
+        world48 = header[h++];
+        offset4c = header[h++];
+        len50 = header[h++];
+        offset54 = header[h++];
+        textureGridMin = header[h++];
+        textureGridMax = header[h++];
+        offset60 = header[h++];
+        textureArrayOffset = header[h++];
+        minimapOffset = header[h];
+        this.float68 = float68;
+        this.cellTopos = cellTopos;
+        this.topoElements = Collections.unmodifiableList(topoElements);
+        this.heightPatches = Collections.unmodifiableList(heightPatches);
+        this.elements = Collections.unmodifiableList(elements);
+        this.grid38 = grid38;
+        this.textureGrid = textureGrid;
+    }
+
+    public int getNumCells()
+    {
+        return cellTopos.length;
+    }
+
+    public CellTopo getCellTopo(int cell)
+    {
+        return cellTopos[cell];
+    }
+
+    public List<TopoElement> getTopoElements()
+    {
+        return topoElements;
+    }
+
+    /**
+     * The height patches that the topo elements point to, each once, in the order they are first referenced.
+     */
+    public List<HeightPatch> getHeightPatches()
+    {
+        return heightPatches;
+    }
+
+    /**
+     * @return The patch at the given offset, or null if there isn't one.
+     */
+    public HeightPatch findHeightPatch(int offset)
+    {
+        for (HeightPatch patch : heightPatches) {
+            if (patch.offset == offset) {
+                return patch;
+            }
+        }
+        return null;
+    }
+
+    public List<Element> getElements()
+    {
+        return elements;
+    }
+
+    /** The low byte of entry x, y in the array at offset38. */
+    public int getGrid38(int x, int y)
+    {
+        return grid38[y * cols38 + x] & 0xFF;
+    }
+
+    public int getTextureGridXMin()
+    {
+        return textureGridMin % 100;
+    }
+
+    public int getTextureGridYMin()
+    {
+        return textureGridMin / 100;
+    }
+
+    public int getTextureGridXMax()
+    {
+        return textureGridMax % 100;
+    }
+
+    public int getTextureGridYMax()
+    {
+        return textureGridMax / 100;
+    }
+
+    /**
+     * @return The texture grid entry for cell x, y, which must be within the min and max.
+     */
+    public TextureGridEntry getTextureGridEntry(int x, int y)
+    {
+        int width = getTextureGridXMax() - getTextureGridXMin() + 1;
+        return textureGrid[(y - getTextureGridYMin()) * width + (x - getTextureGridXMin())];
+    }
+
+    /**
+     * The topo elements in one cell of the cols x rows grid.
+     */
+    public static final class CellTopo
+    {
+        /** Where the -1 terminated list of topo element numbers is. */
+        public final int offset;
+        private final short[] topoElements;
+
+        CellTopo(int offset, short[] topoElements)
+        {
+            this.offset = offset;
+            this.topoElements = topoElements;
+        }
+
+        public int getNumTopoElements()
+        {
+            return topoElements.length;
+        }
+
+        public int getTopoElement(int i)
+        {
+            return topoElements[i];
+        }
+    }
+
+    /**
+     * An entry of the 0x1C byte topo element array. Each one places a height patch in the world.
+     */
+    public static final class TopoElement
+    {
+        public final int offset;
+        public final short s00;
+        public final short s02;
+        public final short s04;
+        public final short s06;
+        public final int i08;
+        public final int patchOffset;
+        public final short flags;
+        public final short x0;
+        public final short y0;
+        public final short baseHeight;
+        /** The rotation as cos and sin scaled by 32767. */
+        public final short cosA;
+        public final short sinA;
+
+        TopoElement(int offset, short s00, short s02, short s04, short s06, int i08, int patchOffset, short flags,
+                    short x0, short y0, short baseHeight, short cosA, short sinA)
+        {
+            this.offset = offset;
+            this.s00 = s00;
+            this.s02 = s02;
+            this.s04 = s04;
+            this.s06 = s06;
+            this.i08 = i08;
+            this.patchOffset = patchOffset;
+            this.flags = flags;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.baseHeight = baseHeight;
+            this.cosA = cosA;
+            this.sinA = sinA;
+        }
+
+        public double getCos()
+        {
+            return cosA / 32767.0;
+        }
+
+        public double getSin()
+        {
+            return sinA / 32767.0;
+        }
+
+        /** The rotation in degrees. */
+        public double getAngle()
+        {
+            return Math.atan2(getSin(), getCos()) * 180.0 / Math.PI;
+        }
+    }
+
+    /**
+     * A grid of heights. If the offset doesn't point inside the file then valid is false and only offset is set.
+     */
+    public static final class HeightPatch
+    {
+        public final int offset;
+        public final boolean valid;
+        public final int x0;
+        public final int y0;
+        public final int width;
+        public final int height;
+        public final short minHeight;
+        public final short maxHeight;
+        /** width * height heights, or none if the game's patches aren't understood. */
+        private final short[] heights;
+
+        HeightPatch(int offset, boolean valid, int x0, int y0, int width, int height, short minHeight, short maxHeight,
+                    short[] heights)
+        {
+            this.offset = offset;
+            this.valid = valid;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.width = width;
+            this.height = height;
+            this.minHeight = minHeight;
+            this.maxHeight = maxHeight;
+            this.heights = heights;
+        }
+
+        public boolean hasHeights()
+        {
+            return heights.length != 0;
+        }
+
+        /** The raw height at x, y, which is in 1/16ths of a unit. */
+        public short getRawHeight(int x, int y)
+        {
+            return heights[y * width + x];
+        }
+    }
+
+    /**
+     * An entry of the element array. Each one places a mesh in the world.
+     */
+    public static final class Element
+    {
+        public final int offset;
+        public final int meshOffset;
+        /** Dark Alliance only. */
+        public final int tex2;
+        /** In 16 byte units. */
+        public final int meshLength;
+        private final float[] bounds;
+        public final int texNum;
+        public final short texCell;
+        public final short posX;
+        public final short posY;
+        public final short posZ;
+        public final int flags;
+        public final short u32;
+        public final short u34;
+
+        Element(int offset, int meshOffset, int tex2, int meshLength, float[] bounds, int texNum, short texCell,
+                short posX, short posY, short posZ, int flags, short u32, short u34)
+        {
+            this.offset = offset;
+            this.meshOffset = meshOffset;
+            this.tex2 = tex2;
+            this.meshLength = meshLength;
+            this.bounds = bounds;
+            this.texNum = texNum;
+            this.texCell = texCell;
+            this.posX = posX;
+            this.posY = posY;
+            this.posZ = posZ;
+            this.flags = flags;
+            this.u32 = u32;
+            this.u34 = u34;
+        }
+
+        /**
+         * @param i 0 to 5 for x1, y1, z1, x2, y2, z2.
+         */
+        public float getBound(int i)
+        {
+            return bounds[i];
+        }
+
+        /**
+         * When bit 0 of the flags is clear the element is rotated about z. The top 16 bits of the flags hold
+         * cos a and the short after them holds sin a, both scaled by 32767.
+         * Otherwise the top bits are xyz rotation flags which aren't understood yet.
+         */
+        public boolean hasZRotation()
+        {
+            return (flags & 1) == 0;
+        }
+
+        public double getCos()
+        {
+            return (flags >> 16) / 32767.0;
+        }
+
+        public double getSin()
+        {
+            return u32 / 32767.0;
+        }
+
+        /** True if the element is mirrored in y. Only meaningful when hasZRotation is true. */
+        public boolean isMirroredY()
+        {
+            return (flags & 0x40) != 0;
+        }
+    }
+
+    /**
+     * Where a cell's texture is in the level's .tex file.
+     */
+    public static final class TextureGridEntry
+    {
+        public final int texOffset;
+        public final int texLength;
+
+        TextureGridEntry(int texOffset, int texLength)
+        {
+            this.texOffset = texOffset;
+            this.texLength = texLength;
+        }
+    }
+}
@@ -17,7 +17,7 @@ package net.ijbrown.bgtools.lmp;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -60,8 +60,9 @@ public class WorldDecode
 
         extractMiniMap(worldName + "_minimap", outDirFile);
         if (!minimapOnly) {
+            WorldData world = decode();
             String txt;
-            txt = disassemble(outDirFile, new File(rootDirOrig + lmpName + ".tex"));
+            txt = disassemble(world, outDirFile, new File(rootDirOrig + lmpName + ".tex"));
             writeFile(worldName + ".world.txt", outDirFile, txt);
         }
     }
@@ -76,6 +77,38 @@ public class WorldDecode
 
     private byte[] fileData;
 
+    /** The world meshes decoded by the last call to decodeMeshes. */
+    private WorldMeshTable meshTable;
+
+    public WorldMeshTable getMeshTable()
+    {
+        return meshTable;
+    }
+
+    /**
+     * Builds a spatial index over the bounding boxes of the world elements, using the world's cols and rows
+     * for the size of the grid. Element numbers in the index are positions in the element table.
+     */
+    public WorldSpatialIndex buildSpatialIndex(WorldData world)
+    {
+        List<WorldData.Element> elements = world.getElements();
+        float[] bounds = new float[elements.size() * 6];
+        for (int i = 0; i < elements.size(); ++i) {
+            for (int j = 0; j < 6; ++j) {
+                bounds[i * 6 + j] = elements.get(i).getBound(j);
+            }
+        }
+        return new WorldSpatialIndex(bounds, world.cols, world.rows);
+    }
+
+    /**
+     * Builds the terrain from the height patches, so that heights can be looked up at world positions.
+     */
+    public WorldTerrain buildTerrain(WorldData world)
+    {
+        return new WorldTerrain(world);
+    }
+
     private void read(String filename, File outDirFile) throws IOException
     {
         File file = new File(outDirFile, filename);
@@ -96,6 +129,11 @@ public class WorldDecode
         }
     }
 
+    public void read(byte[] data)
+    {
+        fileData = data;
+    }
+
     private void extractMiniMap(String outputFilename, File outDirFile) throws IOException
     {
         int miniMapOffset = DataUtil.getLEInt(fileData, 0x6C);
@@ -109,148 +147,259 @@ public class WorldDecode
         }
     }
 
-    private String disassemble(File outDirFile, File levelTexFile)
+    /**
+     * Reads everything in the world file into a WorldData. The meshes themselves are not decoded.
+     */
+    public WorldData decode()
     {
-        StringBuilder sb = new StringBuilder();
+        int[] header = new int[27];
+        for (int i = 0; i < 26; ++i) {
+            header[i] = DataUtil.getLEInt(fileData, i * 4);
+        }
+        header[26] = DataUtil.getLEInt(fileData, 0x6C);
+        float float68 = DataUtil.getLEFloat(fileData, 0x68);
 
-        File worldMeshDir = new File(outDirFile, "world_meshes");
+        int numElements = header[0];
+        int cols = header[4];
+        int rows = header[5];
+        int perCellTopoOffset = header[6];
+        int numTopoElements = header[7];
+        int topoElementsOffset = header[8];
+        int elementBase = header[9];
+        int cols38 = header[12];
+        int rows38 = header[13];
+        int offset38 = header[14];
+        int textureGridMin = header[22];
+        int textureGridMax = header[23];
+        int textureArrayOffset = header[25];
+
+        // An array of 4 byte offsets, one per cell. Each offset points to a -1 terminated array of shorts
+        // which index the topo element array.
+        WorldData.CellTopo[] cellTopos = new WorldData.CellTopo[rows * cols];
+        short[] indices = new short[16];
+        for (int i = 0; i < cellTopos.length; ++i) {
+            int off = DataUtil.getLEInt(fileData, perCellTopoOffset + i * 4);
+            int n = 0;
+            if (gameType == GameType.DARK_ALLIANCE) {
+                short u;
+                while ((u = DataUtil.getLEShort(fileData, off + n * 2)) >= 0) {
+                    if (n == indices.length) {
+                        indices = Arrays.copyOf(indices, n * 2);
+                    }
+                    indices[n++] = u;
+                }
+            }
+            cellTopos[i] = new WorldData.CellTopo(off, Arrays.copyOf(indices, n));
+        }
 
-        int numElements = DataUtil.getLEInt(fileData, 0);
-        sb.append("Num Elements: ").append(HexUtil.formatHex(numElements)).append("\r\n");
+        // Each topo element is 0x1C bytes. Member 0x0C points to a terrain patch / height map.
+        IntSet linkedObjects = new IntSet();
+        List<WorldData.TopoElement> topoElements = new ArrayList<>(Math.max(numTopoElements, 0));
+        for (int i = 0; i < numTopoElements; ++i) {
+            int off = topoElementsOffset + i * 0x1c;
+            int patchOffset = DataUtil.getLEInt(fileData, off + 0x0c);
+            linkedObjects.add(patchOffset);
+            topoElements.add(new WorldData.TopoElement(off,
+                    DataUtil.getLEShort(fileData, off + 0x00), DataUtil.getLEShort(fileData, off + 0x02),
+                    DataUtil.getLEShort(fileData, off + 0x04), DataUtil.getLEShort(fileData, off + 0x06),
+                    DataUtil.getLEInt(fileData, off + 0x08), patchOffset,
+                    DataUtil.getLEShort(fileData, off + 0x10), DataUtil.getLEShort(fileData, off + 0x12),
+                    DataUtil.getLEShort(fileData, off + 0x14), DataUtil.getLEShort(fileData, off + 0x16),
+                    DataUtil.getLEShort(fileData, off + 0x18), DataUtil.getLEShort(fileData, off + 0x1A)));
+        }
 
+        // Offset 8 and C of a patch give its cols and rows. 16 bit values start at offset 14.
+        List<WorldData.HeightPatch> heightPatches = new ArrayList<>(linkedObjects.size());
+        for (int p = 0; p < linkedObjects.size(); ++p) {
+            int offset = linkedObjects.get(p);
+            if (offset > 0 && offset < fileData.length - 0x16) {
+                int patchWidth = DataUtil.getLEInt(fileData, offset + 0x08);
+                int patchHeight = DataUtil.getLEInt(fileData, offset + 0x0C);
+                short[] heights = new short[0];
+                if (gameType == GameType.DARK_ALLIANCE) {
+                    if (patchWidth < 0 || patchHeight < 0
+                            || offset + 0x14 + (long) patchWidth * patchHeight * 2 > fileData.length) {
+                        throw new IllegalStateException("Height patch at " + HexUtil.formatHex(offset)
+                                + " runs past the end of the file");
+                    }
+                    heights = new short[patchWidth * patchHeight];
+                    for (int i = 0; i < heights.length; ++i) {
+                        heights[i] = DataUtil.getLEShort(fileData, offset + 0x14 + i * 2);
+                    }
+                }
+                heightPatches.add(new WorldData.HeightPatch(offset, true,
+                        DataUtil.getLEInt(fileData, offset), DataUtil.getLEInt(fileData, offset + 4),
+                        patchWidth, patchHeight,
+                        DataUtil.getLEShort(fileData, offset + 0x10), DataUtil.getLEShort(fileData, offset + 0x12),
+                        heights));
+            } else {
+                heightPatches.add(new WorldData.HeightPatch(offset, false, 0, 0, 0, 0, (short) 0, (short) 0, new short[0]));
+            }
+        }
 
-        int offset4 = DataUtil.getLEInt(fileData, 0x4);
-        sb.append("Offset4:  ").append(HexUtil.formatHex(offset4)).append("\r\n");
+        List<WorldData.Element> elements = new ArrayList<>(Math.max(numElements, 0));
+        for (int i = 0; i < numElements; ++i) {
+            int off;
+            if (gameType == GameType.DARK_ALLIANCE) {
+                off = elementBase + i * 0x38;
+            } else {
+                off = elementBase + i * 0x3C;
+            }
+            int elementOffset = off;
+            // offset 0 points to a vif mesh object.
+            int meshOffset = DataUtil.getLEInt(fileData, off);
+            off += 4;
+            int tex2 = 0;
+            if (gameType == GameType.DARK_ALLIANCE) {
+                tex2 = DataUtil.getLEInt(fileData, off);
+                off += 4;
+            }
+            int meshDataLen = DataUtil.getLEInt(fileData, off);
+            off += 4;
 
-        sb.append("world.08: ").append((DataUtil.getLEInt(fileData, 0x08))).append("\r\n");
-        sb.append("world.0C: ").append((DataUtil.getLEInt(fileData, 0x0C))).append("\r\n");
+            float[] bounds = new float[6];
+            for (int j = 0; j < 6; ++j) {
+                bounds[j] = DataUtil.getLEFloat(fileData, off + j * 4);
+            }
+            off += 0x18;
 
-        sb.append("\r\n");
+            // Chunk in texture
+            int texNum = DataUtil.getLEInt(fileData, off);
+            short texCell = DataUtil.getLEShort(fileData, off + 4);
+            off += 6;
+            if (gameType != GameType.DARK_ALLIANCE) {
+                off += 2;
+            }
+            short posX = DataUtil.getLEShort(fileData, off);
+            short posY = DataUtil.getLEShort(fileData, off + 0x2);
+            short posZ = DataUtil.getLEShort(fileData, off + 0x4);
+            off += 6;
+            int flags = DataUtil.getLEInt(fileData, off);
+            off += 4;
 
-        int cols = DataUtil.getLEInt(fileData, 0x10);
-        int rows = DataUtil.getLEInt(fileData, 0x14);
+            elements.add(new WorldData.Element(elementOffset, meshOffset, tex2, meshDataLen, bounds, texNum, texCell,
+                    posX, posY, posZ, flags, DataUtil.getLEShort(fileData, off), DataUtil.getLEShort(fileData, off + 4)));
+        }
 
-        sb.append("Cols (world.10): ").append(cols).append("\r\n");
-        sb.append("Rows (world.14): ").append(rows).append("\r\n");
+        // An array of 16 bit values, each of which is actually an unsigned byte.
+        byte[] grid38 = new byte[Math.max(cols38 * rows38, 0)];
+        for (int i = 0; i < grid38.length; ++i) {
+            grid38[i] = (byte) DataUtil.getLEUShort(fileData, offset38 + 2 * i);
+        }
 
-        int perCellTopoElements = DataUtil.getLEInt(fileData, 0x18);
-        sb.append("Per cell topo elements array: ").append(HexUtil.formatHex(perCellTopoElements)).append("\r\n\r\n");
-        // This is an array of 4 byte offsets
-        // size is given by rows and cols in offset 10 and 14
-        // Each offset points to a -1 terminated array of shorts
+        // Each entry is 2 integers. First one gives the offset into the texture file. Second one is the
+        // data length. Each row is 100 entries long. The number of rows is given by the values in 0x58 and 0x5C
+        int xmin = textureGridMin % 100;
+        int ymin = textureGridMin / 100;
+        int xmax = textureGridMax % 100;
+        int ymax = textureGridMax / 100;
+        int gridWidth = Math.max(xmax - xmin + 1, 0);
+        WorldData.TextureGridEntry[] textureGrid = new WorldData.TextureGridEntry[gridWidth * Math.max(ymax - ymin + 1, 0)];
+        for (int y = ymin; y <= ymax; ++y) {
+            for (int x = xmin; x <= xmax; ++x) {
+                int entryOffset = textureArrayOffset + (x - xmin) * 8 + 800 * (y - ymin);
+                textureGrid[(y - ymin) * gridWidth + (x - xmin)] = new WorldData.TextureGridEntry(
+                        DataUtil.getLEInt(fileData, entryOffset), DataUtil.getLEInt(fileData, entryOffset + 4));
+            }
+        }
 
-        int count1c = DataUtil.getLEInt(fileData, 0x1C);
-        sb.append("Count1c: ").append(HexUtil.formatHex(count1c)).append("\r\n");
+        return new WorldData(header, float68, cellTopos, topoElements, heightPatches, elements, grid38, textureGrid);
+    }
 
+    /**
+     * Decodes each different mesh that the elements use, once. The table is also kept for getMeshTable.
+     */
+    public WorldMeshTable decodeMeshes(WorldData world)
+    {
+        IntSet meshOffsets = new IntSet(world.numElements);
+        int[] meshLengths = new int[world.getElements().size()];
+        for (WorldData.Element element : world.getElements()) {
+            if (meshOffsets.add(element.meshOffset)) {
+                meshLengths[meshOffsets.size() - 1] = element.meshLength;
+            }
+        }
+        int[] offsets = meshOffsets.toArray();
+        int[] lengths = Arrays.copyOf(meshLengths, offsets.length);
+        meshTable = WorldMeshTable.decode(BinaryReader.wrap(fileData), offsets, lengths);
+        return meshTable;
+    }
 
-        int offset20 = DataUtil.getLEInt(fileData, 0x20);
-        sb.append("Offset20: ").append(HexUtil.formatHex(offset20)).append("\r\n");
+    String disassemble(WorldData world, File outDirFile, File levelTexFile)
+    {
+        StringBuilder sb = new StringBuilder();
 
-        // Offset 20 points to Count1C elements, each 1c bytes in length
-        // member 0x0c in each element is an offset.
+        sb.append("Num Elements: ").append(HexUtil.formatHex(world.numElements)).append("\r\n");
+        sb.append("Offset4:  ").append(HexUtil.formatHex(world.offset4)).append("\r\n");
+        sb.append("world.08: ").append(world.world08).append("\r\n");
+        sb.append("world.0C: ").append(world.world0C).append("\r\n");
 
         sb.append("\r\n");
 
-        int elementBase = DataUtil.getLEInt(fileData, 0x24);
-        sb.append("Element Base (world.24): ").append(HexUtil.formatHex(elementBase)).append("\r\n");
+        sb.append("Cols (world.10): ").append(world.cols).append("\r\n");
+        sb.append("Rows (world.14): ").append(world.rows).append("\r\n");
+        sb.append("Per cell topo elements array: ").append(HexUtil.formatHex(world.perCellTopoOffset)).append("\r\n\r\n");
+        sb.append("Count1c: ").append(HexUtil.formatHex(world.numTopoElements)).append("\r\n");
+        sb.append("Offset20: ").append(HexUtil.formatHex(world.topoElementsOffset)).append("\r\n");
 
         sb.append("\r\n");
 
-        sb.append("world.28: ").append((DataUtil.getLEInt(fileData, 0x28))).append("\r\n");
-        sb.append("world.2C: ").append((DataUtil.getLEInt(fileData, 0x2C))).append("\r\n");
-
-
-        int cols_38 = DataUtil.getLEInt(fileData, 0x30);
-        int rows_38 = DataUtil.getLEInt(fileData, 0x34);
-
-        sb.append("Cols.38 (world.30): ").append(cols_38).append("\r\n");
-        sb.append("Rows.38 (world.34): ").append(rows_38).append("\r\n");
-        int offset38 = DataUtil.getLEInt(fileData, 0x38);
-        sb.append("Offset.38: ").append(HexUtil.formatHex(offset38)).append("\r\n");
-
-        sb.append("world.3C: ").append(DataUtil.getLEInt(fileData, 0x3C)).append("\r\n");
-        sb.append("world.40: ").append(DataUtil.getLEInt(fileData, 0x40)).append("\r\n");
-        sb.append("world.44: ").append(DataUtil.getLEInt(fileData, 0x44)).append("\r\n");
-        sb.append("world.48: ").append(DataUtil.getLEInt(fileData, 0x48)).append("\r\n");
-
-        int offset4c = DataUtil.getLEInt(fileData, 0x4c);
-        sb.append("Offset4c: ").append(HexUtil.formatHex(offset4c)).append("\r\n");
-
-        int len50 = DataUtil.getLEInt(fileData, 0x50);
-        sb.append("Len50: ").append(HexUtil.formatHex(len50)).append("\r\n");
-        int offset54 = DataUtil.getLEInt(fileData, 0x54);
-        sb.append("Offset54: ").append(HexUtil.formatHex(offset54)).append("\r\n");
-
-        sb.append("Texture grid min y*100+x: ").append(DataUtil.getLEInt(fileData, 0x58)).append("\r\n");
-        sb.append("Texture grid max y*100+x: ").append(DataUtil.getLEInt(fileData, 0x5C)).append("\r\n");
-
-        int offset60 = DataUtil.getLEInt(fileData, 0x60);
-        sb.append("Offset60: ").append(HexUtil.formatHex(offset60)).append("\r\n");
-
-        // Each entry is 2 integers. First one gives the offset into the texture file. Second one is the
-        // data length. Each row is 100 entries long. The number of rows is given by the values in 0x58 and 0x5C
-        int textureArrayOffset = DataUtil.getLEInt(fileData, 0x64);
-        sb.append("Texture grid array offset: ").append(HexUtil.formatHex(textureArrayOffset)).append("\r\n");
+        sb.append("Element Base (world.24): ").append(HexUtil.formatHex(world.elementBase)).append("\r\n");
 
-        float float68 = DataUtil.getLEFloat(fileData, 0x68);
-        sb.append("float68: ").append(float68).append("\r\n");
+        sb.append("\r\n");
 
-        int minimapOffset = DataUtil.getLEInt(fileData, 0x6C);
-        sb.append("minimap offset: ").append(HexUtil.formatHex(minimapOffset)).append("\r\n");
+        sb.append("world.28: ").append(world.world28).append("\r\n");
+        sb.append("world.2C: ").append(world.world2C).append("\r\n");
+        sb.append("Cols.38 (world.30): ").append(world.cols38).append("\r\n");
+        sb.append("Rows.38 (world.34): ").append(world.rows38).append("\r\n");
+        sb.append("Offset.38: ").append(HexUtil.formatHex(world.offset38)).append("\r\n");
+        sb.append("world.3C: ").append(world.world3C).append("\r\n");
+        sb.append("world.40: ").append(world.world40).append("\r\n");
+        sb.append("world.44: ").append(world.world44).append("\r\n");
+        sb.append("world.48: ").append(world.world48).append("\r\n");
+        sb.append("Offset4c: ").append(HexUtil.formatHex(world.offset4c)).append("\r\n");
+        sb.append("Len50: ").append(HexUtil.formatHex(world.len50)).append("\r\n");
+        sb.append("Offset54: ").append(HexUtil.formatHex(world.offset54)).append("\r\n");
+        sb.append("Texture grid min y*100+x: ").append(world.textureGridMin).append("\r\n");
+        sb.append("Texture grid max y*100+x: ").append(world.textureGridMax).append("\r\n");
+        sb.append("Offset60: ").append(HexUtil.formatHex(world.offset60)).append("\r\n");
+        sb.append("Texture grid array offset: ").append(HexUtil.formatHex(world.textureArrayOffset)).append("\r\n");
+        sb.append("float68: ").append(world.float68).append("\r\n");
+        sb.append("minimap offset: ").append(HexUtil.formatHex(world.minimapOffset)).append("\r\n");
 
         sb.append("-----------------------------------------------------\r\n");
         sb.append("\r\n");
         sb.append("Per cell topo elements array. Each index points to an entry in array 20.\r\n \r\n");
-        for (int i = 0; i < rows * cols; ++i) {
-            int off = DataUtil.getLEInt(fileData, perCellTopoElements + i * 4);
-            sb.append(i).append(" : ").append(HexUtil.formatHex(off)).append(" -> ");
-            if (gameType == GameType.DARK_ALLIANCE) {
-                int u = DataUtil.getLEShort(fileData, off);
-                while (u >= 0) {
-                    sb.append(u);
-                    off += 2;
-                    u = DataUtil.getLEShort(fileData, off);
-                    if (u >= 0) {
-                        sb.append(", ");
-                    }
+        for (int i = 0; i < world.getNumCells(); ++i) {
+            WorldData.CellTopo cell = world.getCellTopo(i);
+            sb.append(i).append(" : ").append(HexUtil.formatHex(cell.offset)).append(" -> ");
+            for (int j = 0; j < cell.getNumTopoElements(); ++j) {
+                if (j > 0) {
+                    sb.append(", ");
                 }
+                sb.append(cell.getTopoElement(j));
             }
             sb.append("\r\n");
         }
 
-        List<Integer> linkedObjects = new ArrayList<>();
-
         sb.append("-----------------------------------------------------\r\n");
         sb.append("\r\n");
-        sb.append("Topo Element array - ").append(count1c).append(" elements\r\n \r\n");
-        for (int i = 0; i < count1c; ++i) {
-            int off = offset20 + i * 0x1c;
-            sb.append(i).append(" : ").append(HexUtil.formatHex(off)).append("{\r\n");
-            sb.append("    0x00: ").append(DataUtil.getLEShort(fileData, off + 0x00)).append("\r\n");
-            sb.append("    0x02: ").append(DataUtil.getLEShort(fileData, off + 0x02)).append("\r\n");
-            sb.append("    0x04: ").append(DataUtil.getLEShort(fileData, off + 0x04)).append("\r\n");
-            sb.append("    0x06: ").append(DataUtil.getLEShort(fileData, off + 0x06)).append("\r\n");
-            sb.append("    0x08: ").append(DataUtil.getLEInt(fileData, off + 0x08)).append("\r\n");
-
-            // This points to a terrain patch / height map
-            // offset 8 and C of it specify rows and cols. 16 bit values start at offset 14.
-            // There are rows * cols values.
-
-            int linkedObjectOffset = DataUtil.getLEInt(fileData, off + 0x0c);
-            if (!linkedObjects.contains(linkedObjectOffset)) {
-                linkedObjects.add(linkedObjectOffset);
-            }
-            sb.append("    0x0c (patch addr): ").append(HexUtil.formatHex(linkedObjectOffset)).append("\r\n");
-            sb.append("    0x10 (flags): ").append(DataUtil.getLEShort(fileData, off + 0x10)).append("\r\n");
-            sb.append("    0x12 (x0): ").append(DataUtil.getLEShort(fileData, off + 0x12)).append("\r\n");
-            sb.append("    0x14 (y0): ").append(DataUtil.getLEShort(fileData, off + 0x14)).append("\r\n");
-            sb.append("    0x16 (base height): ").append(DataUtil.getLEShort(fileData, off + 0x16)).append("\r\n");
-            double cos_a = DataUtil.getLEShort(fileData, off + 0x18) / 32767.0;
-            double sin_a = DataUtil.getLEShort(fileData, off + 0x1A) / 32767.0;
-            sb.append("    0x18 (cos a): ").append(cos_a).append("\r\n");
-            sb.append("    0x1A (sin a): ").append(sin_a).append("\r\n");
-            double alpha = Math.atan2(sin_a, cos_a) * 180.0 / Math.PI;
-            sb.append("        alpha = ").append(alpha).append("\r\n");
+        sb.append("Topo Element array - ").append(world.numTopoElements).append(" elements\r\n \r\n");
+        int i = 0;
+        for (WorldData.TopoElement topo : world.getTopoElements()) {
+            sb.append(i++).append(" : ").append(HexUtil.formatHex(topo.offset)).append("{\r\n");
+            sb.append("    0x00: ").append(topo.s00).append("\r\n");
+            sb.append("    0x02: ").append(topo.s02).append("\r\n");
+            sb.append("    0x04: ").append(topo.s04).append("\r\n");
+            sb.append("    0x06: ").append(topo.s06).append("\r\n");
+            sb.append("    0x08: ").append(topo.i08).append("\r\n");
+            sb.append("    0x0c (patch addr): ").append(HexUtil.formatHex(topo.patchOffset)).append("\r\n");
+            sb.append("    0x10 (flags): ").append(topo.flags).append("\r\n");
+            sb.append("    0x12 (x0): ").append(topo.x0).append("\r\n");
+            sb.append("    0x14 (y0): ").append(topo.y0).append("\r\n");
+            sb.append("    0x16 (base height): ").append(topo.baseHeight).append("\r\n");
+            sb.append("    0x18 (cos a): ").append(topo.getCos()).append("\r\n");
+            sb.append("    0x1A (sin a): ").append(topo.getSin()).append("\r\n");
+            sb.append("        alpha = ").append(topo.getAngle()).append("\r\n");
             sb.append("}\r\n");
         }
 
@@ -258,24 +407,18 @@ public class WorldDecode
         sb.append("\r\n");
 
         sb.append("Found the following height patches...").append("\r\n\r\n");
-        for (int offset : linkedObjects) {
-            sb.append("Offset: ").append(HexUtil.formatHex(offset)).append("\r\n");
-            if (offset > 0 && offset < fileData.length-0x16) {
-                sb.append(" 0x00 (x0): ").append(DataUtil.getLEInt(fileData, offset)).append("\r\n");
-                sb.append(" 0x04 (y0): ").append(DataUtil.getLEInt(fileData, offset + 4)).append("\r\n");
-
-                int patchWidth = DataUtil.getLEInt(fileData, offset + 0x08);
-                int patchHeight = DataUtil.getLEInt(fileData, offset + 0x0C);
-
-                sb.append(" Dimensions=").append(patchWidth).append(" x ").append(patchHeight).append("\r\n\r\n");
-
-                sb.append(" 0x10 (min height): ").append(DataUtil.getLEShort(fileData, offset + 0x10)).append("\r\n");
-                sb.append(" 0x12 (max height): ").append(DataUtil.getLEShort(fileData, offset + 0x12)).append("\r\n");
-                if (gameType == GameType.DARK_ALLIANCE) {
-                    for (int y = 0; y < patchHeight; ++y) {
-                        for (int x = 0; x < patchWidth; ++x) {
-                            int i = y * patchWidth + x;
-                            sb.append(DataUtil.getLEShort(fileData, offset + 0x14 + i * 2) / 16).append("\r\n");
+        for (WorldData.HeightPatch patch : world.getHeightPatches()) {
+            sb.append("Offset: ").append(HexUtil.formatHex(patch.offset)).append("\r\n");
+            if (patch.valid) {
+                sb.append(" 0x00 (x0): ").append(patch.x0).append("\r\n");
+                sb.append(" 0x04 (y0): ").append(patch.y0).append("\r\n");
+                sb.append(" Dimensions=").append(patch.width).append(" x ").append(patch.height).append("\r\n\r\n");
+                sb.append(" 0x10 (min height): ").append(patch.minHeight).append("\r\n");
+                sb.append(" 0x12 (max height): ").append(patch.maxHeight).append("\r\n");
+                if (patch.hasHeights()) {
+                    for (int y = 0; y < patch.height; ++y) {
+                        for (int x = 0; x < patch.width; ++x) {
+                            sb.append(patch.getRawHeight(x, y) / 16).append("\r\n");
                         }
                         sb.append("--\r\n");
                     }
@@ -283,46 +426,22 @@ public class WorldDecode
             }
         }
 
-
-        List<Integer> meshOffsets = new ArrayList<>();
-        List<Integer> meshLengths = new ArrayList<>();
-
         sb.append("-----------------------------------------------------\r\n");
         sb.append("\r\n");
-        sb.append("Elements (24) array - ").append(numElements).append(" elements\r\n \r\n");
-        for (int i = 0; i < numElements; ++i) {
-            int off=0;
+        sb.append("Elements (24) array - ").append(world.numElements).append(" elements\r\n \r\n");
+        i = 0;
+        for (WorldData.Element element : world.getElements()) {
+            sb.append(i++).append(" : ").append(HexUtil.formatHex(element.offset)).append("{\r\n");
+            sb.append("    vif Data: ").append(HexUtil.formatHex(element.meshOffset)).append("\r\n");
             if (gameType == GameType.DARK_ALLIANCE) {
-                off = elementBase + i * 0x38;
-            } else {
-                off = elementBase + i * 0x3C;
-            }
-            sb.append(i).append(" : ").append(HexUtil.formatHex(off)).append("{\r\n");
-            // offset 0 points to a vif mesh object. Mesh data starts at offset 0x20.
-            int meshOffset = DataUtil.getLEInt(fileData, off);
-
-            sb.append("    vif Data: ").append(HexUtil.formatHex(meshOffset)).append("\r\n");
-            off +=4;
-            if (gameType == GameType.DARK_ALLIANCE) {
-                sb.append("    tex2: ").append(HexUtil.formatHex(DataUtil.getLEInt(fileData, off))).append("\r\n");
-                off += 4;
+                sb.append("    tex2: ").append(HexUtil.formatHex(element.tex2)).append("\r\n");
             }
-            // in 16 byte units
-            int meshDataLen = DataUtil.getLEInt(fileData, off);
-            off += 4;
-            sb.append("    vif Data Len: ").append(HexUtil.formatHex(meshDataLen)).append("\r\n");
-
-            float bbx1 = DataUtil.getLEFloat(fileData, off);
-            float bby1 = DataUtil.getLEFloat(fileData, off + 0x04);
-            float bbz1 = DataUtil.getLEFloat(fileData, off + 0x08);
-            float bbx2 = DataUtil.getLEFloat(fileData, off + 0x0C);
-            float bby2 = DataUtil.getLEFloat(fileData, off + 0x10);
-            float bbz2 = DataUtil.getLEFloat(fileData, off + 0x14);
-            off += 0x18;
-
+            sb.append("    vif Data Len: ").append(HexUtil.formatHex(element.meshLength)).append("\r\n");
 
-            sb.append("    Bounding Box: ").append(bbx1).append(", ").append(bby1).append(", ").append(bbz1).append("; ");
-            sb.append(bbx2).append(", ").append(bby2).append(", ").append(bbz2);
+            float bbx1 = element.getBound(0);
+            sb.append("    Bounding Box: ").append(bbx1).append(", ").append(element.getBound(1)).append(", ");
+            sb.append(element.getBound(2)).append("; ");
+            sb.append(element.getBound(3)).append(", ").append(element.getBound(4)).append(", ").append(element.getBound(5));
             sb.append("\r\n");
 
             int cellx1 = ((int)bbx1 + 3540)/128;
@@ -333,89 +452,50 @@ public class WorldDecode
             sb.append("    Cell BB: ").append(cellx1).append(", ").append(celly1).append("; ");
             sb.append(cellx2).append(", ").append(celly2).append("\r\n");
 
-            // Chunk in texture
-            sb.append("    tex num: ").append(DataUtil.getLEInt(fileData, off)/0x40).append("\r\n");
-            sb.append("    tex cell: ").append(DataUtil.getLEShort(fileData, off + 4)).append("\r\n");
-            off += 6;
-            if (gameType != GameType.DARK_ALLIANCE) {
-                off += 2;
-            }
-            sb.append("    pos x: ").append(DataUtil.getLEShort(fileData, off)).append("\r\n");
-            sb.append("    pos y: ").append(DataUtil.getLEShort(fileData, off + 0x2)).append("\r\n");
-            sb.append("    pos z: ").append(DataUtil.getLEShort(fileData, off + 0x4)).append("\r\n");
-            off += 6;
-            int flags = DataUtil.getLEInt(fileData, off);
-            off += 4;
+            sb.append("    tex num: ").append(element.texNum/0x40).append("\r\n");
+            sb.append("    tex cell: ").append(element.texCell).append("\r\n");
+            sb.append("    pos x: ").append(element.posX).append("\r\n");
+            sb.append("    pos y: ").append(element.posY).append("\r\n");
+            sb.append("    pos z: ").append(element.posZ).append("\r\n");
             // test 0x800 for a flag.
-            sb.append("    flags30: ").append(HexUtil.formatHexUShort(flags)).append("\r\n");
-
-            sb.append("    0x32: ").append(HexUtil.formatHexUShort(DataUtil.getLEShort(fileData, off ))).append("\r\n");
-            sb.append("    0x34: ").append(HexUtil.formatHexUShort(DataUtil.getLEShort(fileData, off + 4))).append("\r\n");
+            sb.append("    flags30: ").append(HexUtil.formatHexUShort(element.flags)).append("\r\n");
+            sb.append("    0x32: ").append(HexUtil.formatHexUShort(element.u32)).append("\r\n");
+            sb.append("    0x34: ").append(HexUtil.formatHexUShort(element.u34)).append("\r\n");
             sb.append("}\r\n");
-
-            if (!meshOffsets.contains(meshOffset)) {
-                meshOffsets.add(meshOffset);
-                meshLengths.add(meshDataLen);
-            }
-
         }
 
-        Iterator<Integer> it = meshLengths.iterator();
-        for (int meshOffset : meshOffsets) {
-            Integer len = it.next();
-            VifDecode vifDecode = new VifDecode();
-            String meshName = HexUtil.formatHex(meshOffset) + "_mesh";
-
-            try {
-                byte nregs = fileData[meshOffset + 0x10];
-                int startOffset = (nregs + 2) * 0x10;
-                vifDecode.readVerts(fileData, meshOffset + startOffset, meshOffset + len * 0x10);
-                //vifDecode.writeObj(meshName, worldMeshDir, 240, 48, 128.0);
-            } catch (Exception e) {
-                e.printStackTrace();
+        decodeMeshes(world);
+        for (int m = 0; m < meshTable.size(); ++m) {
+            if (meshTable.getError(m) != null) {
+                sb.append("Failed to decode mesh ").append(HexUtil.formatHex(meshTable.getOffset(m)));
+                sb.append(": ").append(meshTable.getError(m)).append("\r\n");
             }
         }
         sb.append("-----------------------------------------------------\r\n");
         sb.append("\r\n");
-        sb.append("Elements (38) array - ").append(numElements).append(" elements\r\n \r\n");
-        // points to an array of 16 bit values, each of which is actually an unsigned byte.
-        for (int y = 0; y < rows_38; ++y) {
-            for (int x = 0; x < cols_38; ++x) {
-                int val = DataUtil.getLEUShort(fileData, offset38 + 2 * (y * cols_38 + x));
-                val &= 0xFF;
-                if (val == 0){
+        sb.append("Elements (38) array - ").append(world.numElements).append(" elements\r\n \r\n");
+        for (int y = 0; y < world.rows38; ++y) {
+            for (int x = 0; x < world.cols38; ++x) {
+                if (world.getGrid38(x, y) == 0){
                     sb.append(" ");
                 } else {
                     sb.append("x");
                 }
-                //sb.append(HexUtil.formatHexByte(val)).append(" ");
             }
             sb.append("\r\n");
         }
 
-        decodeTextureGrid(sb, levelTexFile, outDirFile);
+        decodeTextureGrid(sb, world, levelTexFile, outDirFile);
 
         return sb.toString();
     }
 
-    private void decodeTextureGrid(StringBuilder sb, File levelTexFile, File outDirFile)
+    private void decodeTextureGrid(StringBuilder sb, WorldData world, File levelTexFile, File outDirFile)
     {
         sb.append("-----------------------------------------------------\r\n");
         sb.append("\r\n");
         sb.append("Texture grid\r\n");
 
-        int xymin =DataUtil.getLEInt(fileData, 0x58);
-        int xymax =DataUtil.getLEInt(fileData, 0x5C);
-
-        int xmin = xymin % 100;
-        int ymin = xymin / 100;
-        int xmax = xymax % 100;
-        int ymax = xymax / 100;
-
-        // Each entry is 2 integers. First one gives the offset into the texture file. Second one is the
-        // data length. Each row is 100 entries long. The number of rows is given by the values in 0x58 and 0x5C
-        int textureArrayOffset = DataUtil.getLEInt(fileData, 0x64);
-
         LevelTexDecode levelTexDecoder = new LevelTexDecode();
         boolean canExportTextures=true;
         try {
@@ -423,13 +503,12 @@ public class WorldDecode
         } catch (IOException ioe){
             canExportTextures=false;
         }
-        for (int y=ymin; y<=ymax; ++y){
-            for (int x=xmin; x <= xmax; ++x){
-                int entryOffset = textureArrayOffset + (x-xmin)*8 + 800 * (y-ymin);
-                int texOffset = DataUtil.getLEInt(fileData, entryOffset);
-                int texLen = DataUtil.getLEInt(fileData, entryOffset+4);
+        for (int y=world.getTextureGridYMin(); y<=world.getTextureGridYMax(); ++y){
+            for (int x=world.getTextureGridXMin(); x <= world.getTextureGridXMax(); ++x){
+                WorldData.TextureGridEntry entry = world.getTextureGridEntry(x, y);
+                int texOffset = entry.texOffset;
                 sb.append("Tex entry (").append(x).append(",").append(y).append(") = Offset ");
-                sb.append(HexUtil.formatHex(texOffset)).append(", len ").append(HexUtil.formatHex(texLen));
+                sb.append(HexUtil.formatHex(texOffset)).append(", len ").append(HexUtil.formatHex(entry.texLength));
                 sb.append("\r\n");
                 if (canExportTextures){
                     int n = levelTexDecoder.getNumEntries(texOffset);
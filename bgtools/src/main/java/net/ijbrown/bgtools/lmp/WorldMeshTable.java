@@ -0,0 +1,261 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The meshes of a world, decoded in parallel.
+ * Mesh i is always the one at getOffset(i), whatever order the threads finish in.
+ * A mesh that fails to decode has a null mesh and its exception is kept in getError.
+ * Meshes whose VIF data is byte for byte the same are only decoded once. They share the same Mesh object
+ * and getSharedIndex gives the first of them, so exporters can write each one once.
+ */
+public class WorldMeshTable
+{
+    // Meshes decoded by each leaf task. Each leaf uses one VifDecode for all of them, so its buffers get reused.
+    private static final int MESHES_PER_TASK = 4;
+
+    private final int[] offsets;
+    private final VifDecode.Mesh[] meshes;
+    private final Exception[] errors;
+    private final int[] shared;
+
+    private final int[] sortedOffsets;
+    private final int[] sortedIndices;
+
+    private WorldMeshTable(int[] offsets)
+    {
+        this.offsets = offsets;
+        meshes = new VifDecode.Mesh[offsets.length];
+        errors = new Exception[offsets.length];
+        shared = new int[offsets.length];
+
+        long[] keyed = new long[offsets.length];
+        for (int i = 0; i < offsets.length; ++i) {
+            keyed[i] = ((long) offsets[i] << 32) | i;
+        }
+        Arrays.sort(keyed);
+        sortedOffsets = new int[offsets.length];
+        sortedIndices = new int[offsets.length];
+        for (int i = 0; i < keyed.length; ++i) {
+            sortedOffsets[i] = (int) (keyed[i] >> 32);
+            sortedIndices[i] = (int) keyed[i];
+        }
+    }
+
+    /**
+     * Decodes the world meshes on the common fork join pool.
+     *
+     * @param offsets The offset of each mesh in the world file.
+     * @param lengths The length of each mesh in 16 byte units.
+     */
+    public static WorldMeshTable decode(BinaryReader data, int[] offsets, int[] lengths)
+    {
+        return decode(data, offsets, lengths, ForkJoinPool.commonPool());
+    }
+
+    public static WorldMeshTable decode(BinaryReader data, int[] offsets, int[] lengths, ForkJoinPool pool)
+    {
+        WorldMeshTable table = new WorldMeshTable(offsets.clone());
+        table.findDuplicates(data, lengths);
+        pool.invoke(new DecodeTask(table, data, lengths, 0, offsets.length));
+        for (int i = 0; i < offsets.length; ++i) {
+            table.meshes[i] = table.meshes[table.shared[i]];
+            table.errors[i] = table.errors[table.shared[i]];
+        }
+        return table;
+    }
+
+    public int size()
+    {
+        return offsets.length;
+    }
+
+    public int getOffset(int i)
+    {
+        return offsets[i];
+    }
+
+    public VifDecode.Mesh getMesh(int i)
+    {
+        return meshes[i];
+    }
+
+    public Exception getError(int i)
+    {
+        return errors[i];
+    }
+
+    /**
+     * @return The index of the first mesh with the same data as mesh i, which is i itself if it is the first.
+     */
+    public int getSharedIndex(int i)
+    {
+        return shared[i];
+    }
+
+    /**
+     * @return The number of meshes with different data.
+     */
+    public int getNumUnique()
+    {
+        int n = 0;
+        for (int i = 0; i < shared.length; ++i) {
+            if (shared[i] == i) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    public int getNumErrors()
+    {
+        int n = 0;
+        for (Exception e : errors) {
+            if (e != null) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return The index of the mesh at the given offset, or -1 if there isn't one.
+     */
+    public int indexOf(int offset)
+    {
+        int i = Arrays.binarySearch(sortedOffsets, offset);
+        return i < 0 ? -1 : sortedIndices[i];
+    }
+
+    // Sets shared[i] for each mesh. Meshes are grouped by a hash of their data and then compared byte by byte.
+    // Meshes whose data isn't all in the file are never shared, so they are left out.
+    private void findDuplicates(BinaryReader data, int[] lengths)
+    {
+        int n = offsets.length;
+        long[] hashes = new long[n];
+        // The top half of the hash and the mesh index, so sorting groups the meshes with the same top half in order.
+        long[] keyed = new long[n];
+        int count = 0;
+        for (int i = 0; i < n; ++i) {
+            shared[i] = i;
+            if (isInFile(data, i, lengths[i])) {
+                hashes[i] = hashBlob(data, offsets[i], lengths[i] * 0x10);
+                keyed[count++] = (hashes[i] & 0xFFFFFFFF00000000L) | i;
+            }
+        }
+        Arrays.sort(keyed, 0, count);
+
+        int groupStart = 0;
+        while (groupStart < count) {
+            int groupEnd = groupStart + 1;
+            while (groupEnd < count && (keyed[groupEnd] >>> 32) == (keyed[groupStart] >>> 32)) {
+                ++groupEnd;
+            }
+            for (int j = groupStart + 1; j < groupEnd; ++j) {
+                int mesh = (int) keyed[j];
+                for (int k = groupStart; k < j; ++k) {
+                    int other = (int) keyed[k];
+                    if (shared[other] == other && hashes[other] == hashes[mesh] && lengths[other] == lengths[mesh]
+                            && blobsEqual(data, offsets[other], offsets[mesh], lengths[mesh] * 0x10)) {
+                        shared[mesh] = other;
+                        break;
+                    }
+                }
+            }
+            groupStart = groupEnd;
+        }
+    }
+
+    private boolean isInFile(BinaryReader data, int i, int length)
+    {
+        return length > 0 && offsets[i] >= 0 && (long) offsets[i] + length * 0x10L <= data.length();
+    }
+
+    private static long hashBlob(BinaryReader data, int offset, int length)
+    {
+        long h = length;
+        for (int i = 0; i < length; i += 4) {
+            h = (h ^ data.getInt(offset + i)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    private static boolean blobsEqual(BinaryReader data, int offsetA, int offsetB, int length)
+    {
+        for (int i = 0; i < length; i += 4) {
+            if (data.getInt(offsetA + i) != data.getInt(offsetB + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void decodeMesh(VifDecode vifDecode, BinaryReader data, int i, int length)
+    {
+        if (shared[i] != i) {
+            // Filled in from the first copy once everything has been decoded.
+            return;
+        }
+        int meshOffset = offsets[i];
+        try {
+            int nregs = data.getByte(meshOffset + 0x10);
+            int startOffset = (nregs + 2) * 0x10;
+            meshes[i] = vifDecode.decodeMesh(data, meshOffset + startOffset, meshOffset + length * 0x10);
+        } catch (Exception e) {
+            errors[i] = e;
+        }
+    }
+
+    private static final class DecodeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final WorldMeshTable table;
+        private final BinaryReader data;
+        private final int[] lengths;
+        private final int start;
+        private final int end;
+
+        DecodeTask(WorldMeshTable table, BinaryReader data, int[] lengths, int start, int end)
+        {
+            this.table = table;
+            this.data = data;
+            this.lengths = lengths;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (end - start <= MESHES_PER_TASK) {
+                VifDecode vifDecode = new VifDecode();
+                for (int i = start; i < end; ++i) {
+                    table.decodeMesh(vifDecode, data, i, lengths[i]);
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new DecodeTask(table, data, lengths, start, mid),
+                        new DecodeTask(table, data, lengths, mid, end));
+            }
+        }
+    }
+}
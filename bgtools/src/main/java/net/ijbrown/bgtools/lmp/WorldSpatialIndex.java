@@ -0,0 +1,238 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Arrays;
+
+/**
+ * Finds the world elements whose bounding boxes touch a box or a view frustum.
+ * The elements are bucketed into a uniform grid in x and y with the same number of cells as the world's own
+ * cell grid, stretched over the area the elements cover. Each cell lists the elements that overlap it.
+ * Queries visit only the cells that they overlap and then test each element's box exactly.
+ * Queries reuse internal buffers, so an index should only be queried by one thread at a time.
+ */
+public class WorldSpatialIndex
+{
+    /** minX, minY, minZ, maxX, maxY, maxZ for each element. */
+    private final float[] bounds;
+    private final int numElements;
+
+    private final int cols;
+    private final int rows;
+    private final float originX;
+    private final float originY;
+    private final float cellWidth;
+    private final float cellHeight;
+    private final float minZ;
+    private final float maxZ;
+
+    /** The elements in cell c are cellItems[cellStart[c]] to cellItems[cellStart[c + 1] - 1]. */
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    // For each element, the number of the last query that saw it, so an element in several cells is
+    // only reported once.
+    private final int[] seen;
+    private int queryNum = 0;
+    private int[] results = new int[64];
+    private int numResults;
+
+    /**
+     * @param bounds minX, minY, minZ, maxX, maxY, maxZ for each element. The mins and maxes may be either way round.
+     * @param cols   The number of grid cells across.
+     * @param rows   The number of grid cells down.
+     */
+    public WorldSpatialIndex(float[] bounds, int cols, int rows)
+    {
+        numElements = bounds.length / 6;
+        this.bounds = new float[numElements * 6];
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, z0 = Float.MAX_VALUE;
+        float x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE, z1 = -Float.MAX_VALUE;
+        for (int e = 0; e < numElements; ++e) {
+            int i = e * 6;
+            for (int axis = 0; axis < 3; ++axis) {
+                this.bounds[i + axis] = Math.min(bounds[i + axis], bounds[i + 3 + axis]);
+                this.bounds[i + 3 + axis] = Math.max(bounds[i + axis], bounds[i + 3 + axis]);
+            }
+            x0 = Math.min(x0, this.bounds[i]);
+            y0 = Math.min(y0, this.bounds[i + 1]);
+            z0 = Math.min(z0, this.bounds[i + 2]);
+            x1 = Math.max(x1, this.bounds[i + 3]);
+            y1 = Math.max(y1, this.bounds[i + 4]);
+            z1 = Math.max(z1, this.bounds[i + 5]);
+        }
+        if (numElements == 0) {
+            x0 = y0 = z0 = x1 = y1 = z1 = 0;
+        }
+        this.cols = Math.max(cols, 1);
+        this.rows = Math.max(rows, 1);
+        originX = x0;
+        originY = y0;
+        cellWidth = Math.max(x1 - x0, 1.0f) / this.cols;
+        cellHeight = Math.max(y1 - y0, 1.0f) / this.rows;
+        minZ = z0;
+        maxZ = z1;
+
+        // Count the elements in each cell, then fill them in.
+        int numCells = this.cols * this.rows;
+        cellStart = new int[numCells + 1];
+        for (int e = 0; e < numElements; ++e) {
+            int cx0 = cellX(this.bounds[e * 6]), cx1 = cellX(this.bounds[e * 6 + 3]);
+            int cy0 = cellY(this.bounds[e * 6 + 1]), cy1 = cellY(this.bounds[e * 6 + 4]);
+            for (int cy = cy0; cy <= cy1; ++cy) {
+                for (int cx = cx0; cx <= cx1; ++cx) {
+                    ++cellStart[cy * this.cols + cx + 1];
+                }
+            }
+        }
+        for (int c = 0; c < numCells; ++c) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellItems = new int[cellStart[numCells]];
+        int[] fill = Arrays.copyOf(cellStart, numCells);
+        for (int e = 0; e < numElements; ++e) {
+            int cx0 = cellX(this.bounds[e * 6]), cx1 = cellX(this.bounds[e * 6 + 3]);
+            int cy0 = cellY(this.bounds[e * 6 + 1]), cy1 = cellY(this.bounds[e * 6 + 4]);
+            for (int cy = cy0; cy <= cy1; ++cy) {
+                for (int cx = cx0; cx <= cx1; ++cx) {
+                    cellItems[fill[cy * this.cols + cx]++] = e;
+                }
+            }
+        }
+        seen = new int[numElements];
+    }
+
+    public int size()
+    {
+        return numElements;
+    }
+
+    /**
+     * Finds the elements whose boxes overlap the given box, touching counts.
+     *
+     * @return The element numbers in ascending order.
+     */
+    public int[] query(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        startQuery();
+        int cx0 = cellX(minX), cx1 = cellX(maxX);
+        int cy0 = cellY(minY), cy1 = cellY(maxY);
+        if (maxX >= originX && maxY >= originY && minX <= originX + cellWidth * cols && minY <= originY + cellHeight * rows) {
+            for (int cy = cy0; cy <= cy1; ++cy) {
+                for (int cx = cx0; cx <= cx1; ++cx) {
+                    int c = cy * cols + cx;
+                    for (int i = cellStart[c]; i < cellStart[c + 1]; ++i) {
+                        int e = cellItems[i];
+                        if (seen[e] != queryNum) {
+                            seen[e] = queryNum;
+                            int b = e * 6;
+                            if (bounds[b] <= maxX && bounds[b + 3] >= minX && bounds[b + 1] <= maxY && bounds[b + 4] >= minY
+                                    && bounds[b + 2] <= maxZ && bounds[b + 5] >= minZ) {
+                                addResult(e);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return finishQuery();
+    }
+
+    /**
+     * Finds the elements whose boxes are at least partly inside a frustum.
+     * The test is conservative: a box near a corner of the frustum may be reported even though it is just outside.
+     *
+     * @param planes a, b, c, d for each plane, such that a point is inside when a*x + b*y + c*z + d >= 0.
+     * @return The element numbers in ascending order.
+     */
+    public int[] query(float[] planes)
+    {
+        startQuery();
+        for (int cy = 0; cy < rows; ++cy) {
+            for (int cx = 0; cx < cols; ++cx) {
+                float x0 = originX + cx * cellWidth;
+                float y0 = originY + cy * cellHeight;
+                if (!boxInside(planes, x0, y0, minZ, x0 + cellWidth, y0 + cellHeight, maxZ)) {
+                    continue;
+                }
+                int c = cy * cols + cx;
+                for (int i = cellStart[c]; i < cellStart[c + 1]; ++i) {
+                    int e = cellItems[i];
+                    if (seen[e] != queryNum) {
+                        seen[e] = queryNum;
+                        int b = e * 6;
+                        if (boxInside(planes, bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+                            addResult(e);
+                        }
+                    }
+                }
+            }
+        }
+        return finishQuery();
+    }
+
+    // A box is outside if its corner furthest along a plane's normal is behind that plane.
+    private static boolean boxInside(float[] planes, float x0, float y0, float z0, float x1, float y1, float z1)
+    {
+        for (int p = 0; p + 3 < planes.length; p += 4) {
+            float a = planes[p], b = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+            float x = a >= 0 ? x1 : x0;
+            float y = b >= 0 ? y1 : y0;
+            float z = c >= 0 ? z1 : z0;
+            if (a * x + b * y + c * z + d < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int cellX(float x)
+    {
+        int c = (int) ((x - originX) / cellWidth);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    private int cellY(float y)
+    {
+        int c = (int) ((y - originY) / cellHeight);
+        return Math.max(0, Math.min(rows - 1, c));
+    }
+
+    private void startQuery()
+    {
+        if (++queryNum == 0) {
+            // Wrapped around, so old marks could look current.
+            Arrays.fill(seen, 0);
+            queryNum = 1;
+        }
+        numResults = 0;
+    }
+
+    private void addResult(int e)
+    {
+        if (numResults == results.length) {
+            results = Arrays.copyOf(results, results.length * 2);
+        }
+        results[numResults++] = e;
+    }
+
+    private int[] finishQuery()
+    {
+        int[] found = Arrays.copyOf(results, numResults);
+        Arrays.sort(found);
+        return found;
+    }
+}
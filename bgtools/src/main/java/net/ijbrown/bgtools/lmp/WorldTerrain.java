@@ -0,0 +1,239 @@
+/*  Copyright (C) 2011 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.bgtools.lmp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The terrain of a world, made from the height patches that the topo elements place.
+ * All the heights are packed into one short array, and a patch used by several topo elements is only stored once.
+ * Each topo element puts its patch at x0, y0, rotated by its cos a / sin a and raised by its base height.
+ * Patch coordinates are in samples, so sample gx, gy of a patch is at (patch x0 + gx, patch y0 + gy) before
+ * the rotation. Heights are stored in 1/16ths like in the file and returned in whole units.
+ * Sampling reuses buffers, so a terrain should only be sampled by one thread at a time.
+ */
+public class WorldTerrain
+{
+    private final int numTopos;
+    private final short[] heights;
+
+    // Per topo element. patchStart is -1 for an element without height data.
+    private final int[] patchStart;
+    private final int[] patchWidth;
+    private final int[] patchHeight;
+    private final int[] patchX0;
+    private final int[] patchY0;
+    private final float[] originX;
+    private final float[] originY;
+    private final float[] baseHeight;
+    private final float[] cos;
+    private final float[] sin;
+
+    /** The topo elements that have heights, and a box around each of them. */
+    private final int[] indexedTopos;
+    private final WorldSpatialIndex index;
+
+    public WorldTerrain(WorldData world)
+    {
+        List<WorldData.TopoElement> topos = world.getTopoElements();
+        numTopos = topos.size();
+        patchStart = new int[numTopos];
+        patchWidth = new int[numTopos];
+        patchHeight = new int[numTopos];
+        patchX0 = new int[numTopos];
+        patchY0 = new int[numTopos];
+        originX = new float[numTopos];
+        originY = new float[numTopos];
+        baseHeight = new float[numTopos];
+        cos = new float[numTopos];
+        sin = new float[numTopos];
+
+        // Pack each patch once, in the order the world lists them.
+        List<WorldData.HeightPatch> patches = world.getHeightPatches();
+        IntSet patchOffsets = new IntSet(patches.size());
+        int[] packedStarts = new int[patches.size()];
+        int total = 0;
+        for (WorldData.HeightPatch patch : patches) {
+            patchOffsets.add(patch.offset);
+            packedStarts[patchOffsets.size() - 1] = total;
+            if (patch.valid && patch.hasHeights()) {
+                total += patch.width * patch.height;
+            }
+        }
+        heights = new short[total];
+        for (int p = 0; p < patches.size(); ++p) {
+            WorldData.HeightPatch patch = patches.get(p);
+            if (patch.valid && patch.hasHeights()) {
+                for (int gy = 0; gy < patch.height; ++gy) {
+                    for (int gx = 0; gx < patch.width; ++gx) {
+                        heights[packedStarts[p] + gy * patch.width + gx] = patch.getRawHeight(gx, gy);
+                    }
+                }
+            }
+        }
+
+        int[] withHeights = new int[numTopos];
+        float[] bounds = new float[numTopos * 6];
+        int numIndexed = 0;
+        for (int t = 0; t < numTopos; ++t) {
+            WorldData.TopoElement topo = topos.get(t);
+            originX[t] = topo.x0;
+            originY[t] = topo.y0;
+            baseHeight[t] = topo.baseHeight;
+            cos[t] = (float) topo.getCos();
+            sin[t] = (float) topo.getSin();
+            patchStart[t] = -1;
+            int p = patchOffsets.indexOf(topo.patchOffset);
+            WorldData.HeightPatch patch = p < 0 ? null : patches.get(p);
+            if (patch == null || !patch.valid || !patch.hasHeights()) {
+                continue;
+            }
+            patchStart[t] = packedStarts[p];
+            patchWidth[t] = patch.width;
+            patchHeight[t] = patch.height;
+            patchX0[t] = patch.x0;
+            patchY0[t] = patch.y0;
+            findBounds(t, patch, bounds, numIndexed * 6);
+            withHeights[numIndexed++] = t;
+        }
+        indexedTopos = Arrays.copyOf(withHeights, numIndexed);
+        index = new WorldSpatialIndex(Arrays.copyOf(bounds, numIndexed * 6), world.cols, world.rows);
+    }
+
+    // The world box of a placed patch: its rotated corners in x and y, and its min and max heights in z.
+    private void findBounds(int t, WorldData.HeightPatch patch, float[] bounds, int b)
+    {
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; ++corner) {
+            float lx = patch.x0 + ((corner & 1) == 0 ? 0 : patch.width - 1);
+            float ly = patch.y0 + ((corner & 2) == 0 ? 0 : patch.height - 1);
+            float wx = originX[t] + lx * cos[t] - ly * sin[t];
+            float wy = originY[t] + lx * sin[t] + ly * cos[t];
+            x0 = Math.min(x0, wx);
+            y0 = Math.min(y0, wy);
+            x1 = Math.max(x1, wx);
+            y1 = Math.max(y1, wy);
+        }
+        bounds[b] = x0;
+        bounds[b + 1] = y0;
+        bounds[b + 2] = baseHeight[t] + patch.minHeight / 16.0f;
+        bounds[b + 3] = x1;
+        bounds[b + 4] = y1;
+        bounds[b + 5] = baseHeight[t] + patch.maxHeight / 16.0f;
+    }
+
+    public int getNumTopoElements()
+    {
+        return numTopos;
+    }
+
+    public boolean hasHeights(int topo)
+    {
+        return patchStart[topo] >= 0;
+    }
+
+    public int getPatchWidth(int topo)
+    {
+        return patchWidth[topo];
+    }
+
+    public int getPatchHeight(int topo)
+    {
+        return patchHeight[topo];
+    }
+
+    /**
+     * @return The height of sample gx, gy of the patch placed by a topo element, including its base height.
+     */
+    public float getHeight(int topo, int gx, int gy)
+    {
+        return baseHeight[topo] + heights[patchStart[topo] + gy * patchWidth[topo] + gx] / 16.0f;
+    }
+
+    /**
+     * @return The height of the sample nearest to x, y, or NaN if no patch covers that point.
+     */
+    public float sampleNearest(float x, float y)
+    {
+        int[] found = index.query(x, y, -Float.MAX_VALUE, x, y, Float.MAX_VALUE);
+        for (int i : found) {
+            int t = indexedTopos[i];
+            float lx = localX(t, x, y), ly = localY(t, x, y);
+            int gx = Math.round(lx), gy = Math.round(ly);
+            if (gx >= 0 && gy >= 0 && gx < patchWidth[t] && gy < patchHeight[t]) {
+                return getHeight(t, gx, gy);
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * @return The height at x, y interpolated between the four samples around it, or NaN if no patch covers
+     * that point.
+     */
+    public float sampleBilinear(float x, float y)
+    {
+        int[] found = index.query(x, y, -Float.MAX_VALUE, x, y, Float.MAX_VALUE);
+        for (int i : found) {
+            int t = indexedTopos[i];
+            float lx = localX(t, x, y), ly = localY(t, x, y);
+            if (lx < 0 || ly < 0 || lx > patchWidth[t] - 1 || ly > patchHeight[t] - 1) {
+                continue;
+            }
+            int gx = Math.min((int) lx, patchWidth[t] - 1);
+            int gy = Math.min((int) ly, patchHeight[t] - 1);
+            int gx1 = Math.min(gx + 1, patchWidth[t] - 1);
+            int gy1 = Math.min(gy + 1, patchHeight[t] - 1);
+            float fx = lx - gx, fy = ly - gy;
+            float h0 = getHeight(t, gx, gy) * (1 - fx) + getHeight(t, gx1, gy) * fx;
+            float h1 = getHeight(t, gx, gy1) * (1 - fx) + getHeight(t, gx1, gy1) * fx;
+            return h0 * (1 - fy) + h1 * fy;
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Moves each x, y, z position in place onto the terrain. Positions that no patch covers are left alone.
+     *
+     * @return The number of positions that were moved.
+     */
+    public int clampToGround(float[] positions)
+    {
+        int n = 0;
+        for (int i = 0; i + 2 < positions.length; i += 3) {
+            float h = sampleBilinear(positions[i], positions[i + 1]);
+            if (!Float.isNaN(h)) {
+                positions[i + 2] = h;
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    // World x, y to sample coordinates in a patch, undoing the rotation.
+    private float localX(int t, float x, float y)
+    {
+        float dx = x - originX[t], dy = y - originY[t];
+        return dx * cos[t] + dy * sin[t] - patchX0[t];
+    }
+
+    private float localY(int t, float x, float y)
+    {
+        float dx = x - originX[t], dy = y - originY[t];
+        return -dx * sin[t] + dy * cos[t] - patchY0[t];
+    }
+}
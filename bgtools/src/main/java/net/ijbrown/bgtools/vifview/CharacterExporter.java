@@ -28,6 +28,10 @@ public class CharacterExporter
         characterModel.read();
 
         Gltf gltf = new Gltf(characterModel.getMeshes(), characterModel.getTexture());
-        gltf.write("", exportFilename);
+        for (int i = 0; i < characterModel.getExtraMeshes().size(); ++i) {
+            gltf.addPart(characterConfig.extras[i].vif, characterModel.getExtraMeshes().get(i),
+                    characterModel.getExtraTextures().get(i));
+        }
+        gltf.write("", GltfOutput.stripExtension(exportFilename), GltfOutput.formatOf(exportFilename));
     }
 }
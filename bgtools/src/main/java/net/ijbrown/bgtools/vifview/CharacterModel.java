@@ -1,5 +1,6 @@
 package net.ijbrown.bgtools.vifview;
 
+import net.ijbrown.bgtools.lmp.BinaryReader;
 import net.ijbrown.bgtools.lmp.Lmp;
 import net.ijbrown.bgtools.lmp.TexDecode;
 import net.ijbrown.bgtools.lmp.VifDecode;
@@ -11,6 +12,7 @@ import static org.lwjgl.system.MemoryUtil.memFree;
 
 import java.io.IOException;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -21,6 +23,8 @@ public class CharacterModel implements IGameItem
     private GameDataManager gameDataManager;
     private List<VifDecode.Mesh> bodyMeshes;
     private Texture bodyTexture;
+    private final List<List<VifDecode.Mesh>> extraMeshes = new ArrayList<>();
+    private final List<Texture> extraTextures = new ArrayList<>();
 
     public CharacterModel(GameDataManager gameDataManager, GameConfig.Character characterConfig) {
         this.gameDataManager = gameDataManager;
@@ -41,15 +45,45 @@ public class CharacterModel implements IGameItem
         return bodyTexture;
     }
 
+    /**
+     * The meshes of each of the character's extras, in the order of the config.
+     */
+    public List<List<VifDecode.Mesh>> getExtraMeshes()
+    {
+        return extraMeshes;
+    }
+
+    public List<Texture> getExtraTextures()
+    {
+        return extraTextures;
+    }
+
     public void read() throws IOException {
         lmp = gameDataManager.getLmp(characterConfig.lmp);
         var bodyVif = lmp.findEntry(characterConfig.body.vif);
-        bodyMeshes = new VifDecode().decode(bodyVif.data, bodyVif.offset);
-        var bodyTex = lmp.findEntry(characterConfig.body.tex);
+        bodyMeshes = new VifDecode().decode(new BinaryReader(bodyVif.buffer), 0);
+        bodyTexture = readTexture(characterConfig.body.tex);
+
+        if (characterConfig.extras != null) {
+            for (var extra : characterConfig.extras) {
+                var extraVif = lmp.findEntry(extra.vif);
+                if (extraVif == null) {
+                    throw new IOException("Couldn't find " + extra.vif + " in " + characterConfig.lmp);
+                }
+                extraMeshes.add(new VifDecode().decode(new BinaryReader(extraVif.buffer), 0));
+                // Extras without a texture of their own use the body's.
+                extraTextures.add(extra.tex == null ? bodyTexture : readTexture(extra.tex));
+            }
+        }
+    }
+
+    private Texture readTexture(String name) {
+        var texEntry = lmp.findEntry(name);
         var decoder = new TexDecode();
-        var decodedTex = decoder.decodeTex(bodyTex.data, bodyTex.offset, bodyTex.length);
-        bodyTexture = new Texture();
-        bodyTexture.loadTexture(decodedTex);
+        var decodedTex = decoder.decodeTex(new BinaryReader(texEntry.buffer), 0, texEntry.length);
+        var texture = new Texture();
+        texture.loadTexture(decodedTex);
+        return texture;
     }
 
     @Override
@@ -60,9 +94,8 @@ public class CharacterModel implements IGameItem
 
         for (var mesh : bodyMeshes) {
 
-            float[] verticesRaw = upwrapVertices(mesh.vertices);
-            FloatBuffer verticesBuffer = MemoryUtil.memAllocFloat(verticesRaw.length);
-            verticesBuffer.put(verticesRaw).flip();
+            FloatBuffer verticesBuffer = MemoryUtil.memAllocFloat(mesh.numVertices * 3);
+            verticesBuffer.put(mesh.positions, 0, mesh.numVertices * 3).flip();
 
             // The attribute array. Holds the buffer array(s)
             var vaoId = glGenVertexArrays();
@@ -79,7 +112,7 @@ public class CharacterModel implements IGameItem
 
             // Texture coordinates VBO
             var uvVboId = glGenBuffers();
-            float[] uvsRaw = upwrapUVs(mesh.uvCoords, bodyTexture.width, bodyTexture.height);
+            float[] uvsRaw = upwrapUVs(mesh, bodyTexture.width, bodyTexture.height);
             FloatBuffer textCoordsBuffer = MemoryUtil.memAllocFloat(uvsRaw.length);
             textCoordsBuffer.put(uvsRaw).flip();
             glBindBuffer(GL_ARRAY_BUFFER, uvVboId);
@@ -88,12 +121,8 @@ public class CharacterModel implements IGameItem
             glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
 
             var idxVboId = glGenBuffers();
-            int[] indicesRaw = new int[mesh.triangleIndices.size()];
-            for (int i=0; i<mesh.triangleIndices.size(); ++i){
-                indicesRaw[i] = mesh.triangleIndices.get(i);
-            }
-            var indicesBuffer = MemoryUtil.memAllocInt(indicesRaw.length);
-            indicesBuffer.put(indicesRaw).flip();
+            var indicesBuffer = MemoryUtil.memAllocInt(mesh.numIndices);
+            indicesBuffer.put(mesh.indices, 0, mesh.numIndices).flip();
             glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, idxVboId);
             glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
             memFree(indicesBuffer);
@@ -102,7 +131,7 @@ public class CharacterModel implements IGameItem
             glPolygonMode( GL_FRONT_AND_BACK, GL_FILL );
             glDisable(GL_CULL_FACE);
             glEnable(GL_DEPTH_TEST);
-            glDrawElements(GL_TRIANGLES, mesh.triangleIndices.size(), GL_UNSIGNED_INT, 0);
+            glDrawElements(GL_TRIANGLES, mesh.numIndices, GL_UNSIGNED_INT, 0);
 
             glDeleteBuffers(vboId);
             glDeleteBuffers(uvVboId);
@@ -114,25 +143,13 @@ public class CharacterModel implements IGameItem
 
     }
 
-    private float[] upwrapUVs(List<VifDecode.UV> uvCoords, int sourceWidth, int sourceHeight) {
-        float[] out = new float[uvCoords.size()*2];
-        int i=0;
+    private float[] upwrapUVs(VifDecode.Mesh mesh, int sourceWidth, int sourceHeight) {
+        float[] out = new float[mesh.numVertices*2];
         float fw = (float)sourceWidth * 16.0f;
         float fh = (float)sourceHeight * 16.0f;
-        for (var uv : uvCoords){
-            out[i++] = uv.u / fw;
-            out[i++] = uv.v / fh;
-        }
-        return out;
-    }
-
-    private float[] upwrapVertices(List<VifDecode.Vec3F> vertices) {
-        float[] out = new float[vertices.size()*3];
-        int i=0;
-        for (var v : vertices){
-            out[i++] = v.x;
-            out[i++] = v.y;
-            out[i++] = v.z;
+        for (int i=0; i<out.length; i+=2){
+            out[i] = mesh.uvs[i] / fw;
+            out[i+1] = mesh.uvs[i+1] / fh;
         }
         return out;
     }
@@ -35,9 +35,17 @@ public class CliOptions extends OptionsBase {
     @Option(
             name = "export",
             abbrev = 'e',
-            help = "Export the character to the given filename (.gltf).",
+            help = "Export the character to the given filename (.glb, or .gltf for a separate .bin file).",
             defaultValue = ""
     )
     public String exportFilename;
 
+    @Option(
+            name = "level",
+            abbrev = 'l',
+            help = "Name of the level to export with --export instead of a character, as gob/world, e.g. tavern/pub.",
+            defaultValue = ""
+    )
+    public String level;
+
 }
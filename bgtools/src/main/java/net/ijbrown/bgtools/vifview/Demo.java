@@ -127,12 +127,15 @@ public class Demo {
         OptionsParser parser = OptionsParser.newOptionsParser(CliOptions.class);
         parser.parseAndExitUponError(args);
         CliOptions options = parser.getOptions(CliOptions.class);
-        if (options == null || options.dir.isEmpty() || options.help) {
+        if (options == null || options.dir.isEmpty() || options.help
+                || (!options.level.isEmpty() && options.exportFilename.isEmpty())) {
             printUsage(parser);
             return;
         }
 
-        if (options.exportFilename.isEmpty()) {
+        if (!options.level.isEmpty()) {
+            LevelExporter.exportLevel(options.dir, options.level, options.exportFilename);
+        } else if (options.exportFilename.isEmpty()) {
             new Demo().run(options.dir, options.character);
         } else {
             var exporter = new CharacterExporter();
@@ -1,11 +1,16 @@
 package net.ijbrown.bgtools.vifview;
 
+import net.ijbrown.bgtools.lmp.DataUtil;
 import net.ijbrown.bgtools.lmp.Lmp;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -68,15 +73,47 @@ public class GameDataManager
 
     private final Map<String, Lmp> lmpCache = new HashMap<>();
 
+    public Path getDataPath(String name) {
+        Path rootPath = FileSystems.getDefault().getPath(rootDir);
+        return rootPath.resolve(gameConfig.dataDir).resolve(name);
+    }
+
     public Lmp getLmp(String lmpName) throws IOException {
         if (!lmpCache.containsKey(lmpName)){
-            Path rootPath = FileSystems.getDefault().getPath(rootDir);
-            Path dataPath = rootPath.resolve(gameConfig.dataDir);
-            Path lmpPath = dataPath.resolve(lmpName);
+            Path lmpPath = getDataPath(lmpName);
             Lmp lmp = new Lmp(gameConfig.type);
-            lmp.readLmpFile(lmpPath);
+            lmp.mapLmpFile(lmpPath);
             lmpCache.put(lmpName, lmp);
         }
         return lmpCache.get(lmpName);
     }
+
+    /**
+     * Finds an lmp inside a gob file, such as tavern.lmp in tavern.gob.
+     * Each gob entry is 0x28 bytes, the name of the lmp followed by the offset of its data at 0x20.
+     *
+     * @return The lmp, or null if the gob doesn't contain it.
+     */
+    public Lmp getGobLmp(String gobName, String lmpName) throws IOException {
+        String key = gobName + "/" + lmpName;
+        if (!lmpCache.containsKey(key)){
+            ByteBuffer gobData;
+            try (FileChannel channel = FileChannel.open(getDataPath(gobName), StandardOpenOption.READ)) {
+                gobData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            int offset = 0;
+            String name = DataUtil.collectString(gobData, offset);
+            while (!name.isEmpty() && !name.equals(lmpName)){
+                offset += 0x28;
+                name = DataUtil.collectString(gobData, offset);
+            }
+            if (name.isEmpty()){
+                return null;
+            }
+            Lmp lmp = new Lmp(gameConfig.type);
+            lmp.readLmp(gobData, gobData.getInt(offset + 0x20));
+            lmpCache.put(key, lmp);
+        }
+        return lmpCache.get(key);
+    }
 }
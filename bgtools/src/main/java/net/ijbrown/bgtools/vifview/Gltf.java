@@ -2,29 +2,51 @@ package net.ijbrown.bgtools.vifview;
 
 import net.ijbrown.bgtools.lmp.VifDecode;
 
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
 
 // https://sandbox.babylonjs.com/ can view files
 
+/**
+ * Writes a character to glTF. The character is made of parts, such as the body and the extras, each with its own
+ * meshes and texture. Every mesh becomes a node under the scene's root node.
+ * The vertex data of all the meshes is interleaved in a single buffer view and the indices are in another.
+ * Skinned meshes share one skin. Its joints are placeholder nodes at the origin, as the skeleton isn't decoded.
+ */
 public class Gltf
 {
-    private final List<VifDecode.Mesh> meshes;
-    private Texture texture;
+    private static final int ARRAY_BUFFER = 34962;
+    private static final int ELEMENT_ARRAY_BUFFER = 34963;
+
+    // Each vertex is position, normal and uv as floats, then 4 joints and 4 weights as bytes.
+    private static final int VERTEX_STRIDE = 40;
+    private static final int NORMAL_OFFSET = 12;
+    private static final int UV_OFFSET = 24;
+    private static final int JOINTS_OFFSET = 32;
+    private static final int WEIGHTS_OFFSET = 36;
+
+    private static class Part
+    {
+        public String name;
+        public List<VifDecode.Mesh> meshes;
+        public Texture texture;
+        public int material = -1;
+    }
+
+    private final List<Part> parts = new ArrayList<>();
 
     private static class Node
     {
         public int id;
         public String name;
         public int mesh = -1;
-        public int camera = -1;
-        public List<Node> children;
+        public int skin = -1;
+        public List<Node> children = new ArrayList<>();
 
         public Node(String name) {
             id = -1;
@@ -34,129 +56,421 @@ public class Gltf
 
     private final List<Node> nodes = new ArrayList<>();
 
-    private static class Buffer
+    private static class BufferView
     {
         public int id;
-        public byte[] buffer;
+        public int byteOffset;
+        public int byteLength;
+        public int byteStride;
+        public int target;
+    }
+
+    private static class Primitive
+    {
+        public Accessor position;
+        public Accessor normal;
+        public Accessor texCoord;
+        public Accessor joints;
+        public Accessor weights;
+        public Accessor indices;
+        public int material = -1;
     }
 
+    private final List<Primitive> primitives = new ArrayList<>();
+    // One material, texture and image for each different texture, in the order the parts use them.
+    private final List<Texture> textures = new ArrayList<>();
+    private final List<String> materialNames = new ArrayList<>();
+    private final List<Integer> imageViews = new ArrayList<>();
+    private final List<Node> joints = new ArrayList<>();
+    private Node rootNode;
+
     public Gltf(List<VifDecode.Mesh> meshes, Texture texture) {
-        this.meshes = meshes;
-        this.texture = texture;
+        addPart("body", meshes, texture);
     }
 
-    public void write(String dir, String name) throws IOException {
-        String gltfName = name + ".gltf";
-        var path = Paths.get(dir, gltfName);
+    /**
+     * Adds more meshes to the character.
+     *
+     * @param texture The texture the meshes' uvs refer to, or null if there isn't one.
+     */
+    public void addPart(String name, List<VifDecode.Mesh> meshes, Texture texture) {
+        Part part = new Part();
+        part.name = name;
+        part.meshes = meshes;
+        part.texture = texture;
+        parts.add(part);
+    }
 
-        Charset charset = StandardCharsets.UTF_8;
-        try (var writer = Files.newBufferedWriter(path, charset)) {
-            JsonWriter jsonWriter = new JsonWriter(writer);
-            write(jsonWriter);
-        }
+    /**
+     * Writes name.glb in dir.
+     */
+    public Path write(String dir, String name) throws IOException {
+        return write(dir, name, GltfOutput.Format.GLB);
+    }
+
+    public Path write(String dir, String name, GltfOutput.Format format) throws IOException {
+        return GltfOutput.write(Paths.get(dir), name, format, bin, this::write);
     }
 
-    public void write(JsonWriter writer) throws IOException {
+    /**
+     * @param binUri The uri of the buffer, or null if it is the binary chunk of a .glb file.
+     */
+    public void write(JsonWriter writer, String binUri) throws IOException {
+        if (rootNode == null) {
+            build();
+        }
         writer.openObject();
         writeAsset(writer);
-        Node sceneRootNode = new Node("scene");
-        nodes.add(sceneRootNode);
-        sceneRootNode.id = nodes.size()-1;
-        writeScene(writer, sceneRootNode);
+        writeScene(writer, rootNode);
+        writeMeshes(writer);
+        writeMaterials(writer);
+        writeNodes(writer);
+        writeSkins(writer);
+        writeBuffers(writer, binUri);
+        writeAccessors(writer);
+        writer.closeObject();
+    }
 
-        writer.writeKey("meshes");
-        writer.openArray();
+    // Fills in the buffer, the accessors and the nodes from the parts.
+    private void build() throws IOException {
+        rootNode = createNode("scene");
 
-        // Just the first mesh for now
-        var mesh = meshes.get(0);
+        int numJoints = 0;
+        for (Part part : parts) {
+            for (var mesh : part.meshes) {
+                if (!mesh.vertexWeights.isEmpty()) {
+                    numJoints = Math.max(numJoints, maxJoint(mesh) + 1);
+                }
+            }
+        }
+        for (int j = 0; j < numJoints; ++j) {
+            Node joint = createNode("joint" + j);
+            rootNode.children.add(joint);
+            joints.add(joint);
+        }
 
-        sceneRootNode.mesh = 0;
+        /*
+            In glTF, meshes are defined as arrays of primitives.
+            Primitives correspond to the data required for GPU draw calls.
+            Primitives specify one or more attributes, corresponding to the vertex attributes used in the draw calls.
+            Indexed primitives also define an indices property.
+            Attributes and indices are defined as references to accessors containing corresponding data.
+            Each primitive also specifies a material and a primitive type that corresponds to the GPU primitive type
+            (e.g., triangle set).
+         */
+        BufferView vertexView = createBufferView(bin.align(), ARRAY_BUFFER);
+        vertexView.byteStride = VERTEX_STRIDE;
+        for (Part part : parts) {
+            if (part.texture != null) {
+                part.material = textures.indexOf(part.texture);
+                if (part.material < 0) {
+                    part.material = textures.size();
+                    textures.add(part.texture);
+                    materialNames.add(part.name);
+                }
+            }
+            for (int m = 0; m < part.meshes.size(); ++m) {
+                var mesh = part.meshes.get(m);
+                if (mesh.numIndices == 0) {
+                    continue;
+                }
+                var primitive = addVertices(vertexView, mesh, part.texture, numJoints > 0 && !mesh.vertexWeights.isEmpty());
+                primitive.material = part.material;
+                Node node = createNode(part.name + "_" + m);
+                node.mesh = primitives.size();
+                if (primitive.joints != null) {
+                    node.skin = 0;
+                }
+                primitives.add(primitive);
+                rootNode.children.add(node);
+            }
+        }
+        vertexView.byteLength = bin.length() - vertexView.byteOffset;
+
+        BufferView indexView = createBufferView(bin.align(), ELEMENT_ARRAY_BUFFER);
+        int p = 0;
+        for (Part part : parts) {
+            for (var mesh : part.meshes) {
+                if (mesh.numIndices > 0) {
+                    addIndices(indexView, mesh, primitives.get(p++));
+                }
+            }
+        }
+        indexView.byteLength = bin.length() - indexView.byteOffset;
+
+        for (Texture texture : textures) {
+            var png = new ByteArrayOutputStream();
+            ImageIO.write(texture.toImage(), "png", png);
+            var imageView = createBufferView(bin.putBytes(png.toByteArray()), 0);
+            imageView.byteLength = bin.length() - imageView.byteOffset;
+            imageViews.add(imageView.id);
+        }
+    }
 
-        writeMesh(writer, mesh);
+    private static int maxJoint(VifDecode.Mesh mesh) {
+        int max = 0;
+        for (int i = 0; i < mesh.numVertices * 4; ++i) {
+            if (mesh.weights[i] != 0) {
+                max = Math.max(max, mesh.joints[i] & 0xFF);
+            }
+        }
+        return max;
+    }
 
-        writer.closeArray();
+    private Primitive addVertices(BufferView view, VifDecode.Mesh mesh, Texture texture, boolean skinned) {
+        float[] minPos = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] maxPos = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        // The uvs are in 1/16ths of a texel.
+        float uScale = texture == null ? 0 : 1.0f / (texture.width * 16.0f);
+        float vScale = texture == null ? 0 : 1.0f / (texture.height * 16.0f);
+        int start = bin.length();
+        for (int v = 0; v < mesh.numVertices; ++v) {
+            for (int axis = 0; axis < 3; ++axis) {
+                float pos = mesh.positions[v * 3 + axis];
+                minPos[axis] = Math.min(minPos[axis], pos);
+                maxPos[axis] = Math.max(maxPos[axis], pos);
+                bin.putFloat(pos);
+            }
+            putNormal(mesh.normals[v * 3], mesh.normals[v * 3 + 1], mesh.normals[v * 3 + 2]);
+            bin.putFloat(mesh.uvs[v * 2] * uScale);
+            bin.putFloat(mesh.uvs[v * 2 + 1] * vScale);
+            putJointsAndWeights(mesh, v);
+        }
 
-        writeNodes(writer, "nodes", nodes);
-        writeBuffers(writer);
-        writeAccessors(writer);
-        writer.closeObject();
+        int byteOffset = start - view.byteOffset;
+        var primitive = new Primitive();
+        primitive.position = createAccessor(view.id, byteOffset, mesh.numVertices, "VEC3", ComponentType.FLOAT);
+        primitive.position.min_fa = minPos;
+        primitive.position.max_fa = maxPos;
+        primitive.normal = createAccessor(view.id, byteOffset + NORMAL_OFFSET, mesh.numVertices, "VEC3", ComponentType.FLOAT);
+        if (texture != null) {
+            primitive.texCoord = createAccessor(view.id, byteOffset + UV_OFFSET, mesh.numVertices, "VEC2", ComponentType.FLOAT);
+        }
+        if (skinned) {
+            primitive.joints = createAccessor(view.id, byteOffset + JOINTS_OFFSET, mesh.numVertices, "VEC4", ComponentType.UNSIGNED_BYTE);
+            primitive.weights = createAccessor(view.id, byteOffset + WEIGHTS_OFFSET, mesh.numVertices, "VEC4", ComponentType.UNSIGNED_BYTE);
+            primitive.weights.normalized = true;
+        }
+        return primitive;
     }
 
-    private final List<Buffer> buffers = new ArrayList<>();
+    // glTF needs unit normals, so vertices without a normal get one pointing up.
+    private void putNormal(float x, float y, float z) {
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+        if (len == 0) {
+            x = 0;
+            y = 0;
+            z = 1;
+            len = 1;
+        }
+        bin.putFloat(x / len);
+        bin.putFloat(y / len);
+        bin.putFloat(z / len);
+    }
 
-    private Buffer createBuffer(int size)
-    {
-        Buffer b = new Buffer();
-        b.id = buffers.size();
-        b.buffer = new byte[size];
-        buffers.add(b);
-        return b;
+    // The weights are out of 255 and must add up to exactly 255. A vertex without weights goes on joint 0.
+    private void putJointsAndWeights(VifDecode.Mesh mesh, int v) {
+        int i = v * 4;
+        int sum = 0;
+        int largest = 0;
+        for (int k = 0; k < 4; ++k) {
+            sum += mesh.weights[i + k] & 0xFF;
+            if ((mesh.weights[i + k] & 0xFF) > (mesh.weights[i + largest] & 0xFF)) {
+                largest = k;
+            }
+        }
+        int[] weights = new int[4];
+        if (sum == 0) {
+            weights[0] = 255;
+        } else {
+            int total = 0;
+            for (int k = 0; k < 4; ++k) {
+                weights[k] = (mesh.weights[i + k] & 0xFF) * 255 / sum;
+                total += weights[k];
+            }
+            weights[largest] += 255 - total;
+        }
+        for (int k = 0; k < 4; ++k) {
+            bin.putByte(weights[k] == 0 ? 0 : mesh.joints[i + k]);
+        }
+        for (int k = 0; k < 4; ++k) {
+            bin.putByte(weights[k]);
+        }
     }
 
+    private void addIndices(BufferView view, VifDecode.Mesh mesh, Primitive primitive) {
+        // Indices only fit in shorts for meshes of up to 64K vertices.
+        boolean shortIndices = mesh.numVertices <= 0x10000;
+        int start = bin.putIndices(mesh.indices, mesh.numIndices, shortIndices);
+        primitive.indices = createAccessor(view.id, start - view.byteOffset, mesh.numIndices, "SCALAR",
+                shortIndices ? ComponentType.UNSIGNED_SHORT : ComponentType.UNSIGNED_INT);
+    }
+
+    private Node createNode(String name) {
+        Node node = new Node(name);
+        node.id = nodes.size();
+        nodes.add(node);
+        return node;
+    }
+
+    // All the binary data goes in one buffer, written as the binary chunk of a .glb or as a .bin file.
+    private final GltfBuffer bin = new GltfBuffer();
+    private final List<BufferView> bufferViews = new ArrayList<>();
+
+    private BufferView createBufferView(int byteOffset, int target)
+    {
+        BufferView view = new BufferView();
+        view.id = bufferViews.size();
+        view.byteOffset = byteOffset;
+        view.target = target;
+        bufferViews.add(view);
+        return view;
+    }
 
-    private void writeBuffers(JsonWriter writer) throws IOException {
+    private void writeBuffers(JsonWriter writer, String binUri) throws IOException {
         // https://github.com/KhronosGroup/glTF/tree/master/specification/2.0#reference-buffer
+        // glTF has no empty buffers, so with nothing in the buffer there are no buffers or views to write.
+        if (bin.length() == 0) {
+            return;
+        }
         writer.writeKey("buffers");
         writer.openArray();
-        for (var buffer : buffers){
-            writer.openObject();
-            writer.writeKeyValue("byteLength", buffer.buffer.length);
-            // Embedded buffers
-            writer.writeKey("uri");
-            writeEmbeddedData(writer, buffer.buffer);
-            writer.closeObject();
+        writer.openObject();
+        writer.writeKeyValue("byteLength", bin.length());
+        if (binUri != null) {
+            writer.writeKeyValue("uri", binUri);
         }
+        writer.closeObject();
         writer.closeArray();
 
-        // For this implementation, each buffer has a single bufferview of the same index.
         writer.writeKey("bufferViews");
         writer.openArray();
-        for (var buffer : buffers){
+        for (var view : bufferViews){
             writer.openObject();
-            writer.writeKeyValue("buffer", buffer.id);
-            writer.writeKeyValue("byteOffset", 0);
-            writer.writeKeyValue("byteLength", buffer.buffer.length);
+            writer.writeKeyValue("buffer", 0);
+            writer.writeKeyValue("byteOffset", view.byteOffset);
+            writer.writeKeyValue("byteLength", view.byteLength);
+            if (view.byteStride > 0) {
+                writer.writeKeyValue("byteStride", view.byteStride);
+            }
+            if (view.target > 0) {
+                writer.writeKeyValue("target", view.target);
+            }
             writer.closeObject();
         }
         writer.closeArray();
 
     }
 
-    private void writeEmbeddedData(JsonWriter writer, byte[] buffer) throws IOException {
-        var encoder = Base64.getEncoder();
-        String encodedData = encoder.encodeToString(buffer);
-        writer.writeValue("data:application/octet-stream;base64,"+encodedData);
+    private void writeMeshes(JsonWriter writer) throws IOException {
+        if (primitives.isEmpty()) {
+            return;
+        }
+        writer.writeKey("meshes");
+        writer.openArray();
+        for (var primitive : primitives) {
+            writer.openObject();
+            writer.writeKey("primitives");
+            writer.openArray();
+            writer.openObject();
+            writer.writeKeyValue("mode", 4);    // triangles
+            writer.writeKey("attributes");
+            writer.openObject();
+            writer.writeKeyValue("POSITION", primitive.position.id);
+            writer.writeKeyValue("NORMAL", primitive.normal.id);
+            if (primitive.texCoord != null) {
+                writer.writeKeyValue("TEXCOORD_0", primitive.texCoord.id);
+            }
+            if (primitive.joints != null) {
+                writer.writeKeyValue("JOINTS_0", primitive.joints.id);
+                writer.writeKeyValue("WEIGHTS_0", primitive.weights.id);
+            }
+            writer.closeObject();
+            writer.writeKeyValue("indices", primitive.indices.id);
+            if (primitive.material >= 0) {
+                writer.writeKeyValue("material", primitive.material);
+            }
+            writer.closeObject();
+            writer.closeArray();
+            writer.closeObject();
+        }
+        writer.closeArray();
     }
 
-    private void writeMesh(JsonWriter writer, VifDecode.Mesh mesh) throws IOException {
-        /*
-            In glTF, meshes are defined as arrays of primitives.
-            Primitives correspond to the data required for GPU draw calls.
-            Primitives specify one or more attributes, corresponding to the vertex attributes used in the draw calls.
-            Indexed primitives also define an indices property.
-            Attributes and indices are defined as references to accessors containing corresponding data.
-            Each primitive also specifies a material and a primitive type that corresponds to the GPU primitive type
-            (e.g., triangle set).
-         */
-        var accessors = buildAccessors(mesh);
-        writer.openObject();
-        writer.writeKey("primitives");
+    // Material i uses texture i, which uses image i. The images are stored in the buffer.
+    private void writeMaterials(JsonWriter writer) throws IOException {
+        if (imageViews.isEmpty()) {
+            return;
+        }
+        writer.writeKey("materials");
+        writer.openArray();
+        for (int i = 0; i < materialNames.size(); ++i) {
+            writer.openObject();
+            writer.writeKeyValue("name", materialNames.get(i));
+            writer.writeKey("pbrMetallicRoughness");
+            writer.openObject();
+            writer.writeKey("baseColorTexture");
+            writer.openObject();
+            writer.writeKeyValue("index", i);
+            writer.closeObject();
+            writer.writeKey("metallicFactor");
+            writer.writeValue(0.0f);
+            writer.closeObject();
+            // The viewer draws characters without back face culling too.
+            writer.writeKeyValue("doubleSided", true);
+            writer.closeObject();
+        }
+        writer.closeArray();
+
+        writer.writeKey("samplers");
         writer.openArray();
         writer.openObject();
-        writer.writeKeyValue("mode", 4);    // triangles
-        writer.writeKey("attributes");
-        writer.openObject();
-        writer.writeKeyValue("POSITION", accessors.positionAccessor.id);
-        writer.closeObject();
-        writer.writeKeyValue("indices", accessors.indicesAccessor.id);
+        writer.writeKeyValue("magFilter", 9729);    // linear
+        writer.writeKeyValue("minFilter", 9729);
         writer.closeObject();
         writer.closeArray();
+
+        writer.writeKey("textures");
+        writer.openArray();
+        for (int i = 0; i < imageViews.size(); ++i) {
+            writer.openObject();
+            writer.writeKeyValue("sampler", 0);
+            writer.writeKeyValue("source", i);
+            writer.closeObject();
+        }
+        writer.closeArray();
+
+        writer.writeKey("images");
+        writer.openArray();
+        for (int view : imageViews) {
+            writer.openObject();
+            writer.writeKeyValue("bufferView", view);
+            writer.writeKeyValue("mimeType", "image/png");
+            writer.closeObject();
+        }
+        writer.closeArray();
+    }
+
+    private void writeSkins(JsonWriter writer) throws IOException {
+        if (joints.isEmpty()) {
+            return;
+        }
+        writer.writeKey("skins");
+        writer.openArray();
+        writer.openObject();
+        writer.writeKey("joints");
+        writer.openArray();
+        for (Node joint : joints) {
+            writer.writeValue(joint.id);
+        }
+        writer.closeArray();
         writer.closeObject();
+        writer.closeArray();
     }
 
     private enum ComponentType
     {
-        UNSIGNED_SHORT(5123), FLOAT(5126);
+        UNSIGNED_BYTE(5121), UNSIGNED_SHORT(5123), UNSIGNED_INT(5125), FLOAT(5126);
 
         private final int id;
 
@@ -173,6 +487,7 @@ public class Gltf
         public int byteOffset;
         public int count;
         public String type;
+        public boolean normalized;
         public float[] min_fa;
         public float[] max_fa;
 
@@ -181,6 +496,9 @@ public class Gltf
 
     private void writeAccessors(JsonWriter writer) throws IOException {
         // https://github.com/KhronosGroup/glTF/tree/master/specification/2.0#accessors
+        if (bin.length() == 0) {
+            return;
+        }
 
         writer.writeKey("accessors");
         writer.openArray();
@@ -191,6 +509,9 @@ public class Gltf
             writer.writeKeyValue("count", accessor.count);
             writer.writeKeyValue("type", accessor.type);
             writer.writeKeyValue("componentType", accessor.componentType.id);
+            if (accessor.normalized){
+                writer.writeKeyValue("normalized", true);
+            }
             if (accessor.min_fa != null){
                 writer.writeKeyValue("min", accessor.min_fa);
             }
@@ -217,72 +538,8 @@ public class Gltf
 
     private final List<Accessor> accessors = new ArrayList<>();
 
-    private static class MeshPrimAccessors
-    {
-        public Accessor positionAccessor;
-        public Accessor indicesAccessor;
-    }
-
-    private MeshPrimAccessors buildAccessors(VifDecode.Mesh mesh) {
-        int positionSize = mesh.vertices.size() * 12;
-        int indicesSize = mesh.triangleIndices.size() * 2;
-        var posBuffer = createBuffer(positionSize);
-        var idxBuffer = createBuffer(indicesSize);
-        int i=0;
-        VifDecode.Vec3F minPos = new VifDecode.Vec3F(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-        VifDecode.Vec3F maxPos = new VifDecode.Vec3F(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
-
-        for (var vec3 : mesh.vertices){
-            accumulateMin(minPos, vec3);
-            accumulateMax(maxPos, vec3);
-            i = writeFloat(posBuffer.buffer, i, vec3.x);
-            i = writeFloat(posBuffer.buffer, i, vec3.y);
-            i = writeFloat(posBuffer.buffer, i, vec3.z);
-        }
-        i=0;
-        for (var val : mesh.triangleIndices){
-            i = writeShort(idxBuffer.buffer, i, val);
-        }
-
-        var meshPrimAccessors = new MeshPrimAccessors();
-        meshPrimAccessors.positionAccessor = createAccessor(posBuffer.id, 0, mesh.vertices.size(), "VEC3", ComponentType.FLOAT);
-        meshPrimAccessors.positionAccessor.min_fa = new float[]{minPos.x, minPos.y, minPos.z};
-        meshPrimAccessors.positionAccessor.max_fa = new float[]{maxPos.x, maxPos.y, maxPos.z};
-
-        meshPrimAccessors.indicesAccessor = createAccessor(idxBuffer.id, 0, mesh.triangleIndices.size(), "SCALAR", ComponentType.UNSIGNED_SHORT);
-        return meshPrimAccessors;
-    }
-
-    private void accumulateMin(VifDecode.Vec3F minPos, VifDecode.Vec3F vec3) {
-        minPos.x = Math.min(minPos.x, vec3.x);
-        minPos.y = Math.min(minPos.y, vec3.y);
-        minPos.z = Math.min(minPos.z, vec3.z);
-    }
-
-    private void accumulateMax(VifDecode.Vec3F maxPos, VifDecode.Vec3F vec3) {
-        maxPos.x = Math.max(maxPos.x, vec3.x);
-        maxPos.y = Math.max(maxPos.y, vec3.y);
-        maxPos.z = Math.max(maxPos.z, vec3.z);
-    }
-
-    private int writeShort(byte[] buf, int idx, Integer val) {
-        buf[idx++] = (byte)(val & 0xFF);
-        buf[idx++] = (byte)((val >> 8) & 0xFF);
-        return idx;
-    }
-
-    private int writeFloat(byte[] buf, int idx, float f)
-    {
-        int bits = Float.floatToRawIntBits(f);
-        buf[idx++] = (byte)(bits & 0xFF);
-        buf[idx++] = (byte)((bits >> 8) & 0xFF);
-        buf[idx++] = (byte)((bits >> 16) & 0xFF);
-        buf[idx++] = (byte)((bits >> 24) & 0xFF);
-        return idx;
-    }
-
-    private void writeNodes(JsonWriter writer, String name, List<Node> nodes) throws IOException {
-        writer.writeKey(name);
+    private void writeNodes(JsonWriter writer) throws IOException {
+        writer.writeKey("nodes");
         writer.openArray();
         for (Node node : nodes) {
             writeNode(writer, node);
@@ -298,8 +555,16 @@ public class Gltf
         if (node.mesh >= 0){
             writer.writeKeyValue("mesh", node.mesh);
         }
-        if (node.children != null && !node.children.isEmpty()){
-            writeNodes(writer, "children", node.children);
+        if (node.skin >= 0){
+            writer.writeKeyValue("skin", node.skin);
+        }
+        if (!node.children.isEmpty()){
+            writer.writeKey("children");
+            writer.openArray();
+            for (Node child : node.children) {
+                writer.writeValue(child.id);
+            }
+            writer.closeArray();
         }
         writer.closeObject();
     }
@@ -0,0 +1,124 @@
+package net.ijbrown.bgtools.vifview;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The binary buffer of a glTF file, built up by appending little endian data.
+ * Every block of data starts on a 4 byte boundary, so accessors of any component type can point into it.
+ */
+public class GltfBuffer
+{
+    private byte[] data = new byte[0x10000];
+    private int length = 0;
+
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * Pads the buffer with zeros to a 4 byte boundary.
+     *
+     * @return The new length, which is where the next block starts.
+     */
+    public int align()
+    {
+        ensureSpace(3);
+        while ((length & 3) != 0) {
+            data[length++] = 0;
+        }
+        return length;
+    }
+
+    /**
+     * Appends a single float without aligning, for writing interleaved data.
+     */
+    public void putFloat(float value)
+    {
+        ensureSpace(4);
+        putIntAt(length, Float.floatToRawIntBits(value));
+        length += 4;
+    }
+
+    /**
+     * Appends a single byte without aligning, for writing interleaved data.
+     */
+    public void putByte(int value)
+    {
+        ensureSpace(1);
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * @return The offset the bytes start at.
+     */
+    public int putBytes(byte[] bytes)
+    {
+        int start = align();
+        ensureSpace(bytes.length);
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+        return start;
+    }
+
+    /**
+     * Appends the first count values of a float array.
+     *
+     * @return The offset the values start at.
+     */
+    public int putFloats(float[] values, int count)
+    {
+        int start = align();
+        ensureSpace(count * 4);
+        for (int i = 0; i < count; ++i) {
+            putIntAt(length, Float.floatToRawIntBits(values[i]));
+            length += 4;
+        }
+        return start;
+    }
+
+    /**
+     * Appends the first count values of an int array as unsigned shorts, or as ints if asShorts is false.
+     *
+     * @return The offset the values start at.
+     */
+    public int putIndices(int[] values, int count, boolean asShorts)
+    {
+        int start = align();
+        ensureSpace(count * 4);
+        for (int i = 0; i < count; ++i) {
+            int val = values[i];
+            data[length++] = (byte) val;
+            data[length++] = (byte) (val >> 8);
+            if (!asShorts) {
+                data[length++] = (byte) (val >> 16);
+                data[length++] = (byte) (val >> 24);
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return A buffer over the data, without copying it. It is only valid until more data is appended.
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        return ByteBuffer.wrap(data, 0, length);
+    }
+
+    private void putIntAt(int offset, int val)
+    {
+        data[offset] = (byte) val;
+        data[offset + 1] = (byte) (val >> 8);
+        data[offset + 2] = (byte) (val >> 16);
+        data[offset + 3] = (byte) (val >> 24);
+    }
+
+    private void ensureSpace(int bytes)
+    {
+        if (length + bytes > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + bytes));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.ijbrown.bgtools.vifview;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a glTF asset that has all its binary data in one buffer.
+ * It is either a single binary .glb file, or a .gltf file with the buffer in a .bin file next to it.
+ * The binary data is written straight from the buffer to the file without being copied or encoded.
+ */
+public final class GltfOutput
+{
+    public enum Format
+    {
+        /** name.glb holding the JSON and the buffer. */
+        GLB,
+        /** name.gltf with the buffer in name.bin. */
+        GLTF_AND_BIN
+    }
+
+    /**
+     * Writes the JSON of the asset. This is called before the buffer is written, so it may still add to it.
+     */
+    public interface JsonSource
+    {
+        /**
+         * @param binUri The uri of the buffer, or null if the buffer is the binary chunk of a .glb file.
+         *               A buffer that is still empty once the JSON is written must be left out of it.
+         */
+        void write(JsonWriter writer, String binUri) throws IOException;
+    }
+
+    private static final int GLB_MAGIC = 0x46546C67;        // "glTF"
+    private static final int CHUNK_JSON = 0x4E4F534A;       // "JSON"
+    private static final int CHUNK_BIN = 0x004E4942;        // "BIN\0"
+
+    private GltfOutput()
+    {
+    }
+
+    /**
+     * A name ending in .gltf gets its buffer in a .bin file next to it. Anything else is written as a .glb.
+     */
+    public static Format formatOf(String filename)
+    {
+        return filename.endsWith(".gltf") ? Format.GLTF_AND_BIN : Format.GLB;
+    }
+
+    /**
+     * @return The filename without its .glb or .gltf extension.
+     */
+    public static String stripExtension(String filename)
+    {
+        if (filename.endsWith(".gltf")) {
+            return filename.substring(0, filename.length() - 5);
+        } else if (filename.endsWith(".glb")) {
+            return filename.substring(0, filename.length() - 4);
+        }
+        return filename;
+    }
+
+    /**
+     * @return The path of the .glb or .gltf file.
+     */
+    public static Path write(Path dir, String name, Format format, GltfBuffer bin, JsonSource json) throws IOException
+    {
+        if (format == Format.GLB) {
+            Path path = dir.resolve(name + ".glb");
+            writeGlb(path, toJson(json, null), bin);
+            return path;
+        }
+        String binName = name + ".bin";
+        Path path = dir.resolve(name + ".gltf");
+        byte[] jsonBytes = toJson(json, binName);
+        try (FileChannel channel = open(path)) {
+            writeFully(channel, ByteBuffer.wrap(jsonBytes));
+        }
+        // glTF has no empty buffers, so there is no .bin file when nothing was put in the buffer.
+        if (bin.length() > 0) {
+            try (FileChannel channel = open(dir.resolve(binName))) {
+                writeFully(channel, bin.asByteBuffer());
+            }
+        }
+        return path;
+    }
+
+    private static void writeGlb(Path path, byte[] json, GltfBuffer bin) throws IOException
+    {
+        // Both chunks must be a multiple of 4 bytes long. JSON is padded with spaces and binary data with zeros.
+        int jsonLength = (json.length + 3) & ~3;
+        int binLength = (bin.length() + 3) & ~3;
+        int totalLength = 12 + 8 + jsonLength + (binLength > 0 ? 8 + binLength : 0);
+
+        ByteBuffer header = ByteBuffer.allocate(12 + 8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(GLB_MAGIC).putInt(2).putInt(totalLength);
+        header.putInt(jsonLength).putInt(CHUNK_JSON);
+        header.flip();
+
+        ByteBuffer jsonPadding = ByteBuffer.allocate(jsonLength - json.length);
+        while (jsonPadding.hasRemaining()) {
+            jsonPadding.put((byte) ' ');
+        }
+        jsonPadding.flip();
+
+        ByteBuffer binHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        binHeader.putInt(binLength).putInt(CHUNK_BIN);
+        binHeader.flip();
+
+        try (FileChannel channel = open(path)) {
+            writeFully(channel, header, ByteBuffer.wrap(json), jsonPadding);
+            if (binLength > 0) {
+                writeFully(channel, binHeader, bin.asByteBuffer(), ByteBuffer.allocate(binLength - bin.length()));
+            }
+        }
+    }
+
+    private static byte[] toJson(JsonSource json, String binUri) throws IOException
+    {
+        StringWriter stringWriter = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(stringWriter)) {
+            json.write(new JsonWriter(writer), binUri);
+        }
+        return stringWriter.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static FileChannel open(Path path) throws IOException
+    {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException
+    {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+}
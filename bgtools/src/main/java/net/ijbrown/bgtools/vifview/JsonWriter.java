@@ -23,6 +23,11 @@ public class JsonWriter {
         writeValue(value);
     }
 
+    public void writeKeyValue(String key, boolean value) throws IOException {
+        writeKey(key);
+        writeValue(value);
+    }
+
     public void writeKeyValue(String key, float[] value) throws IOException {
         writeKey(key);
         writeValue(value);
@@ -54,6 +59,14 @@ public class JsonWriter {
         needsComma = true;
     }
 
+    public void writeValue(boolean value) throws IOException {
+        if (needsComma){
+            writer.append(",");
+        }
+        writer.append(Boolean.toString(value));
+        needsComma = true;
+    }
+
     public void writeValue(int value) throws IOException {
         if (needsComma){
             writer.append(",");
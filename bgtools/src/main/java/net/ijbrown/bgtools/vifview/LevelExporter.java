@@ -0,0 +1,520 @@
+package net.ijbrown.bgtools.vifview;
+
+import net.ijbrown.bgtools.lmp.GameType;
+import net.ijbrown.bgtools.lmp.LevelTexDecode;
+import net.ijbrown.bgtools.lmp.Lmp;
+import net.ijbrown.bgtools.lmp.TexDecode;
+import net.ijbrown.bgtools.lmp.VifDecode;
+import net.ijbrown.bgtools.lmp.WorldData;
+import net.ijbrown.bgtools.lmp.WorldDecode;
+import net.ijbrown.bgtools.lmp.WorldMeshTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports a world to glTF format, either as a .glb file or as a .gltf file with the geometry in a .bin file.
+ * Each different mesh is written once and every element that uses it is a node that refers to it, carrying the
+ * element's position and rotation. The textures come from the level's texture grid and are written as PNGs.
+ * An exporter collects the level as it goes, so use a new one for each level.
+ */
+public class LevelExporter
+{
+    private static final int ARRAY_BUFFER = 34962;
+    private static final int ELEMENT_ARRAY_BUFFER = 34963;
+
+    private final GameType gameType;
+    private final GltfOutput.Format format;
+
+    public LevelExporter(GameType gameType)
+    {
+        this(gameType, GltfOutput.Format.GLB);
+    }
+
+    public LevelExporter(GameType gameType, GltfOutput.Format format)
+    {
+        this.gameType = gameType;
+        this.format = format;
+    }
+
+    private static class BufferView
+    {
+        public int byteOffset;
+        public int byteLength;
+        public int target;
+    }
+
+    private static class Accessor
+    {
+        public int bufferView;
+        public int count;
+        public String type;
+        public int componentType;
+        public float[] min;
+        public float[] max;
+    }
+
+    private static class Material
+    {
+        public String image;
+        public int width;
+        public int height;
+    }
+
+    private static class Primitive
+    {
+        public int position;
+        public int texCoord = -1;
+        public int indices;
+        public int material = -1;
+    }
+
+    private static class Node
+    {
+        public int element;
+        public int mesh;
+        public int flags;
+        public float[] translation;
+        public float[] rotation;
+        public float[] scale;
+    }
+
+    private final GltfBuffer bin = new GltfBuffer();
+    private final List<BufferView> bufferViews = new ArrayList<>();
+    private final List<Accessor> accessors = new ArrayList<>();
+    private final List<Material> materials = new ArrayList<>();
+    private final List<Primitive> meshes = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+
+    /**
+     * Exports a level of the game in gameDir.
+     *
+     * @param level          The gob and the world in it, such as tavern/pub for pub.world in tavern.gob.
+     *                       The world can be left out when it has the same name as the gob.
+     *                       The textures come from the gob's .tex file, such as tavern.tex.
+     * @param exportFilename The .glb, or .gltf for a separate .bin file. The textures are written next to it.
+     */
+    public static void exportLevel(String gameDir, String level, String exportFilename) throws IOException
+    {
+        GameConfigs cfg = new GameConfigs();
+        try {
+            cfg.read();
+        } catch (IOException | URISyntaxException e) {
+            throw new IllegalStateException("Failed to read config");
+        }
+
+        GameDataManager gameDataManager = new GameDataManager(cfg, gameDir);
+        GameConfig gameConfig = gameDataManager.discover();
+        if (gameConfig == null) {
+            throw new RuntimeException("Couldn't find the game in " + gameDir);
+        }
+
+        int slash = level.indexOf('/');
+        String gobName = slash < 0 ? level : level.substring(0, slash);
+        String worldName = slash < 0 ? level : level.substring(slash + 1);
+        Lmp lmp = gameDataManager.getGobLmp(gobName + ".gob", gobName + ".lmp");
+        Lmp.Entry worldEntry = lmp == null ? null : lmp.findEntry(worldName + ".world");
+        if (worldEntry == null) {
+            throw new RuntimeException("Couldn't find " + worldName + ".world in " + gobName + ".gob");
+        }
+
+        File exportFile = new File(GltfOutput.stripExtension(exportFilename));
+        File outDir = exportFile.getAbsoluteFile().getParentFile();
+        File levelTexFile = gameDataManager.getDataPath(gobName + ".tex").toFile();
+        new LevelExporter(gameConfig.type, GltfOutput.formatOf(exportFilename))
+                .export(worldEntry.getBytes(), levelTexFile, outDir, exportFile.getName());
+    }
+
+    /**
+     * @param worldFile    The .world file from the level's lmp.
+     * @param levelTexFile The level's .tex file. If it can't be read the level is exported without textures.
+     * @param outDir       Where to write name.glb, or name.gltf and name.bin, and the textures.
+     */
+    public void export(File worldFile, File levelTexFile, File outDir, String name) throws IOException
+    {
+        export(Files.readAllBytes(worldFile.toPath()), levelTexFile, outDir, name);
+    }
+
+    /**
+     * @param worldData The contents of the .world file.
+     */
+    public void export(byte[] worldData, File levelTexFile, File outDir, String name) throws IOException
+    {
+        WorldDecode worldDecode = new WorldDecode(gameType);
+        worldDecode.read(worldData);
+        WorldData world = worldDecode.decode();
+        WorldMeshTable meshTable = worldDecode.decodeMeshes(world);
+
+        LevelTexDecode levelTexDecoder = new LevelTexDecode();
+        boolean hasTextures = true;
+        try {
+            levelTexDecoder.read(levelTexFile);
+        } catch (IOException ioe) {
+            hasTextures = false;
+        }
+
+        outDir.mkdirs();
+
+        // Keyed by the offset of the texture in the .tex file.
+        Map<Integer, Integer> materialsByTexture = new HashMap<>();
+        // Keyed by shared mesh index << 32 | material + 1.
+        Map<Long, Integer> meshesByKey = new HashMap<>();
+        // Keyed by shared mesh index << 32 | width << 16 | height.
+        Map<Long, Integer> texCoordsByKey = new HashMap<>();
+        int[] positionAccessors = new int[meshTable.size()];
+        int[] indexAccessors = new int[meshTable.size()];
+        Arrays.fill(positionAccessors, -1);
+
+        List<WorldData.Element> elements = world.getElements();
+        for (int e = 0; e < elements.size(); ++e) {
+            WorldData.Element element = elements.get(e);
+            int meshIndex = meshTable.getSharedIndex(meshTable.indexOf(element.meshOffset));
+            VifDecode.Mesh mesh = meshTable.getMesh(meshIndex);
+            if (mesh == null || mesh.numIndices == 0) {
+                continue;
+            }
+
+            int material = -1;
+            if (hasTextures) {
+                material = findMaterial(world, element, levelTexDecoder, outDir, materialsByTexture);
+            }
+
+            long meshKey = (long) meshIndex << 32 | (material + 1);
+            Integer gltfMesh = meshesByKey.get(meshKey);
+            if (gltfMesh == null) {
+                if (positionAccessors[meshIndex] < 0) {
+                    positionAccessors[meshIndex] = addPositions(mesh);
+                    indexAccessors[meshIndex] = addIndices(mesh);
+                }
+                Primitive primitive = new Primitive();
+                primitive.position = positionAccessors[meshIndex];
+                primitive.indices = indexAccessors[meshIndex];
+                primitive.material = material;
+                if (material >= 0) {
+                    // The UVs are in texels, so meshes used with different sized textures need their own.
+                    Material m = materials.get(material);
+                    long uvKey = (long) meshIndex << 32 | m.width << 16 | m.height;
+                    Integer texCoord = texCoordsByKey.get(uvKey);
+                    if (texCoord == null) {
+                        texCoord = addTexCoords(mesh, m.width, m.height);
+                        texCoordsByKey.put(uvKey, texCoord);
+                    }
+                    primitive.texCoord = texCoord;
+                }
+                gltfMesh = meshes.size();
+                meshes.add(primitive);
+                meshesByKey.put(meshKey, gltfMesh);
+            }
+            nodes.add(createNode(e, element, gltfMesh));
+        }
+
+        Path path = GltfOutput.write(outDir.toPath(), name, format, bin, this::write);
+        System.out.println("Exported " + nodes.size() + " elements using " + meshes.size() + " meshes to " + path.getFileName());
+    }
+
+    // Returns the material for the element's texture, extracting the texture the first time it is used.
+    private int findMaterial(WorldData world, WorldData.Element element, LevelTexDecode levelTexDecoder, File outDir,
+                             Map<Integer, Integer> materialsByTexture) throws IOException
+    {
+        int x = element.texCell % 100;
+        int y = element.texCell / 100;
+        if (x < world.getTextureGridXMin() || x > world.getTextureGridXMax()
+                || y < world.getTextureGridYMin() || y > world.getTextureGridYMax()) {
+            return -1;
+        }
+        int texOffset = world.getTextureGridEntry(x, y).texOffset;
+        int i = element.texNum / 0x40;
+        if (i < 1 || i > levelTexDecoder.getNumEntries(texOffset)) {
+            return -1;
+        }
+        int chunkOffset = texOffset + 0x40 * i;
+        Integer material = materialsByTexture.get(chunkOffset);
+        if (material == null) {
+            material = -1;
+            TexDecode.DecodedTex tex = levelTexDecoder.decodeTex(chunkOffset);
+            if (tex != null) {
+                // Separators keep cells such as (1,23) and (12,3) apart.
+                File outFile = new File(outDir, x + "_" + y + "_" + i + ".png");
+                levelTexDecoder.writePng(tex, outFile);
+                Material m = new Material();
+                m.image = outFile.getName();
+                m.width = tex.pixelsWidth;
+                m.height = tex.pixelsHeight;
+                material = materials.size();
+                materials.add(m);
+            }
+            materialsByTexture.put(chunkOffset, material);
+        }
+        return material;
+    }
+
+    private Node createNode(int e, WorldData.Element element, int mesh)
+    {
+        Node node = new Node();
+        node.element = e;
+        node.mesh = mesh;
+        node.flags = element.flags;
+        // Positions are in 1/16ths like the mesh vertices.
+        node.translation = new float[]{element.posX / 16.0f, element.posY / 16.0f, element.posZ / 16.0f};
+        if (element.hasZRotation()) {
+            double half = Math.atan2(element.getSin(), element.getCos()) / 2;
+            node.rotation = new float[]{0, 0, (float) Math.sin(half), (float) Math.cos(half)};
+            if (element.isMirroredY()) {
+                node.scale = new float[]{1, -1, 1};
+            }
+        }
+        return node;
+    }
+
+    private int addPositions(VifDecode.Mesh mesh)
+    {
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int p = 0; p < mesh.numVertices * 3; ++p) {
+            min[p % 3] = Math.min(min[p % 3], mesh.positions[p]);
+            max[p % 3] = Math.max(max[p % 3], mesh.positions[p]);
+        }
+        int offset = bin.putFloats(mesh.positions, mesh.numVertices * 3);
+        Accessor accessor = createAccessor(offset, ARRAY_BUFFER, mesh.numVertices, "VEC3", 5126);
+        accessor.min = min;
+        accessor.max = max;
+        return accessors.size() - 1;
+    }
+
+    private int addTexCoords(VifDecode.Mesh mesh, int width, int height)
+    {
+        float[] uvs = new float[mesh.numVertices * 2];
+        for (int v = 0; v < mesh.numVertices; ++v) {
+            uvs[v * 2] = mesh.uvs[v * 2] / (width * 16.0f);
+            uvs[v * 2 + 1] = mesh.uvs[v * 2 + 1] / (height * 16.0f);
+        }
+        int offset = bin.putFloats(uvs, uvs.length);
+        createAccessor(offset, ARRAY_BUFFER, mesh.numVertices, "VEC2", 5126);
+        return accessors.size() - 1;
+    }
+
+    private int addIndices(VifDecode.Mesh mesh)
+    {
+        // Indices only fit in shorts for meshes of up to 64K vertices.
+        boolean shortIndices = mesh.numVertices <= 0x10000;
+        int offset = bin.putIndices(mesh.indices, mesh.numIndices, shortIndices);
+        createAccessor(offset, ELEMENT_ARRAY_BUFFER, mesh.numIndices, "SCALAR", shortIndices ? 5123 : 5125);
+        return accessors.size() - 1;
+    }
+
+    // Each accessor has a buffer view of its own.
+    private Accessor createAccessor(int byteOffset, int target, int count, String type, int componentType)
+    {
+        BufferView view = new BufferView();
+        view.byteOffset = byteOffset;
+        view.byteLength = bin.length() - byteOffset;
+        view.target = target;
+        bufferViews.add(view);
+
+        Accessor accessor = new Accessor();
+        accessor.bufferView = bufferViews.size() - 1;
+        accessor.count = count;
+        accessor.type = type;
+        accessor.componentType = componentType;
+        accessors.add(accessor);
+        return accessor;
+    }
+
+    private void write(JsonWriter writer, String binUri) throws IOException
+    {
+        writer.openObject();
+        writer.writeKey("asset");
+        writer.openObject();
+        writer.writeKeyValue("version", "2.0");
+        writer.writeKeyValue("generator", "bgdatools");
+        writer.closeObject();
+
+        // Node 0 is the root and the elements are its children.
+        writer.writeKeyValue("scene", 0);
+        writer.writeKey("scenes");
+        writer.openArray();
+        writer.openObject();
+        writer.writeKey("nodes");
+        writer.openArray();
+        writer.writeValue(0);
+        writer.closeArray();
+        writer.closeObject();
+        writer.closeArray();
+
+        writeNodes(writer);
+        writeMeshes(writer);
+        writeMaterials(writer);
+        writeBuffers(writer, binUri);
+        writer.closeObject();
+    }
+
+    // A buffer can't be empty, so a level without any meshes has no buffer, views or accessors.
+    private void writeBuffers(JsonWriter writer, String binUri) throws IOException
+    {
+        if (bin.length() == 0) {
+            return;
+        }
+        writer.writeKey("buffers");
+        writer.openArray();
+        writer.openObject();
+        writer.writeKeyValue("byteLength", bin.length());
+        if (binUri != null) {
+            writer.writeKeyValue("uri", binUri);
+        }
+        writer.closeObject();
+        writer.closeArray();
+
+        writer.writeKey("bufferViews");
+        writer.openArray();
+        for (BufferView view : bufferViews) {
+            writer.openObject();
+            writer.writeKeyValue("buffer", 0);
+            writer.writeKeyValue("byteOffset", view.byteOffset);
+            writer.writeKeyValue("byteLength", view.byteLength);
+            writer.writeKeyValue("target", view.target);
+            writer.closeObject();
+        }
+        writer.closeArray();
+
+        writer.writeKey("accessors");
+        writer.openArray();
+        for (Accessor accessor : accessors) {
+            writer.openObject();
+            writer.writeKeyValue("bufferView", accessor.bufferView);
+            writer.writeKeyValue("count", accessor.count);
+            writer.writeKeyValue("type", accessor.type);
+            writer.writeKeyValue("componentType", accessor.componentType);
+            if (accessor.min != null) {
+                writer.writeKeyValue("min", accessor.min);
+                writer.writeKeyValue("max", accessor.max);
+            }
+            writer.closeObject();
+        }
+        writer.closeArray();
+    }
+
+    private void writeNodes(JsonWriter writer) throws IOException
+    {
+        writer.writeKey("nodes");
+        writer.openArray();
+        writer.openObject();
+        writer.writeKeyValue("name", "level");
+        if (!nodes.isEmpty()) {
+            writer.writeKey("children");
+            writer.openArray();
+            for (int i = 1; i <= nodes.size(); ++i) {
+                writer.writeValue(i);
+            }
+            writer.closeArray();
+        }
+        writer.closeObject();
+        for (Node node : nodes) {
+            writer.openObject();
+            writer.writeKeyValue("name", "element" + node.element);
+            writer.writeKeyValue("mesh", node.mesh);
+            writer.writeKeyValue("translation", node.translation);
+            if (node.rotation != null) {
+                writer.writeKeyValue("rotation", node.rotation);
+            }
+            if (node.scale != null) {
+                writer.writeKeyValue("scale", node.scale);
+            }
+            writer.writeKey("extras");
+            writer.openObject();
+            writer.writeKeyValue("flags", node.flags);
+            writer.closeObject();
+            writer.closeObject();
+        }
+        writer.closeArray();
+    }
+
+    private void writeMeshes(JsonWriter writer) throws IOException
+    {
+        if (meshes.isEmpty()) {
+            return;
+        }
+        writer.writeKey("meshes");
+        writer.openArray();
+        for (Primitive primitive : meshes) {
+            writer.openObject();
+            writer.writeKey("primitives");
+            writer.openArray();
+            writer.openObject();
+            writer.writeKeyValue("mode", 4);    // triangles
+            writer.writeKey("attributes");
+            writer.openObject();
+            writer.writeKeyValue("POSITION", primitive.position);
+            if (primitive.texCoord >= 0) {
+                writer.writeKeyValue("TEXCOORD_0", primitive.texCoord);
+            }
+            writer.closeObject();
+            writer.writeKeyValue("indices", primitive.indices);
+            if (primitive.material >= 0) {
+                writer.writeKeyValue("material", primitive.material);
+            }
+            writer.closeObject();
+            writer.closeArray();
+            writer.closeObject();
+        }
+        writer.closeArray();
+    }
+
+    private void writeMaterials(JsonWriter writer) throws IOException
+    {
+        if (materials.isEmpty()) {
+            return;
+        }
+        writer.writeKey("materials");
+        writer.openArray();
+        for (int i = 0; i < materials.size(); ++i) {
+            writer.openObject();
+            writer.writeKey("pbrMetallicRoughness");
+            writer.openObject();
+            writer.writeKey("baseColorTexture");
+            writer.openObject();
+            writer.writeKeyValue("index", i);
+            writer.closeObject();
+            writer.writeKey("metallicFactor");
+            writer.writeValue(0.0f);
+            writer.closeObject();
+            writer.closeObject();
+        }
+        writer.closeArray();
+
+        writer.writeKey("samplers");
+        writer.openArray();
+        writer.openObject();
+        writer.writeKeyValue("magFilter", 9729);    // linear
+        writer.writeKeyValue("minFilter", 9729);
+        writer.closeObject();
+        writer.closeArray();
+
+        // One texture and image per material.
+        writer.writeKey("textures");
+        writer.openArray();
+        for (int i = 0; i < materials.size(); ++i) {
+            writer.openObject();
+            writer.writeKeyValue("sampler", 0);
+            writer.writeKeyValue("source", i);
+            writer.closeObject();
+        }
+        writer.closeArray();
+
+        writer.writeKey("images");
+        writer.openArray();
+        for (Material material : materials) {
+            writer.openObject();
+            writer.writeKeyValue("uri", material.image);
+            writer.closeObject();
+        }
+        writer.closeArray();
+    }
+}
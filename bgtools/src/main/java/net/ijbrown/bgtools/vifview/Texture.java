@@ -1,6 +1,8 @@
 package net.ijbrown.bgtools.vifview;
 
+import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 
 import net.ijbrown.bgtools.lmp.TexDecode;
@@ -66,19 +68,34 @@ public class Texture
         height = makePow2(tex.pixelsHeight);
         buf = BufferUtils.createByteBuffer(width*height*4);
 
+        // RGBA bytes read as a little endian int are ABGR, so only red and blue need swapping.
+        IntBuffer pixels = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
         int srcIdx=0;
         for (int y=0; y<tex.pixelsHeight; ++y){
-            int idx = y * width * 4;
+            int idx = y * width;
             for (int x=0; x<tex.pixelsWidth; ++x){
-                var pixel = tex.pixels[srcIdx++];
-                buf.put(idx++, pixel.r);
-                buf.put(idx++, pixel.g);
-                buf.put(idx++, pixel.b);
-                buf.put(idx++, pixel.a);
+                int argb = tex.pixels[srcIdx++];
+                pixels.put(idx++, (argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16));
             }
         }
     }
 
+    /**
+     * @return The texture as an image, at the size it is uploaded at.
+     */
+    public BufferedImage toImage()
+    {
+        IntBuffer pixels = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; ++i) {
+            int abgr = pixels.get(i);
+            argb[i] = (abgr & 0xFF00FF00) | ((abgr >> 16) & 0xFF) | ((abgr & 0xFF) << 16);
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
     public void loadTexture(String fileName) throws Exception {
 
         // Load Texture file